@@ -0,0 +1,59 @@
+package org.atoiks.games.nostalgia;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AssemblerBenchmark {
+
+    // Number of generated functions (about 10 instructions each)
+    @Param({ "100", "1000" })
+    public int functions;
+
+    private String source;
+
+    @Setup
+    public void setup() {
+        // Labels, forward and backward jumps, constants, prefixes (from the
+        // larger immediates) and directives, so roughly what a real kernel
+        // looks like.
+        final StringBuilder sb = new StringBuilder();
+        sb.append("    .ORG    0x4000\n");
+        sb.append("    .SET    VIDMEM, 0x2000\n");
+        sb.append("    JABS.Z  %R0, FUNC_0, %R0\n");
+        for (int i = 0; i < this.functions; ++i) {
+            final int next = (i + 1) % this.functions;
+            sb.append("    .ALIGN  2\n");
+            sb.append("FUNC_").append(i).append(":\n");
+            sb.append("    PUSH.W  %R2\n");
+            sb.append("    MOV.I   %R2, ").append(i & 0x1F).append('\n');
+            sb.append("    MOV.I   %R3, ").append(0x100 + i).append('\n');
+            sb.append("LOOP_").append(i).append(":\n");
+            sb.append("    ADD.R   %R1, %R1, %R2\n");
+            sb.append("    ST.B    %R1, VIDMEM, %R3\n");
+            sb.append("    SUB.I   %R3, 1\n");
+            sb.append("    JABS.NZ %R3, LOOP_").append(i).append(", %R0\n");
+            sb.append("    IMAC    %R2, %R1, %R2, %R3\n");
+            sb.append("    POP.W   %R2\n");
+            sb.append("    JABS.Z  %R0, FUNC_").append(next).append(", %R0\n");
+            sb.append("DATA_").append(i).append(":\n");
+            sb.append("    .EMIT   ").append(i & 0xFF).append(", 0x2A\n");
+        }
+        this.source = sb.toString();
+    }
+
+    @Benchmark
+    public byte[] assembleAll() throws IOException {
+        final Assembler asm = new Assembler();
+        asm.loadSource(new StringReader(this.source));
+        return asm.assembleAll();
+    }
+}
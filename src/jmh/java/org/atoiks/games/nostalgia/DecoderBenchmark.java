@@ -0,0 +1,46 @@
+package org.atoiks.games.nostalgia;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecoderBenchmark {
+
+    @Param({ "lightbike", "moving_dot", "memcpy" })
+    public String sample;
+
+    private ByteBuffer code;
+    private Decoder decoder;
+    private InstrTiming timing;
+
+    @Setup
+    public void setup() throws IOException {
+        final byte[] bytes = Samples.kernel(this.sample);
+        final ByteBuffer words = ByteBuffer.wrap(bytes, 0, bytes.length & ~1).slice();
+
+        this.code = words;
+        this.decoder = new Decoder(() -> this.code.getShort());
+        this.timing = new InstrTiming();
+    }
+
+    @Benchmark
+    public int decodeAll() {
+        this.code.rewind();
+
+        int total = 0;
+        while (this.code.hasRemaining()) {
+            this.timing.clearTiming();
+            this.decoder.decode(this.timing);
+            total += this.timing.getTiming();
+        }
+        return total;
+    }
+}
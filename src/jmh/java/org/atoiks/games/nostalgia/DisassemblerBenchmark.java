@@ -0,0 +1,36 @@
+package org.atoiks.games.nostalgia;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DisassemblerBenchmark {
+
+    @Param({ "lightbike", "moving_dot" })
+    public String sample;
+
+    private byte[] code;
+    private PrintStream out;
+
+    @Setup
+    public void setup() throws IOException {
+        this.code = Samples.kernel(this.sample);
+
+        // The formatting is part of what is measured, the writing is not
+        this.out = Samples.discard();
+    }
+
+    @Benchmark
+    public void disassembleAll() {
+        new Disassembler(this.out, ByteBuffer.wrap(this.code)).disassembleAll();
+    }
+}
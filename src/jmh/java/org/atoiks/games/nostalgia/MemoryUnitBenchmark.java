@@ -0,0 +1,103 @@
+package org.atoiks.games.nostalgia;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemoryUnitBenchmark {
+
+    private static final int ACCESSES = 4096;
+
+    // Bytes moved by copyBlock and copyBytes (inside the 0x10000 region)
+    private static final int COPY_SIZE = 0x8000;
+
+    // Same layout as a running machine, plus a few more regions
+    private static final int[][] REGIONS = {
+        { 0x0000,  0x0100 },
+        { 0x1000,  7 },
+        { 0x2000,  Screen.VIRT_WIDTH * Screen.VIRT_HEIGHT * 2 },
+        { 0x4000,  0x4000 },
+        { 0x10000, 0x10000 },
+        { 0x40000, 0x1000 },
+        { 0x80000, 0x8000 },
+    };
+
+    private MemoryUnit mem;
+    private int[] addresses;
+
+    @Setup
+    public void setup() {
+        this.mem = new MemoryUnit();
+        for (final int[] region : REGIONS) {
+            this.mem.mapHandler(region[0], new GenericMemory(new byte[region[1]]));
+        }
+
+        // Spread over all of the regions (word aligned and never crossing
+        // the end of one, so the same addresses work for every size)
+        final Random rnd = new Random(42);
+        this.addresses = new int[ACCESSES];
+        for (int i = 0; i < ACCESSES; ++i) {
+            final int[] region = REGIONS[rnd.nextInt(REGIONS.length)];
+            final int size = region[1] & ~3;
+            this.addresses[i] = size == 0 ? region[0] : region[0] + (rnd.nextInt(size) & ~3);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ACCESSES)
+    public int readByte() {
+        int acc = 0;
+        for (final int address : this.addresses) {
+            acc += this.mem.read(address);
+        }
+        return acc;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ACCESSES)
+    public void writeByte() {
+        for (final int address : this.addresses) {
+            this.mem.write(address, (byte) address);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ACCESSES)
+    public int readWord() {
+        int acc = 0;
+        for (final int address : this.addresses) {
+            acc += this.mem.readWord(address);
+        }
+        return acc;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ACCESSES)
+    public void writeWord() {
+        for (final int address : this.addresses) {
+            this.mem.writeWord(address, (short) address);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COPY_SIZE)
+    public void copyBlock() {
+        this.mem.copy(0x10000, 0x18000, COPY_SIZE);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COPY_SIZE)
+    public void copyBytes() {
+        // What a kernel without the DmaController ends up doing
+        for (int i = 0; i < COPY_SIZE; ++i) {
+            this.mem.write(0x10000 + i, this.mem.read(0x18000 + i));
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.atoiks.games.nostalgia;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProcessUnitBenchmark {
+
+    private static final int QUANTAS = 1000;
+    private static final int STEPS = 5000;
+
+    @Param({ "lightbike", "memcpy" })
+    public String sample;
+
+    @Param({ "false", "true" })
+    public boolean jit;
+
+    private byte[] kernel;
+    private ProcessUnit proc;
+
+    @Setup(Level.Trial)
+    public void assemble() throws IOException {
+        this.kernel = Samples.kernel(this.sample);
+    }
+
+    @Setup(Level.Iteration)
+    public void boot() throws IOException {
+        // Fresh machine every iteration (lightbike ends up waiting for keys
+        // anyway, so it does not matter much where it is)
+        this.proc = new ProcessUnit(Samples.machine(this.kernel));
+        if (this.jit) {
+            this.proc.enableJit();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUANTAS)
+    public long executeNextQuanta() {
+        for (int i = 0; i < QUANTAS; ++i) {
+            this.proc.executeNextQuanta();
+        }
+        return this.proc.getCycleCount();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public long executeNext() {
+        // (Never goes through the JIT)
+        for (int i = 0; i < STEPS; ++i) {
+            this.proc.executeNext();
+        }
+        return this.proc.getCycleCount();
+    }
+}
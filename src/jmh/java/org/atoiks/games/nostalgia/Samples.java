@@ -0,0 +1,83 @@
+package org.atoiks.games.nostalgia;
+
+import java.io.*;
+import java.nio.file.Paths;
+
+// Shared setup for the benchmarks: assembling the bundled samples and
+// building a machine the same way nosemu --headless does.
+final class Samples {
+
+    // See build.gradle (the samples .IMPORT files relative to it)
+    static final String ROOT = System.getProperty("nostalgia.root", ".");
+
+    // A kernel that keeps on copying the top half of the screen memory into
+    // the bottom half
+    static final String MEMCPY_KERNEL = ""
+            + "    .ORG    0x4000\n"
+            + "LOOP:\n"
+            + "    MOV.I   %R1, 0x2800\n"
+            + "    MOV.I   %R2, 0x2000\n"
+            + "    MOV.I   %R3, 1024\n"
+            + "    CALL.Z  %R0, MEMCPY, %R0\n"
+            + "    JABS.Z  %R0, LOOP, %R0\n"
+            + "    .IMPORT ./src/dist/memcpy.nos\n";
+
+    private Samples() {
+    }
+
+    static byte[] assembleFile(String path) throws IOException {
+        final Assembler asm = new Assembler();
+        asm.addSearchDir(ROOT);
+        asm.loadSource(Paths.get(ROOT, path).toString());
+        return asm.assembleAll();
+    }
+
+    static byte[] assembleSource(String src) throws IOException {
+        final Assembler asm = new Assembler();
+        asm.addSearchDir(ROOT);
+        asm.loadSource(new StringReader(src));
+        return asm.assembleAll();
+    }
+
+    static byte[] assembleResource(String name) throws IOException {
+        final Assembler asm = new Assembler();
+        try (final BufferedReader br = new BufferedReader(new InputStreamReader(Samples.class.getResourceAsStream(name)))) {
+            asm.loadSource(br);
+        }
+        return asm.assembleAll();
+    }
+
+    static byte[] kernel(String name) throws IOException {
+        switch (name) {
+            case "lightbike":
+                return assembleFile("src/dist/sample/lightbike.nos");
+            case "moving_dot":
+                return assembleFile("src/dist/sample/moving_dot.nos");
+            case "memcpy":
+                return assembleSource(MEMCPY_KERNEL);
+            default:
+                throw new IllegalArgumentException("Unknown sample: " + name);
+        }
+    }
+
+    static MemoryUnit machine(byte[] kernel) throws IOException {
+        final MemoryUnit mem = new MemoryUnit();
+        mem.mapHandler(0, new GenericMemory(assembleResource("/bootloader.nos")));
+        mem.mapHandler(0x1000, new GenericMemory(new byte[7]));
+        mem.mapHandler(0x2000, new GenericMemory(new byte[Screen.VIRT_WIDTH * Screen.VIRT_HEIGHT * 2]));
+        mem.mapHandler(0x4000, new GenericMemory(kernel.clone()));
+        return mem;
+    }
+
+    static PrintStream discard() {
+        return new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+    }
+}
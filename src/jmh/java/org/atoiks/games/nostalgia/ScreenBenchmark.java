@@ -0,0 +1,46 @@
+package org.atoiks.games.nostalgia;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ScreenBenchmark {
+
+    // plain:    white on black
+    // colored:  random colors and attributes on every cell
+    @Param({ "plain", "colored" })
+    public String cells;
+
+    private short[] memory;
+    private BufferedImage image;
+    private int[] pixels;
+
+    @Setup
+    public void setup() {
+        final Random rnd = new Random(42);
+        this.memory = new short[Screen.VIRT_WIDTH * Screen.VIRT_HEIGHT];
+        for (int i = 0; i < this.memory.length; ++i) {
+            final int ch = 0x20 + rnd.nextInt(0x5F);
+            final int attr = "plain".equals(this.cells) ? 0x07 : rnd.nextInt(0x100);
+            this.memory[i] = (short) ((attr << 8) | ch);
+        }
+
+        this.image = new BufferedImage(Screen.UNSCL_WIDTH, Screen.UNSCL_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        this.pixels = ((DataBufferInt) this.image.getRaster().getDataBuffer()).getData();
+    }
+
+    @Benchmark
+    public BufferedImage renderCells() {
+        Screen.renderCells(this.pixels, this.memory);
+        return this.image;
+    }
+}
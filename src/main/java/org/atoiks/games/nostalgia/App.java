@@ -40,8 +40,29 @@ public class App {
                             continue;
                         case "--fast":
                         case "--slow":
+                        case "--unthrottled":
+                        case "--jit":
+                        case "--headless":
                             emuArgs.add(el);
                             continue;
+                        case "--cycles":
+                        case "--until":
+                        case "--dump":
+                        case "--clock":
+                        case "--dma-rate":
+                        case "--cores":
+                        case "--map":
+                        case "--disk":
+                        case "--snapshot":
+                        case "--restore":
+                        case "--profile":
+                        case "--flamegraph":
+                        case "--capture":
+                        case "--capture-at":
+                        case "--capture-every":
+                            emuArgs.add(el);
+                            emuArgs.add(args[++i]);
+                            continue;
                         default:
                             System.out.println("Error: Unsupported option: " + el);
                             errored = true;
@@ -69,6 +90,24 @@ public class App {
                     + "  --dis                  Disassemble the kernel (that was just assembled)\n"
                     + "  --fast                 Runs at (relatively) fast mode\n"
                     + "  --slow                 Runs at (relatively) slow mode [default]\n"
+                    + "  --clock <hz>           Runs at hz cycles per second\n"
+                    + "  --unthrottled          Runs as fast as possible\n"
+                    + "  --jit                  Compiles hot code into JVM bytecode\n"
+                    + "  --dma-rate <n>         Bytes the DMA controller moves per cycle [default: " + DmaController.DEFAULT_BYTES_PER_CYCLE + "]\n"
+                    + "  --cores <n>            Runs n cores sharing the memory [default: 1]\n"
+                    + "  --headless             Runs without a window (as fast as possible)\n"
+                    + "  --cycles <n>           [headless] Stops after (about) n cycles\n"
+                    + "  --until <addr>         [headless] Stops right before executing addr\n"
+                    + "  --dump <addr>:<len>    [headless] Prints len bytes starting at addr when done\n"
+                    + "  --map <addr>:<file>    Maps file (read-write) at addr\n"
+                    + "  --disk <file>          Attaches file as the disk at 0x1030\n"
+                    + "  --snapshot <file>      [headless] Saves the whole machine to file when done\n"
+                    + "  --restore <file>       Resumes the machine saved in file (by --snapshot)\n"
+                    + "  --profile <file>       Writes the hottest addresses to file when done\n"
+                    + "  --flamegraph <file>    Writes the cycles spent per call stack to file when done\n"
+                    + "  --capture <file>       [headless] Captures the screen to file (.png, .rgb or .txt)\n"
+                    + "  --capture-at <n>       [headless] Captures the screen once n cycles have passed\n"
+                    + "  --capture-every <n>    [headless] Captures the screen every n cycles\n"
                     + "\n"
                     + "Note: the file will be loaded at 0x4000");
             return;
@@ -101,7 +140,13 @@ public class App {
             org.atoiks.games.nostalgia.toolchain.NostalgiaEmulator.main(emuArgs.toArray(new String[0]));
             emuArgs.clear();
         } finally {
-            Files.deleteIfExists(tempFile);
+            try {
+                Files.deleteIfExists(tempFile);
+            } catch (IOException ex) {
+                // The emulator maps the kernel, and some systems (Windows)
+                // do not delete files that are still mapped
+                tempFile.toFile().deleteOnExit();
+            }
         }
     }
 }
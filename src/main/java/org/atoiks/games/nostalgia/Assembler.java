@@ -545,6 +545,22 @@ public final class Assembler {
                 checkOperandCount(operands, 0);
                 this.encoder.leave();
                 break;
+            case "HALT":
+                checkOperandCount(operands, 0);
+                this.encoder.halt();
+                break;
+            case "CPUID":
+                checkOperandCount(operands, 1);
+                this.encoder.cpuid(getRegisterIndex(operands[0]));
+                break;
+            case "XADD":
+                buf = checkInstrClassRR(operands);
+                this.encoder.xadd(buf[0], buf[1]);
+                break;
+            case "CAS":
+                buf = checkInstrClassRR(operands);
+                this.encoder.cas(buf[0], buf[1]);
+                break;
             case "LD.D":
                 buf = checkInstrClassIRR(operands);
                 this.encoder.ldD(buf[0], buf[1], buf[2]);
@@ -876,6 +892,16 @@ public final class Assembler {
         }
     }
 
+    private int[] checkInstrClassRR(String[] operands) {
+        // Class RR:    encoded as [rk, rx]
+        //    OP %RX, %RK
+        checkOperandCount(operands, 2);
+
+        final int rx  = getRegisterIndex(operands[0]);
+        final int rk  = getRegisterIndex(operands[1]);
+        return new int[] { rk, rx };
+    }
+
     private int[] checkInstrClassRRR(String[] operands) {
         // Class RRR:   encoded as [ru, rv, rx]
         //    OP %RX, %RU, %RV
@@ -0,0 +1,1030 @@
+package org.atoiks.games.nostalgia;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+// Translates a basic block into a subclass of CompiledBlock.
+//
+// The guest registers are kept in JVM locals for the whole block, and are only
+// written back when leaving the block (or before handing an instruction over
+// to the interpreter). The IEX/REX state is tracked while compiling, so the
+// generated code never has to look at it.
+final class BlockCompiler implements InstrVisitor, Opcodes {
+
+    private static final String SUPER_NAME = Type.getInternalName(CompiledBlock.class);
+
+    // Slot S (1 to 15) lives in local (LOCAL_REG_BASE + S)
+    private static final int LOCAL_THIS      = 0;
+    private static final int LOCAL_REGS      = 1;
+    private static final int LOCAL_BUDGET    = 2;
+    private static final int LOCAL_REG_BASE  = 2;
+    private static final int LOCAL_TMP       = 18;
+    private static final int LOCAL_INDEX     = 19;
+    private static final int LOCAL_EXCEPTION = 20;
+
+    private static final MethodVisitor DISCARD = new MethodVisitor(ASM9) {
+    };
+
+    private final CachedInstr[] entries;
+    private final int[] addresses;
+
+    // cycles[k] is the cost of the first k entries
+    private final int[] cycles;
+
+    // states[k] is the (packed) IEX/REX state right before entry k
+    private final int[] states;
+
+    private MethodVisitor mv;
+    private Label[] exits;
+
+    private int usedRegs;
+    private int writtenRegs;
+
+    private int index;
+    private boolean terminated;
+
+    private int iexImm;
+    private int rexRA;
+    private int rexRB;
+    private int rexRC;
+    private int rexRD;
+
+    public BlockCompiler(CachedInstr[] entries, int[] addresses) {
+        this.entries = entries;
+        this.addresses = addresses;
+        this.cycles = new int[entries.length + 1];
+        this.states = new int[entries.length + 1];
+
+        for (int i = 0; i < entries.length; ++i) {
+            this.cycles[i + 1] = this.cycles[i] + entries[i].cost;
+        }
+    }
+
+    public int[] getPrefixStates() {
+        return this.states;
+    }
+
+    public int[] getCycleOffsets() {
+        return this.cycles;
+    }
+
+    public byte[] compile(String className) {
+        // First pass figures out which registers are used and what the prefix
+        // state looks like in between the instructions.
+        this.mv = DISCARD;
+        this.emitBody();
+
+        final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                // Only Throwable is ever merged, so keep it simple (and avoid
+                // loading classes through the wrong class loader).
+                return "java/lang/Object";
+            }
+        };
+        cw.visit(V1_8, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, className, null, SUPER_NAME, null);
+
+        final MethodVisitor init = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(ALOAD, LOCAL_THIS);
+        init.visitMethodInsn(INVOKESPECIAL, SUPER_NAME, "<init>", "()V", false);
+        init.visitInsn(RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        this.mv = cw.visitMethod(ACC_PROTECTED, "run", "([II)I", null, null);
+        this.mv.visitCode();
+        this.emitBody();
+        this.mv.visitMaxs(0, 0);
+        this.mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private void emitBody() {
+        final Label tryStart = new Label();
+        final Label tryEnd = new Label();
+        final Label handler = new Label();
+        this.mv.visitTryCatchBlock(tryStart, tryEnd, handler, "java/lang/Throwable");
+
+        this.exits = new Label[this.entries.length + 1];
+        this.iexImm = 0;
+        this.rexRA = 0;
+        this.rexRB = 0;
+        this.rexRC = 0;
+        this.rexRD = 0;
+
+        // Pull the registers into locals
+        for (int slot = 1; slot < 16; ++slot) {
+            if ((this.usedRegs & (1 << slot)) != 0) {
+                this.mv.visitVarInsn(ALOAD, LOCAL_REGS);
+                this.emitInt(slot - 1);
+                this.mv.visitInsn(IALOAD);
+                this.mv.visitVarInsn(ISTORE, LOCAL_REG_BASE + slot);
+            }
+        }
+        this.emitInt(-1);
+        this.mv.visitVarInsn(ISTORE, LOCAL_INDEX);
+
+        this.mv.visitLabel(tryStart);
+
+        this.terminated = false;
+        for (int i = 0; i < this.entries.length && !this.terminated; ++i) {
+            final CachedInstr instr = this.entries[i];
+            this.index = i;
+            this.states[i] = this.packState();
+
+            if (instr.cost > 0 || instr.prefixOnly) {
+                // Stop if the instruction does not fit in the budget anymore
+                // (for prefix-only entries, the instruction at the end of
+                // the chain)
+                this.mv.visitVarInsn(ILOAD, LOCAL_BUDGET);
+                this.emitInt(this.cycles[this.chainEnd(i) + 1]);
+                this.mv.visitJumpInsn(IF_ICMPLT, this.exitLabel(i));
+            }
+
+            if (instr.hasIEX) {
+                this.iexImm = instr.iexImm;
+            }
+            if (instr.hasREX) {
+                this.rexRA = instr.rexRA;
+                this.rexRB = instr.rexRB;
+                this.rexRC = instr.rexRC;
+                this.rexRD = instr.rexRD;
+            }
+
+            instr.dispatch(this);
+        }
+
+        if (!this.terminated) {
+            // Ran off the end of the block (too long, or the next instruction
+            // could not be decoded).
+            this.states[this.entries.length] = this.packState();
+            this.mv.visitJumpInsn(GOTO, this.exitLabel(this.entries.length));
+        }
+
+        this.mv.visitLabel(tryEnd);
+
+        for (int k = 0; k < this.exits.length; ++k) {
+            if (this.exits[k] != null) {
+                this.mv.visitLabel(this.exits[k]);
+                this.emitSpill();
+                this.mv.visitVarInsn(ALOAD, LOCAL_THIS);
+                this.emitInt(this.addresses[k]);
+                this.emitInt(this.states[k]);
+                this.mv.visitMethodInsn(INVOKEVIRTUAL, SUPER_NAME, "exit", "(II)V", false);
+                this.emitInt(this.cycles[k]);
+                this.mv.visitInsn(IRETURN);
+            }
+        }
+
+        // Something blew up (usually a bad memory access): make sure the
+        // registers are in sync before the exception leaves the block. A
+        // negative index means it happened in the interpreter (see
+        // emitFallback), which already left the registers in the right state.
+        final Label fellBack = new Label();
+        final Label rethrow = new Label();
+        this.mv.visitLabel(handler);
+        this.mv.visitVarInsn(ASTORE, LOCAL_EXCEPTION);
+        this.mv.visitVarInsn(ILOAD, LOCAL_INDEX);
+        this.mv.visitJumpInsn(IFLT, fellBack);
+        this.emitSpill();
+        this.mv.visitVarInsn(ALOAD, LOCAL_THIS);
+        this.mv.visitVarInsn(ILOAD, LOCAL_INDEX);
+        this.mv.visitMethodInsn(INVOKEVIRTUAL, SUPER_NAME, "abort", "(I)V", false);
+        this.mv.visitJumpInsn(GOTO, rethrow);
+        this.mv.visitLabel(fellBack);
+        this.mv.visitVarInsn(ALOAD, LOCAL_THIS);
+        this.emitInt(-1);
+        this.mv.visitVarInsn(ILOAD, LOCAL_INDEX);
+        this.mv.visitInsn(ISUB);
+        this.mv.visitMethodInsn(INVOKEVIRTUAL, SUPER_NAME, "abortFallback", "(I)V", false);
+        this.mv.visitLabel(rethrow);
+        this.mv.visitVarInsn(ALOAD, LOCAL_EXCEPTION);
+        this.mv.visitInsn(ATHROW);
+    }
+
+    private int chainEnd(int i) {
+        // BlockJit never ends a block on a prefix-only entry
+        while (this.entries[i].prefixOnly) {
+            ++i;
+        }
+        return i;
+    }
+
+    private Label exitLabel(int k) {
+        if (this.exits[k] == null) {
+            this.exits[k] = new Label();
+        }
+        return this.exits[k];
+    }
+
+    private int packState() {
+        return (this.iexImm & 0xFFFF)
+                | (this.rexRA << 16)
+                | (this.rexRB << 19)
+                | (this.rexRC << 22)
+                | (this.rexRD << 25);
+    }
+
+    private void emitSpill() {
+        for (int slot = 1; slot < 16; ++slot) {
+            if ((this.writtenRegs & (1 << slot)) != 0) {
+                this.mv.visitVarInsn(ALOAD, LOCAL_REGS);
+                this.emitInt(slot - 1);
+                this.mv.visitVarInsn(ILOAD, LOCAL_REG_BASE + slot);
+                this.mv.visitInsn(IASTORE);
+            }
+        }
+    }
+
+    private void emitReload() {
+        for (int slot = 1; slot < 16; ++slot) {
+            if ((this.usedRegs & (1 << slot)) != 0) {
+                this.mv.visitVarInsn(ALOAD, LOCAL_REGS);
+                this.emitInt(slot - 1);
+                this.mv.visitInsn(IALOAD);
+                this.mv.visitVarInsn(ISTORE, LOCAL_REG_BASE + slot);
+            }
+        }
+    }
+
+    private void emitInt(int value) {
+        if (value >= -1 && value <= 5) {
+            this.mv.visitInsn(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            this.mv.visitIntInsn(BIPUSH, value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            this.mv.visitIntInsn(SIPUSH, value);
+        } else {
+            this.mv.visitLdcInsn(value);
+        }
+    }
+
+    // ***** prefix state (mirrors ProcessUnit) *****
+
+    private int loadImm3(int imm3) {
+        final int full = (this.iexImm << 3) | imm3;
+        this.iexImm = 0;
+        return (short) full;
+    }
+
+    private int loadImm6(int imm6) {
+        final int full = (this.iexImm << 6) | imm6;
+        this.iexImm = 0;
+        return (short) full;
+    }
+
+    private int loadImm9(int imm9) {
+        final int full = (this.iexImm << 9) | imm9;
+        this.iexImm = 0;
+        return (short) full;
+    }
+
+    private void resetREX() {
+        this.rexRA = 0;
+        this.rexRB = 0;
+        this.rexRC = 0;
+        this.rexRD = 0;
+    }
+
+    // ***** register access (mirrors ProcessUnit) *****
+
+    private void emitReadDword(int slot) {
+        if (slot == 0) {
+            this.mv.visitInsn(ICONST_0);
+            return;
+        }
+
+        this.usedRegs |= 1 << slot;
+        this.mv.visitVarInsn(ILOAD, LOCAL_REG_BASE + slot);
+    }
+
+    private void emitReadSigned(int rex, int r) {
+        final int slot = ((rex & 0x1) << 3) | r;
+        this.emitReadDword(slot);
+        if (slot == 0) {
+            return;
+        }
+
+        switch ((rex >> 1) & 0x3) {
+            case 0:
+                this.mv.visitInsn(I2S);
+                break;
+            case 1:
+                this.mv.visitInsn(I2B);
+                break;
+            case 2:
+                this.emitInt(8);
+                this.mv.visitInsn(IUSHR);
+                this.mv.visitInsn(I2B);
+                break;
+            case 3:
+                break;
+        }
+    }
+
+    private void emitReadUnsigned(int rex, int r) {
+        final int slot = ((rex & 0x1) << 3) | r;
+        this.emitReadDword(slot);
+        if (slot == 0) {
+            return;
+        }
+
+        switch ((rex >> 1) & 0x3) {
+            case 0:
+                this.emitInt(0xFFFF);
+                this.mv.visitInsn(IAND);
+                break;
+            case 1:
+                this.emitInt(0xFF);
+                this.mv.visitInsn(IAND);
+                break;
+            case 2:
+                this.emitInt(8);
+                this.mv.visitInsn(IUSHR);
+                this.emitInt(0xFF);
+                this.mv.visitInsn(IAND);
+                break;
+            case 3:
+                break;
+        }
+    }
+
+    private void emitWriteDword(int slot) {
+        // Value is on the stack
+        if (slot == 0) {
+            this.mv.visitInsn(POP);
+            return;
+        }
+
+        this.usedRegs |= 1 << slot;
+        this.writtenRegs |= 1 << slot;
+        this.mv.visitVarInsn(ISTORE, LOCAL_REG_BASE + slot);
+    }
+
+    private void emitWrite(int rex, int r) {
+        // Value is on the stack
+        final int slot = ((rex & 0x1) << 3) | r;
+        if (slot == 0) {
+            this.mv.visitInsn(POP);
+            return;
+        }
+
+        int keep = 0;
+        switch ((rex >> 1) & 0x3) {
+            case 0:
+                this.emitInt(0x0000FFFF);
+                this.mv.visitInsn(IAND);
+                keep = 0xFFFF0000;
+                break;
+            case 1:
+                this.emitInt(0x000000FF);
+                this.mv.visitInsn(IAND);
+                keep = 0xFFFFFF00;
+                break;
+            case 2:
+                this.emitInt(0x000000FF);
+                this.mv.visitInsn(IAND);
+                this.emitInt(8);
+                this.mv.visitInsn(ISHL);
+                keep = 0xFFFF00FF;
+                break;
+            case 3:
+                this.emitWriteDword(slot);
+                return;
+        }
+
+        this.emitReadDword(slot);
+        this.emitInt(keep);
+        this.mv.visitInsn(IAND);
+        this.mv.visitInsn(IOR);
+        this.emitWriteDword(slot);
+    }
+
+    // ***** shared shapes *****
+
+    private void emitBinary(int opcode, boolean signed, boolean invertRhs, int rC, int rB, int rA) {
+        if (signed) {
+            this.emitReadSigned(this.rexRC, rC);
+            this.emitReadSigned(this.rexRB, rB);
+        } else {
+            this.emitReadUnsigned(this.rexRC, rC);
+            this.emitReadUnsigned(this.rexRB, rB);
+        }
+
+        if (invertRhs) {
+            this.mv.visitInsn(ICONST_M1);
+            this.mv.visitInsn(IXOR);
+        }
+
+        this.mv.visitInsn(opcode);
+        this.emitWrite(this.rexRA, rA);
+        this.resetREX();
+    }
+
+    private void emitUnaryImm(int opcode, boolean signed, int imm6, int rA) {
+        final int imm = this.loadImm6(imm6);
+        if (signed) {
+            this.emitReadSigned(this.rexRA, rA);
+        } else {
+            this.emitReadUnsigned(this.rexRA, rA);
+        }
+
+        this.emitInt(imm);
+        this.mv.visitInsn(opcode);
+        this.emitWrite(this.rexRA, rA);
+        this.resetREX();
+    }
+
+    private void emitMovPart(int keepMask, int bits, int rA) {
+        final int slot = ((this.rexRA & 0x1) << 3) | rA;
+
+        this.emitReadDword(slot);
+        this.emitInt(keepMask);
+        this.mv.visitInsn(IAND);
+        this.emitInt(bits);
+        this.mv.visitInsn(IOR);
+        this.emitWriteDword(slot);
+        this.resetREX();
+    }
+
+    private void emitBranchExit(int notTakenOpcode, boolean absolute, int imm, int rB, int rA) {
+        final Label notTaken = new Label();
+        final Label done = new Label();
+        final int next = this.addresses[this.index + 1];
+
+        this.emitReadSigned(this.rexRA, rA);
+        this.mv.visitJumpInsn(notTakenOpcode, notTaken);
+        if (absolute) {
+            this.emitInt(imm);
+            this.emitReadSigned(this.rexRB, rB);
+            this.mv.visitInsn(IADD);
+        } else {
+            this.emitInt(next + imm);
+        }
+        this.mv.visitVarInsn(ISTORE, LOCAL_TMP);
+        this.mv.visitJumpInsn(GOTO, done);
+
+        this.mv.visitLabel(notTaken);
+        this.emitInt(next);
+        this.mv.visitVarInsn(ISTORE, LOCAL_TMP);
+
+        this.mv.visitLabel(done);
+        this.resetREX();
+
+        this.emitSpill();
+        this.mv.visitVarInsn(ALOAD, LOCAL_THIS);
+        this.mv.visitVarInsn(ILOAD, LOCAL_TMP);
+        this.emitInt(this.packState());
+        this.mv.visitMethodInsn(INVOKEVIRTUAL, SUPER_NAME, "exit", "(II)V", false);
+        this.emitInt(this.cycles[this.index + 1]);
+        this.mv.visitInsn(IRETURN);
+        this.terminated = true;
+    }
+
+    private void emitLoad(String helper, int imm3, int rB, int rA) {
+        final int imm = this.loadImm3(imm3);
+
+        this.emitInt(this.index);
+        this.mv.visitVarInsn(ISTORE, LOCAL_INDEX);
+
+        this.mv.visitVarInsn(ALOAD, LOCAL_THIS);
+        this.emitInt(imm);
+        this.emitReadSigned(this.rexRB, rB);
+        this.mv.visitInsn(IADD);
+        this.mv.visitMethodInsn(INVOKEVIRTUAL, SUPER_NAME, helper, "(I)I", false);
+        this.emitWrite(this.rexRA, rA);
+        this.resetREX();
+    }
+
+    private void emitStore(String helper, int imm3, int rB, int rA) {
+        final int imm = this.loadImm3(imm3);
+
+        this.emitInt(this.index);
+        this.mv.visitVarInsn(ISTORE, LOCAL_INDEX);
+
+        this.mv.visitVarInsn(ALOAD, LOCAL_THIS);
+        this.emitInt(imm);
+        this.emitReadSigned(this.rexRB, rB);
+        this.mv.visitInsn(IADD);
+        this.emitReadSigned(this.rexRA, rA);
+        this.mv.visitMethodInsn(INVOKEVIRTUAL, SUPER_NAME, helper, "(II)V", false);
+        this.resetREX();
+
+        this.emitInvalidationCheck();
+    }
+
+    private void emitInvalidationCheck() {
+        // The store might have hit the code of this very block
+        this.states[this.index + 1] = this.packState();
+        this.mv.visitVarInsn(ALOAD, LOCAL_THIS);
+        this.mv.visitMethodInsn(INVOKEVIRTUAL, SUPER_NAME, "isInvalidated", "()Z", false);
+        this.mv.visitJumpInsn(IFNE, this.exitLabel(this.index + 1));
+    }
+
+    private void emitFallback(boolean endsBlock) {
+        this.emitSpill();
+
+        // -1 - (index + 1), see the exception handler in compile
+        this.emitInt(-2 - this.index);
+        this.mv.visitVarInsn(ISTORE, LOCAL_INDEX);
+
+        this.mv.visitVarInsn(ALOAD, LOCAL_THIS);
+        this.emitInt(this.index);
+        this.mv.visitMethodInsn(INVOKEVIRTUAL, SUPER_NAME, "fallback", "(I)V", false);
+
+        if (endsBlock) {
+            // The interpreter already left everything (including the ip) in
+            // the right state.
+            this.emitInt(this.cycles[this.index + 1]);
+            this.mv.visitInsn(IRETURN);
+            this.terminated = true;
+            return;
+        }
+
+        this.emitReload();
+        this.emitInvalidationCheck();
+    }
+
+    private void emitFaultingFallback() {
+        // Same as a fallback that keeps going, unless the instruction
+        // faulted
+        this.emitSpill();
+
+        this.emitInt(-2 - this.index);
+        this.mv.visitVarInsn(ISTORE, LOCAL_INDEX);
+
+        final Label keepGoing = new Label();
+        this.mv.visitVarInsn(ALOAD, LOCAL_THIS);
+        this.emitInt(this.index);
+        this.mv.visitMethodInsn(INVOKEVIRTUAL, SUPER_NAME, "fallbackLeaves", "(I)Z", false);
+        this.mv.visitJumpInsn(IFEQ, keepGoing);
+        this.emitInt(this.cycles[this.index + 1]);
+        this.mv.visitInsn(IRETURN);
+        this.mv.visitLabel(keepGoing);
+
+        this.emitReload();
+        this.emitInvalidationCheck();
+    }
+
+    // ***** InstrVisitor *****
+
+    @Override
+    public void illegalOp(int fullWord) {
+        this.emitFallback(true);
+    }
+
+    @Override
+    public void movI(int imm6, int rA) {
+        final int imm = this.loadImm6(imm6);
+        this.emitInt(imm);
+        this.emitWrite(this.rexRA, rA);
+        this.resetREX();
+    }
+
+    @Override
+    public void movLO(int imm6, int rA) {
+        final int imm = this.loadImm6(imm6);
+        switch ((this.rexRA >> 1) & 0x3) {
+            case 0:     this.emitMovPart(0x0000FF00, imm & 0xFF, rA); break;
+            case 1:     this.emitMovPart(0x000000F0, imm & 0xF, rA); break;
+            case 2:     this.emitMovPart(0x0000F000, (imm & 0xF) << 8, rA); break;
+            case 3:     this.emitMovPart(0xFFFF0000, imm & 0xFFFF, rA); break;
+        }
+    }
+
+    @Override
+    public void movHI(int imm6, int rA) {
+        final int imm = this.loadImm6(imm6);
+        switch ((this.rexRA >> 1) & 0x3) {
+            case 0:     this.emitMovPart(0x000000FF, (imm & 0xFF) << 8, rA); break;
+            case 1:     this.emitMovPart(0x0000000F, (imm & 0xF) << 4, rA); break;
+            case 2:     this.emitMovPart(0x00000F00, (imm & 0xF) << 12, rA); break;
+            case 3:     this.emitMovPart(0x0000FFFF, (imm & 0xFFFF) << 16, rA); break;
+        }
+    }
+
+    @Override
+    public void addR(int rC, int rB, int rA) {
+        this.emitBinary(IADD, true, false, rC, rB, rA);
+    }
+
+    @Override
+    public void subR(int rC, int rB, int rA) {
+        this.emitBinary(ISUB, true, false, rC, rB, rA);
+    }
+
+    @Override
+    public void andR(int rC, int rB, int rA) {
+        this.emitBinary(IAND, true, false, rC, rB, rA);
+    }
+
+    @Override
+    public void orR(int rC, int rB, int rA) {
+        this.emitBinary(IOR, false, false, rC, rB, rA);
+    }
+
+    @Override
+    public void xorR(int rC, int rB, int rA) {
+        this.emitBinary(IXOR, false, false, rC, rB, rA);
+    }
+
+    @Override
+    public void andnR(int rC, int rB, int rA) {
+        this.emitBinary(IAND, false, true, rC, rB, rA);
+    }
+
+    @Override
+    public void ornR(int rC, int rB, int rA) {
+        this.emitBinary(IOR, false, true, rC, rB, rA);
+    }
+
+    @Override
+    public void fpext(int imm3, int rB, int rA) {
+        final int imm = this.loadImm3(imm3);
+        this.resetREX();
+
+        // Unknown opcodes fault (see ProcessUnit.fpext), the block ends there
+        this.emitFallback((imm & Opcode.MASK_FPEXT) > Opcode.FPEXT_FRDIV);
+    }
+
+    @Override
+    public void addI(int imm6, int rA) {
+        this.emitUnaryImm(IADD, true, imm6, rA);
+    }
+
+    @Override
+    public void subI(int imm6, int rA) {
+        this.emitUnaryImm(ISUB, true, imm6, rA);
+    }
+
+    @Override
+    public void rsubI(int imm6, int rA) {
+        final int imm = this.loadImm6(imm6);
+        this.emitInt(imm);
+        this.emitReadSigned(this.rexRA, rA);
+        this.mv.visitInsn(ISUB);
+        this.emitWrite(this.rexRA, rA);
+        this.resetREX();
+    }
+
+    @Override
+    public void jabsZ(int imm3, int rB, int rA) {
+        this.emitBranchExit(IFNE, true, this.loadImm3(imm3), rB, rA);
+    }
+
+    @Override
+    public void jabsNZ(int imm3, int rB, int rA) {
+        this.emitBranchExit(IFEQ, true, this.loadImm3(imm3), rB, rA);
+    }
+
+    @Override
+    public void jabsGE(int imm3, int rB, int rA) {
+        this.emitBranchExit(IFLT, true, this.loadImm3(imm3), rB, rA);
+    }
+
+    @Override
+    public void jabsGT(int imm3, int rB, int rA) {
+        this.emitBranchExit(IFLE, true, this.loadImm3(imm3), rB, rA);
+    }
+
+    @Override
+    public void jabsLE(int imm3, int rB, int rA) {
+        this.emitBranchExit(IFGT, true, this.loadImm3(imm3), rB, rA);
+    }
+
+    @Override
+    public void jabsLT(int imm3, int rB, int rA) {
+        this.emitBranchExit(IFGE, true, this.loadImm3(imm3), rB, rA);
+    }
+
+    @Override
+    public void jrelZ(int imm6, int rA) {
+        this.emitBranchExit(IFNE, false, this.loadImm6(imm6), 0, rA);
+    }
+
+    @Override
+    public void jrelNZ(int imm6, int rA) {
+        this.emitBranchExit(IFEQ, false, this.loadImm6(imm6), 0, rA);
+    }
+
+    @Override
+    public void jrelGE(int imm6, int rA) {
+        this.emitBranchExit(IFLT, false, this.loadImm6(imm6), 0, rA);
+    }
+
+    @Override
+    public void jrelGT(int imm6, int rA) {
+        this.emitBranchExit(IFLE, false, this.loadImm6(imm6), 0, rA);
+    }
+
+    @Override
+    public void jrelLE(int imm6, int rA) {
+        this.emitBranchExit(IFGT, false, this.loadImm6(imm6), 0, rA);
+    }
+
+    @Override
+    public void jrelLT(int imm6, int rA) {
+        this.emitBranchExit(IFGE, false, this.loadImm6(imm6), 0, rA);
+    }
+
+    @Override
+    public void push(int imm9) {
+        // Note: PUSH, POP, RET, ENTER and LEAVE do not reset the REX state
+        this.loadImm9(imm9);
+        this.emitFallback(false);
+    }
+
+    @Override
+    public void pop(int imm9) {
+        this.loadImm9(imm9);
+        this.emitFallback(false);
+    }
+
+    @Override
+    public void ret(int imm9) {
+        this.loadImm9(imm9);
+        this.emitFallback(true);
+    }
+
+    @Override
+    public void enter(int imm9) {
+        this.loadImm9(imm9);
+        this.emitFallback(false);
+    }
+
+    @Override
+    public void leave() {
+        this.emitFallback(false);
+    }
+
+    @Override
+    public void ldD(int imm3, int rB, int rA) {
+        this.emitLoad("loadDword", imm3, rB, rA);
+    }
+
+    @Override
+    public void stD(int imm3, int rB, int rA) {
+        this.emitStore("storeDword", imm3, rB, rA);
+    }
+
+    @Override
+    public void ldW(int imm3, int rB, int rA) {
+        this.emitLoad("loadWord", imm3, rB, rA);
+    }
+
+    @Override
+    public void stW(int imm3, int rB, int rA) {
+        this.emitStore("storeWord", imm3, rB, rA);
+    }
+
+    @Override
+    public void ldB(int imm3, int rB, int rA) {
+        this.emitLoad("loadByte", imm3, rB, rA);
+    }
+
+    @Override
+    public void stB(int imm3, int rB, int rA) {
+        this.emitStore("storeByte", imm3, rB, rA);
+    }
+
+    @Override
+    public void ldmD(int imm6, int rA) {
+        this.loadImm6(imm6);
+        this.resetREX();
+        this.emitFallback(false);
+    }
+
+    @Override
+    public void stmD(int imm6, int rA) {
+        this.loadImm6(imm6);
+        this.resetREX();
+        this.emitFallback(false);
+    }
+
+    @Override
+    public void ldmW(int imm6, int rA) {
+        this.loadImm6(imm6);
+        this.resetREX();
+        this.emitFallback(false);
+    }
+
+    @Override
+    public void stmW(int imm6, int rA) {
+        this.loadImm6(imm6);
+        this.resetREX();
+        this.emitFallback(false);
+    }
+
+    @Override
+    public void ldmLB(int imm6, int rA) {
+        this.loadImm6(imm6);
+        this.resetREX();
+        this.emitFallback(false);
+    }
+
+    @Override
+    public void stmLB(int imm6, int rA) {
+        this.loadImm6(imm6);
+        this.resetREX();
+        this.emitFallback(false);
+    }
+
+    @Override
+    public void ldmHB(int imm6, int rA) {
+        this.loadImm6(imm6);
+        this.resetREX();
+        this.emitFallback(false);
+    }
+
+    @Override
+    public void stmHB(int imm6, int rA) {
+        this.loadImm6(imm6);
+        this.resetREX();
+        this.emitFallback(false);
+    }
+
+    @Override
+    public void shlR(int rC, int rB, int rA) {
+        this.emitBinary(ISHL, false, false, rC, rB, rA);
+    }
+
+    @Override
+    public void shrR(int rC, int rB, int rA) {
+        this.emitBinary(IUSHR, false, false, rC, rB, rA);
+    }
+
+    @Override
+    public void sarR(int rC, int rB, int rA) {
+        this.emitBinary(ISHR, false, false, rC, rB, rA);
+    }
+
+    @Override
+    public void shlI(int imm6, int rA) {
+        this.emitUnaryImm(ISHL, false, imm6, rA);
+    }
+
+    @Override
+    public void shrI(int imm6, int rA) {
+        this.emitUnaryImm(IUSHR, false, imm6, rA);
+    }
+
+    @Override
+    public void sarI(int imm6, int rA) {
+        this.emitUnaryImm(ISHR, false, imm6, rA);
+    }
+
+    @Override
+    public void cmovI(int imm3, int rB, int rA) {
+        final int imm = this.loadImm3(imm3);
+        final Label skip = new Label();
+
+        this.emitReadSigned(this.rexRB, rB);
+        this.mv.visitJumpInsn(IFEQ, skip);
+        this.emitInt(imm);
+        this.emitWrite(this.rexRA, rA);
+        this.mv.visitLabel(skip);
+        this.resetREX();
+    }
+
+    @Override
+    public void cmovR(int rC, int rB, int rA) {
+        final Label skip = new Label();
+
+        this.emitReadSigned(this.rexRC, rC);
+        this.mv.visitVarInsn(ISTORE, LOCAL_TMP);
+        this.emitReadSigned(this.rexRB, rB);
+        this.mv.visitJumpInsn(IFEQ, skip);
+        this.mv.visitVarInsn(ILOAD, LOCAL_TMP);
+        this.emitWrite(this.rexRA, rA);
+        this.mv.visitLabel(skip);
+        this.resetREX();
+    }
+
+    @Override
+    public void paddW(int rC, int rB, int rA) {
+        this.resetREX();
+        this.emitFallback(false);
+    }
+
+    @Override
+    public void paddB(int rC, int rB, int rA) {
+        this.resetREX();
+        this.emitFallback(false);
+    }
+
+    @Override
+    public void psubW(int rC, int rB, int rA) {
+        this.resetREX();
+        this.emitFallback(false);
+    }
+
+    @Override
+    public void psubB(int rC, int rB, int rA) {
+        this.resetREX();
+        this.emitFallback(false);
+    }
+
+    @Override
+    public void callZ(int imm3, int rB, int rA) {
+        this.loadImm3(imm3);
+        this.emitFallback(true);
+    }
+
+    @Override
+    public void callNZ(int imm3, int rB, int rA) {
+        this.loadImm3(imm3);
+        this.emitFallback(true);
+    }
+
+    @Override
+    public void callGE(int imm3, int rB, int rA) {
+        this.loadImm3(imm3);
+        this.emitFallback(true);
+    }
+
+    @Override
+    public void callGT(int imm3, int rB, int rA) {
+        this.loadImm3(imm3);
+        this.emitFallback(true);
+    }
+
+    @Override
+    public void callLE(int imm3, int rB, int rA) {
+        this.loadImm3(imm3);
+        this.emitFallback(true);
+    }
+
+    @Override
+    public void callLT(int imm3, int rB, int rA) {
+        this.loadImm3(imm3);
+        this.emitFallback(true);
+    }
+
+    @Override
+    public void halt() {
+        // The interpreter stops the quanta
+        this.emitFallback(true);
+    }
+
+    @Override
+    public void cpuid(int rA) {
+        this.emitFallback(false);
+    }
+
+    @Override
+    public void xadd(int rB, int rA) {
+        this.emitFallback(false);
+    }
+
+    @Override
+    public void cas(int rB, int rA) {
+        this.emitFallback(false);
+    }
+
+    @Override
+    public void iex(int imm12) {
+        // Prefixes are folded into the cached instructions already
+        throw new AssertionError("IEX should have been folded into the cached instruction");
+    }
+
+    @Override
+    public void rex(int rD, int rC, int rB, int rA) {
+        throw new AssertionError("REX should have been folded into the cached instruction");
+    }
+
+    @Override
+    public void imul(int rD, int rC, int rB, int rA) {
+        this.resetREX();
+        this.emitFallback(false);
+    }
+
+    @Override
+    public void idiv(int rD, int rC, int rB, int rA) {
+        this.resetREX();
+        this.emitFaultingFallback();
+    }
+
+    @Override
+    public void mul(int rD, int rC, int rB, int rA) {
+        this.resetREX();
+        this.emitFallback(false);
+    }
+
+    @Override
+    public void div(int rD, int rC, int rB, int rA) {
+        this.resetREX();
+        this.emitFaultingFallback();
+    }
+
+    @Override
+    public void imac(int rD, int rC, int rB, int rA) {
+        this.resetREX();
+        this.emitFallback(false);
+    }
+}
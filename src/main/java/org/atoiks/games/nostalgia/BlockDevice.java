@@ -0,0 +1,225 @@
+package org.atoiks.games.nostalgia;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+// A disk backed by an image file, split into SECTOR_SIZE byte sectors. Same
+// as any other memory, the registers are big endian:
+//
+//   +0  dword  first sector
+//   +4  dword  address of the buffer in guest memory
+//   +8  dword  number of sectors
+//   +12 byte   command: writing starts the transfer, reading is always 0
+//   +13 byte   status (read only)
+//   +14 .. +15 unused
+//
+// The commands are CMD_READ (image to guest memory) and CMD_WRITE (guest
+// memory to image), anything else does nothing. Commands given while the
+// disk is busy are ignored.
+//
+// The transfer happens on another thread while the guest keeps running, so
+// the guest polls the status until it is not STATUS_BUSY anymore. For
+// reads, the sectors are copied into guest memory when the guest sees the
+// status change (never behind its back). For writes, the guest memory is
+// copied when the command is given, so the buffer can be reused right away.
+public final class BlockDevice implements MemoryHandler, Closeable {
+
+    public static final int SECTOR_SIZE = 512;
+
+    public static final int CMD_READ = 1;
+    public static final int CMD_WRITE = 2;
+
+    public static final int STATUS_READY = 0;
+    public static final int STATUS_BUSY = 1;
+    public static final int STATUS_ERROR = 2;
+
+    private static final int REG_COMMAND = 12;
+    private static final int REG_STATUS = 13;
+
+    private final MemoryUnit memory;
+    private final AsynchronousFileChannel channel;
+    private final long sectors;
+
+    private final ByteBuffer regs = ByteBuffer.allocate(REG_COMMAND);
+    private int status = STATUS_READY;
+
+    // The transfer in flight (if status is STATUS_BUSY)
+    private int command;
+    private int address;
+    private ByteBuffer buffer;
+    private Future<Integer> pending;
+
+    public BlockDevice(MemoryUnit memory, Path image) throws IOException {
+        this.memory = memory;
+        this.channel = AsynchronousFileChannel.open(image, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.sectors = this.channel.size() / SECTOR_SIZE;
+    }
+
+    public long getSectorCount() {
+        return this.sectors;
+    }
+
+    public boolean isBusy() {
+        return this.status == STATUS_BUSY;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.settleTransfer();
+        this.channel.close();
+    }
+
+    @Override
+    public int getCapacity() {
+        return 16;
+    }
+
+    @Override
+    public byte readOffset(int offset) {
+        if (offset < REG_COMMAND) {
+            return this.regs.get(offset);
+        }
+        if (offset == REG_STATUS) {
+            if (this.status == STATUS_BUSY && this.pending.isDone()) {
+                this.finishTransfer();
+            }
+            return (byte) this.status;
+        }
+        return 0;
+    }
+
+    @Override
+    public void writeOffset(int offset, byte b) {
+        if (offset < REG_COMMAND) {
+            this.regs.put(offset, b);
+        } else if (offset == REG_COMMAND && this.status != STATUS_BUSY) {
+            this.startTransfer(b);
+        }
+    }
+
+    private void startTransfer(int command) {
+        if (command != CMD_READ && command != CMD_WRITE) {
+            return;
+        }
+
+        final long first = Integer.toUnsignedLong(this.regs.getInt(0));
+        final long count = Integer.toUnsignedLong(this.regs.getInt(8));
+        if (first + count > this.sectors || count * SECTOR_SIZE > Integer.MAX_VALUE) {
+            this.status = STATUS_ERROR;
+            return;
+        }
+
+        this.command = command;
+        this.address = this.regs.getInt(4);
+        this.buffer = ByteBuffer.allocate((int) count * SECTOR_SIZE);
+
+        if (command == CMD_READ) {
+            this.pending = this.channel.read(this.buffer, first * SECTOR_SIZE);
+        } else {
+            this.memory.read(this.address, this.buffer);
+            this.buffer.flip();
+            this.pending = this.channel.write(this.buffer, first * SECTOR_SIZE);
+        }
+        this.status = STATUS_BUSY;
+    }
+
+    private void finishTransfer() {
+        final int done;
+        try {
+            done = this.pending.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            this.endTransfer(STATUS_ERROR);
+            return;
+        } catch (ExecutionException ex) {
+            this.endTransfer(STATUS_ERROR);
+            return;
+        }
+
+        if (this.buffer.hasRemaining()) {
+            // Short transfer, just go again for the rest
+            final long position = Integer.toUnsignedLong(this.regs.getInt(0)) * SECTOR_SIZE + this.buffer.position();
+            if (done <= 0) {
+                this.endTransfer(STATUS_ERROR);
+            } else if (this.command == CMD_READ) {
+                this.pending = this.channel.read(this.buffer, position);
+            } else {
+                this.pending = this.channel.write(this.buffer, position);
+            }
+            return;
+        }
+
+        if (this.command == CMD_READ) {
+            this.buffer.flip();
+            this.memory.write(this.address, this.buffer);
+        }
+        this.endTransfer(STATUS_READY);
+    }
+
+    private void endTransfer(int status) {
+        this.status = status;
+        this.buffer = null;
+        this.pending = null;
+    }
+
+    private void waitForTransfer() {
+        while (this.status == STATUS_BUSY) {
+            this.finishTransfer();
+        }
+    }
+
+    // Writes still have to make it to the image, reads can just be dropped
+    private void settleTransfer() {
+        if (this.status == STATUS_BUSY && this.command == CMD_READ) {
+            this.endTransfer(STATUS_READY);
+        }
+        this.waitForTransfer();
+    }
+
+    // Snapshots only hold the registers (the image is not part of the
+    // machine). Writes in flight are finished first. Reads in flight are
+    // started again when the snapshot is loaded, finishing them here would
+    // change guest memory that might already be saved.
+
+    @Override
+    public void saveContents(ByteBuffer dst) {
+        if (this.status == STATUS_BUSY && this.command == CMD_WRITE) {
+            this.waitForTransfer();
+        }
+
+        final ByteBuffer all = this.regs.duplicate();
+        all.clear();
+        dst.put(all);
+        dst.put((byte) (this.status == STATUS_BUSY ? this.command : 0));
+        dst.put((byte) this.status);
+        dst.putShort((short) 0);
+    }
+
+    @Override
+    public void loadContents(ByteBuffer src) {
+        this.settleTransfer();
+
+        final ByteBuffer part = src.duplicate();
+        part.limit(part.position() + REG_COMMAND);
+
+        final ByteBuffer all = this.regs.duplicate();
+        all.clear();
+        all.put(part);
+
+        src.position(part.position());
+        final int command = src.get();
+        this.status = src.get();
+        src.getShort();
+
+        if (this.status == STATUS_BUSY) {
+            this.status = STATUS_READY;
+            this.startTransfer(command);
+        }
+    }
+}
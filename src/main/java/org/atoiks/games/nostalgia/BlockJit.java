@@ -0,0 +1,203 @@
+package org.atoiks.games.nostalgia;
+
+import java.util.*;
+
+// Compiles frequently executed basic blocks into JVM bytecode (see
+// BlockCompiler). Blocks are keyed off the cached instruction they start at,
+// so dropping the instruction cache also drops the blocks.
+final class BlockJit {
+
+    public static final int DEFAULT_THRESHOLD = 64;
+
+    // Longer blocks are split up (the tail becomes its own block)
+    private static final int MAX_BLOCK_SIZE = 32;
+
+    private static final int PAGE_BITS = 8;
+    private static final int PAGE_MASK = (1 << (32 - PAGE_BITS)) - 1;
+
+    private static final String CLASS_PREFIX = "org/atoiks/games/nostalgia/generated/Block";
+
+    private final ProcessUnit unit;
+    private final MemoryUnit memory;
+    private final int threshold;
+
+    // Which pages have compiled code on them (so the common case of writing
+    // into plain data does not need to search anything)
+    private final BitSet codePages = new BitSet();
+    private final HashMap<Integer, ArrayList<CompiledBlock>> blocksByPage = new HashMap<>();
+
+    private int counter;
+
+    // Only the first block that fails to compile is reported (if one does,
+    // chances are a lot of them will)
+    private boolean reportedFailure;
+
+    public BlockJit(ProcessUnit unit, MemoryUnit memory, int threshold) {
+        this.unit = unit;
+        this.memory = memory;
+        this.threshold = threshold;
+    }
+
+    public CompiledBlock lookup(final CachedInstr entry, final int address) {
+        final CompiledBlock block = entry.block;
+        if (block != null) {
+            if (!block.invalidated) {
+                return block;
+            }
+
+            // Code changed underneath it, start counting again
+            entry.block = null;
+            entry.hits = 0;
+            return null;
+        }
+
+        if (++entry.hits < this.threshold) {
+            return null;
+        }
+
+        final CompiledBlock compiled = this.compile(address);
+        if (compiled == null) {
+            // Do not bother trying again
+            entry.hits = Integer.MIN_VALUE;
+            return null;
+        }
+
+        entry.block = compiled;
+        return compiled;
+    }
+
+    public void invalidate(final int address, final int length) {
+        final int first = address >>> PAGE_BITS;
+        final int last = (address + length - 1) >>> PAGE_BITS;
+        for (int page = first; ; page = (page + 1) & PAGE_MASK) {
+            if (this.codePages.get(page)) {
+                this.invalidatePage(page, address, length);
+            }
+            if (page == last) {
+                break;
+            }
+        }
+    }
+
+    private void invalidatePage(final int page, final int address, final int length) {
+        final ArrayList<CompiledBlock> list = this.blocksByPage.get(page);
+        if (list == null) {
+            return;
+        }
+
+        final Iterator<CompiledBlock> it = list.iterator();
+        while (it.hasNext()) {
+            final CompiledBlock block = it.next();
+            if (block.invalidated) {
+                it.remove();
+            } else if (address - block.end < 0 && block.start - (address + length) < 0) {
+                block.invalidated = true;
+                it.remove();
+            }
+        }
+
+        if (list.isEmpty()) {
+            this.blocksByPage.remove(page);
+            this.codePages.clear(page);
+        }
+    }
+
+    private CompiledBlock compile(final int start) {
+        final ArrayList<CachedInstr> entries = new ArrayList<>();
+        final ArrayList<Integer> addresses = new ArrayList<>();
+
+        int address = start;
+        while (entries.size() < MAX_BLOCK_SIZE) {
+            final CachedInstr instr;
+            try {
+                instr = this.unit.loadCachedInstr(address);
+            } catch (RuntimeException ex) {
+                // Probably ran off the end of memory, let the interpreter
+                // report it if it ever gets there.
+                break;
+            }
+
+            entries.add(instr);
+            addresses.add(address);
+            address += instr.length;
+
+            if (instr.endsBlock) {
+                break;
+            }
+        }
+        // A chain of prefixes that is cut off is left to the interpreter (the
+        // block could not tell if the instruction at the end fits)
+        while (!entries.isEmpty() && entries.get(entries.size() - 1).prefixOnly) {
+            address -= entries.remove(entries.size() - 1).length;
+            addresses.remove(addresses.size() - 1);
+        }
+        addresses.add(address);
+
+        if (entries.isEmpty()) {
+            return null;
+        }
+
+        final CachedInstr[] entryArr = entries.toArray(new CachedInstr[0]);
+        final int[] addressArr = new int[addresses.size()];
+        for (int i = 0; i < addressArr.length; ++i) {
+            addressArr[i] = addresses.get(i);
+        }
+
+        try {
+            final String className = CLASS_PREFIX + (this.counter++);
+            final BlockCompiler compiler = new BlockCompiler(entryArr, addressArr);
+            final byte[] bytecode = compiler.compile(className);
+
+            final CompiledBlock block = new BlockLoader().define(className.replace('/', '.'), bytecode)
+                    .asSubclass(CompiledBlock.class)
+                    .getConstructor()
+                    .newInstance();
+
+            block.unit = this.unit;
+            block.memory = this.memory;
+            block.entries = entryArr;
+            block.addresses = addressArr;
+            block.prefixStates = compiler.getPrefixStates();
+            block.cycleOffsets = compiler.getCycleOffsets();
+            block.start = start;
+            block.end = address;
+
+            this.track(block);
+            return block;
+        } catch (RuntimeException | LinkageError | ReflectiveOperationException ex) {
+            // Either ASM choked on it or the JVM did not like the result.
+            // That is a bug, but the interpreter can still handle the block.
+            if (!this.reportedFailure) {
+                this.reportedFailure = true;
+                System.err.println("Block JIT: Warning: could not compile the block at 0x"
+                        + Integer.toUnsignedString(start, 16) + " (it is interpreted instead): " + ex);
+            }
+            return null;
+        }
+    }
+
+    private void track(final CompiledBlock block) {
+        final int first = block.start >>> PAGE_BITS;
+        final int last = (block.end - 1) >>> PAGE_BITS;
+        for (int page = first; ; page = (page + 1) & PAGE_MASK) {
+            this.codePages.set(page);
+            this.blocksByPage.computeIfAbsent(page, k -> new ArrayList<>()).add(block);
+            if (page == last) {
+                break;
+            }
+        }
+    }
+
+    // Every block gets its own loader so it can be garbage collected once it
+    // is no longer referenced.
+    private static final class BlockLoader extends ClassLoader {
+
+        public BlockLoader() {
+            super(BlockJit.class.getClassLoader());
+        }
+
+        public Class<?> define(String name, byte[] bytecode) {
+            return this.defineClass(name, bytecode, 0, bytecode.length);
+        }
+    }
+}
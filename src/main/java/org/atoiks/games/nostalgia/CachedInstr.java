@@ -0,0 +1,137 @@
+package org.atoiks.games.nostalgia;
+
+final class CachedInstr {
+
+    // Used by entries that only carry prefixes
+    private static final Decoder.Entry NOP = new Decoder.Entry(Decoder.Entry.KIND_PLAIN, 0, (vis, p0, p1, p2, p3) -> {
+    }, 0, 0, 0, 0);
+
+    // The prefixes (if any) that were folded into this entry. They are
+    // applied on top of the existing state, exactly like running IEX or REX
+    // would.
+    public final boolean hasIEX;
+    public final short iexImm;
+    public final boolean hasREX;
+    public final byte rexRA;
+    public final byte rexRB;
+    public final byte rexRC;
+    public final byte rexRD;
+
+    // Straight from the decoding table
+    public final Decoder.Entry entry;
+
+    // Number of bytes covered by this entry (prefixes included)
+    public final int length;
+
+    // See InstrTiming (prefixes are free, so only the actual instruction)
+    public final int cost;
+
+    // Control flow instructions (and illegal ones) end a basic block
+    public final boolean endsBlock;
+
+    // Only prefixes (the chain was too long to fold into one entry, see
+    // InstrCache.MAX_PREFIXES)
+    public final boolean prefixOnly;
+
+    // The instruction right after this one if both can be executed as a
+    // single unit (see ProcessUnit.executeFused). Set once after the entry
+    // is built.
+    CachedInstr fusedNext;
+
+    // Book-keeping for the BlockJit: how often execution entered a block
+    // at this entry, and the compiled block (if any).
+    int hits;
+    CompiledBlock block;
+
+    private CachedInstr(Builder b, int length, int cost) {
+        this.hasIEX = b.hasIEX;
+        this.iexImm = b.iexImm;
+        this.hasREX = b.hasREX;
+        this.rexRA = b.rexRA;
+        this.rexRB = b.rexRB;
+        this.rexRC = b.rexRC;
+        this.rexRD = b.rexRD;
+
+        this.entry = b.entry;
+
+        this.length = length;
+        this.cost = cost;
+        this.endsBlock = b.entry.kind == Decoder.Entry.KIND_BRANCH;
+        this.prefixOnly = b.entry == NOP;
+    }
+
+    public void dispatch(InstrVisitor vis) {
+        this.entry.dispatch(vis);
+    }
+
+    // Number of bytes that must stay unchanged for this entry to be valid
+    public int span() {
+        return this.fusedNext == null ? this.length : this.length + this.fusedNext.length;
+    }
+
+    // Folds the prefixes into the instruction that follows them
+    public static final class Builder {
+
+        private boolean hasIEX;
+        private short iexImm;
+        private boolean hasREX;
+        private byte rexRA;
+        private byte rexRB;
+        private byte rexRC;
+        private byte rexRD;
+
+        private Decoder.Entry entry;
+
+        public void reset() {
+            this.hasIEX = false;
+            this.iexImm = 0;
+            this.hasREX = false;
+            this.rexRA = 0;
+            this.rexRB = 0;
+            this.rexRC = 0;
+            this.rexRD = 0;
+
+            this.entry = NOP;
+        }
+
+        public boolean lastWasPrefix() {
+            return this.entry == NOP;
+        }
+
+        public void add(Decoder.Entry next) {
+            switch (next.kind) {
+                case Decoder.Entry.KIND_IEX:
+                    // Later prefixes override the earlier ones (same as
+                    // ProcessUnit)
+                    this.hasIEX = true;
+                    this.iexImm = (short) next.p0;
+                    this.entry = NOP;
+                    break;
+                case Decoder.Entry.KIND_REX:
+                    // operands are rD, rC, rB, rA
+                    this.hasREX = true;
+                    this.rexRD = (byte) next.p0;
+                    this.rexRC = (byte) next.p1;
+                    this.rexRB = (byte) next.p2;
+                    this.rexRA = (byte) next.p3;
+                    this.entry = NOP;
+                    break;
+                default:
+                    this.entry = next;
+                    break;
+            }
+        }
+
+        public CachedInstr build(int length, InstrTiming timing) {
+            int cost = 0;
+            if (this.entry != NOP) {
+                // (Prefix-only entries really are free)
+                timing.clearTiming();
+                this.entry.dispatch(timing);
+                cost = timing.getTiming();
+            }
+
+            return new CachedInstr(this, length, cost);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.atoiks.games.nostalgia;
+
+// Base class of the JVM classes generated by BlockCompiler.
+//
+// The generated classes live in their own class loader (so they can be
+// thrown away), which means they cannot see anything package-private. That
+// is why everything they need is exposed as protected helpers here.
+public abstract class CompiledBlock {
+
+    // All filled in by the BlockJit
+    ProcessUnit unit;
+    MemoryUnit memory;
+    CachedInstr[] entries;
+    int[] addresses;
+    int[] prefixStates;
+    int[] cycleOffsets;
+    int start;
+    int end;
+
+    // Set once code underneath the block is overwritten
+    boolean invalidated;
+
+    protected CompiledBlock() {
+    }
+
+    // Runs the block with the register file (R1 to R15) and returns the
+    // number of cycles used. Instructions that do not fit in the budget are
+    // not executed (same as ProcessUnit.executeNextQuanta).
+    protected abstract int run(int[] regs, int budget);
+
+    int countExecuted(int used) {
+        // run always stops on an entry boundary, so this is just the last
+        // entry whose cost fits in the cycles used (cycleOffsets[k] is the
+        // cost of the first k entries).
+        int lo = 0;
+        int hi = this.cycleOffsets.length - 1;
+        while (lo < hi) {
+            final int mid = (lo + hi + 1) >>> 1;
+            if (this.cycleOffsets[mid] <= used) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        // Prefix-only entries are free, so that could also be a chain the
+        // block stopped in front of (it never stops half way through one)
+        while (lo > 0 && this.entries[lo - 1].prefixOnly) {
+            --lo;
+        }
+        return lo;
+    }
+
+    protected final boolean isInvalidated() {
+        return this.invalidated;
+    }
+
+    protected final void exit(int ip, int prefixState) {
+        this.unit.restoreState(ip, prefixState);
+    }
+
+    protected final void abort(int index) {
+        // Something was thrown half way through an instruction: leave the ip
+        // just past it (like the interpreter would), and charge for
+        // everything up to and including it (the processor keeps going if the
+        // guest handles the fault).
+        this.unit.restoreState(this.addresses[index] + this.entries[index].length, 0);
+        this.unit.chargeAborted(this.cycleOffsets[index + 1], index + 1);
+    }
+
+    protected final void abortFallback(int executed) {
+        // Same, but thrown by the interpreter (see fallback), which already
+        // left the ip in the right state
+        this.unit.chargeAborted(this.cycleOffsets[executed], executed);
+    }
+
+    protected final void fallback(int index) {
+        // Let the interpreter deal with this one
+        this.unit.restoreState(this.addresses[index], this.prefixStates[index]);
+        this.unit.executeCached(this.entries[index]);
+    }
+
+    protected final boolean fallbackLeaves(int index) {
+        // Same, but for instructions that usually keep going and only
+        // sometimes fault. Returns true if the interpreter went somewhere
+        // else (the fault handler, or the processor stopped), in which case
+        // the block has to stop right there.
+        this.fallback(index);
+        return this.unit.isAtBlockEntry();
+    }
+
+    protected final int loadByte(int address) {
+        return this.memory.read(address);
+    }
+
+    protected final int loadWord(int address) {
+        return this.memory.readWord(address);
+    }
+
+    protected final int loadDword(int address) {
+        return this.memory.readDword(address);
+    }
+
+    protected final void storeByte(int address, int value) {
+        this.memory.write(address, (byte) value);
+    }
+
+    protected final void storeWord(int address, int value) {
+        this.memory.writeWord(address, (short) value);
+    }
+
+    protected final void storeDword(int address, int value) {
+        this.memory.writeDword(address, value);
+    }
+}
@@ -0,0 +1,118 @@
+package org.atoiks.games.nostalgia;
+
+import java.nio.ByteBuffer;
+
+// Starts the other cores of a machine (core 0 is the one that boots, the
+// others wait until they are started). Same as any other memory, the
+// registers are big endian:
+//
+//   +0  dword  running cores (one bit per core)
+//   +4  dword  start address
+//   +8  dword  number of cores (read only)
+//   +12 .. +15 unused
+//
+// Writing 1s into the running cores starts those cores at the start
+// address, with every register cleared (so each core sets up its own stack,
+// see CPUID). Cores that are already running (or do not exist) are left
+// alone, there is no way to stop a core.
+//
+// The accesses come from all the cores, so everything is synchronized.
+public final class CoreControl implements MemoryHandler {
+
+    private static final int REG_RUNNING = 0;
+    private static final int REG_START = 4;
+    private static final int REG_CORES = 8;
+
+    private final ProcessUnit[] cores;
+
+    private int running = 1;
+    private int start;
+
+    public CoreControl(ProcessUnit[] cores) {
+        if (cores.length < 1 || cores.length > 32) {
+            throw new IllegalArgumentException("Core Control: cannot have " + cores.length + " cores");
+        }
+        this.cores = cores.clone();
+    }
+
+    @Override
+    public int getCapacity() {
+        return 16;
+    }
+
+    public synchronized boolean isStarted(int core) {
+        return (this.running & (1 << core)) != 0;
+    }
+
+    // Parks the calling thread until the core is started
+    public synchronized void awaitStart(int core) throws InterruptedException {
+        while ((this.running & (1 << core)) == 0) {
+            this.wait();
+        }
+    }
+
+    private int readReg(int offset) {
+        switch (offset & ~3) {
+            case REG_RUNNING:
+                return this.running;
+            case REG_START:
+                return this.start;
+            case REG_CORES:
+                return this.cores.length;
+            default:
+                return 0;
+        }
+    }
+
+    @Override
+    public synchronized byte readOffset(int offset) {
+        return (byte) (this.readReg(offset) >>> (8 * (3 - offset % 4)));
+    }
+
+    @Override
+    public synchronized void writeOffset(int offset, byte b) {
+        final int shift = 8 * (3 - offset % 4);
+        switch (offset & ~3) {
+            case REG_RUNNING:
+                this.startCores((b & 0xFF) << shift);
+                break;
+            case REG_START:
+                this.start = this.start & ~(0xFF << shift) | ((b & 0xFF) << shift);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void startCores(int mask) {
+        for (int i = 0; i < this.cores.length; ++i) {
+            final int bit = 1 << i;
+            if ((mask & bit) != 0 && (this.running & bit) == 0) {
+                // Its thread is still parked (see awaitStart), so it is
+                // fine to touch it from here
+                this.cores[i].reset();
+                this.cores[i].setIP(this.start);
+                this.running |= bit;
+            }
+        }
+        this.notifyAll();
+    }
+
+    // Snapshots only hold the first core, so only the registers are kept
+
+    @Override
+    public synchronized void saveContents(ByteBuffer dst) {
+        dst.putInt(this.running);
+        dst.putInt(this.start);
+        dst.putInt(this.cores.length);
+        dst.putInt(0);
+    }
+
+    @Override
+    public synchronized void loadContents(ByteBuffer src) {
+        src.getInt();
+        this.start = src.getInt();
+        src.getInt();
+        src.getInt();
+    }
+}
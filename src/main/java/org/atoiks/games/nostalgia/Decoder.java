@@ -9,8 +9,60 @@ public final class Decoder {
         public short nextWord();
     }
 
+    public static interface Handler {
+
+        // Operands are passed in the same order as the InstrVisitor method
+        public void dispatch(InstrVisitor vis, int p0, int p1, int p2, int p3);
+    }
+
+    // A fully decoded instruction word: which callback to make and with what
+    public static final class Entry {
+
+        public static final int KIND_PLAIN      = 0;
+        public static final int KIND_BRANCH     = 1;    // control flow (and illegal opcodes)
+        public static final int KIND_IEX        = 2;
+        public static final int KIND_REX        = 3;
+
+        public final int kind;
+        public final int word;
+        public final Handler handler;
+        public final int p0;
+        public final int p1;
+        public final int p2;
+        public final int p3;
+
+        Entry(int kind, int word, Handler handler, int p0, int p1, int p2, int p3) {
+            this.kind = kind;
+            this.word = word;
+            this.handler = handler;
+            this.p0 = p0;
+            this.p1 = p1;
+            this.p2 = p2;
+            this.p3 = p3;
+        }
+
+        public boolean isPrefix() {
+            return this.kind == KIND_IEX || this.kind == KIND_REX;
+        }
+
+        public void dispatch(InstrVisitor vis) {
+            this.handler.dispatch(vis, this.p0, this.p1, this.p2, this.p3);
+        }
+    }
+
     private static final int INSTR_WIDTH = 2;
 
+    // One entry for every possible instruction word. This means decoding is
+    // just an array lookup (the switches below are only used to fill it).
+    private static final Entry[] TABLE = new Entry[1 << 16];
+
+    static {
+        final EntryRecorder recorder = new EntryRecorder();
+        for (int word = 0; word < TABLE.length; ++word) {
+            TABLE[word] = recorder.record(word);
+        }
+    }
+
     private InstrStream stream;
 
     public Decoder(InstrStream stream) {
@@ -22,20 +74,31 @@ public final class Decoder {
     }
 
     public void decode(InstrVisitor vis) {
+        this.next().dispatch(vis);
+    }
+
+    public Entry next() {
+        return TABLE[Short.toUnsignedInt(this.stream.nextWord())];
+    }
+
+    public static Entry lookup(int word) {
+        return TABLE[word & 0xFFFF];
+    }
+
+    static void decodeWord(int word, InstrVisitor vis) {
         /* see Opcode.java for the instruction layout */
 
         // Check if the opcode is class OP0 or OP1 by checking the highest bit.
-        final int word = Short.toUnsignedInt(this.stream.nextWord());
         if ((word & (1 << 15)) == 0) {
             // It's a OP0 opcode
-            this.decodeOP0((word >> 9) & Opcode.MASK_OP0, word & 0x1FF, vis);
+            decodeOP0((word >> 9) & Opcode.MASK_OP0, word & 0x1FF, vis);
         } else {
             // It's a OP1 opcode
-            this.decodeOP1((word >> 12) & Opcode.MASK_OP1, word & 0xFFF, vis);
+            decodeOP1((word >> 12) & Opcode.MASK_OP1, word & 0xFFF, vis);
         }
     }
 
-    public void decodeOP0(int op, int lo9, InstrVisitor vis) {
+    public static void decodeOP0(int op, int lo9, InstrVisitor vis) {
         // Decode all the possible OP0 class formats:
 
         final int rA = (lo9 >> 0) & 0x7; // dummy shr 0 just for fmt
@@ -236,8 +299,25 @@ public final class Decoder {
             case Opcode.OP0_STM_HB:
                 vis.stmHB(immMi, rA);
                 break;
-            case Opcode.OP0_RESV:
-                System.err.println("RESERVED OP0 CLASS OPCODE");
+            case Opcode.OP0_SYSEXT:
+                switch (immHi & Opcode.MASK_SYSEXT) {
+                    case Opcode.SYSEXT_HALT:
+                        vis.halt();
+                        break;
+                    case Opcode.SYSEXT_CPUID:
+                        vis.cpuid(rA);
+                        break;
+                    case Opcode.SYSEXT_XADD:
+                        vis.xadd(rB, rA);
+                        break;
+                    case Opcode.SYSEXT_CAS:
+                        vis.cas(rB, rA);
+                        break;
+                    default:
+                        // Reserved, same as any other illegal opcode
+                        vis.illegalOp((op << 9) | lo9);
+                        break;
+                }
                 break;
             default:
                 // Reconstruct the whole opcode
@@ -246,7 +326,7 @@ public final class Decoder {
         }
     }
 
-    public void decodeOP1(int op, int lo12, InstrVisitor vis) {
+    public static void decodeOP1(int op, int lo12, InstrVisitor vis) {
         // Decode all the possible OP1 class formats:
 
         final int rA = (lo12 >> 0) & 0x7; // dummy shr 0 just for fmt
@@ -286,4 +366,4 @@ public final class Decoder {
                 break;
         }
     }
-}
\ No newline at end of file
+}
@@ -759,6 +759,35 @@ public final class Disassembler implements Decoder.InstrStream, InstrVisitor {
         this.resetREX();
     }
 
+    @Override
+    public void halt() {
+        this.out.printf("HALT");
+        this.resetREX();
+    }
+
+    @Override
+    public void cpuid(int rdst) {
+        this.out.printf("CPUID      %s",
+                this.rexSynthRegister(this.rexRA, rdst));
+        this.resetREX();
+    }
+
+    @Override
+    public void xadd(int raddr, int rval) {
+        this.out.printf("XADD       %s, %s",
+                this.rexSynthRegister(this.rexRA, rval),
+                this.rexSynthRegister(this.rexRB, raddr));
+        this.resetREX();
+    }
+
+    @Override
+    public void cas(int raddr, int rval) {
+        this.out.printf("CAS        %s, %s",
+                this.rexSynthRegister(this.rexRA, rval),
+                this.rexSynthRegister(this.rexRB, raddr));
+        this.resetREX();
+    }
+
     @Override
     public void iex(int imm) {
         // This is a prefix. Decode the next word after setting some fields.
@@ -0,0 +1,119 @@
+package org.atoiks.games.nostalgia;
+
+import java.nio.ByteBuffer;
+
+// Moves whole blocks of memory at once (instead of a LD.B and a ST.B per
+// byte). Same as any other memory, the registers are big endian:
+//
+//   +0  dword  source (for fills, the low byte is the value)
+//   +4  dword  destination
+//   +8  dword  length (in bytes)
+//   +12 byte   mode: writing starts the transfer, reading is always 0
+//   +13 .. +15 unused
+//
+// The modes are MODE_COPY, MODE_FILL and MODE_COPY_BACKWARDS (anything else
+// does nothing). The transfer is done by the time the write to the mode
+// returns, but the instruction doing that write is charged for it (see
+// ProcessUnit.stall), so kernels do not suddenly run faster than they should.
+// The other registers keep their values. Each transfer raises IRQ_DMA (if
+// there is an InterruptController). Transfers that touch memory that is not
+// mapped stop there with a MemoryFault (so the processor faults, see
+// ProcessUnit.FAULT_BAD_ADDRESS), whatever was moved before that stays.
+//
+// With several cores, the stall and the IRQ go to the core that started the
+// transfer (see ProcessUnit.current and InterruptBank).
+public final class DmaController implements MemoryHandler {
+
+    public static final int MODE_COPY = 1;
+    public static final int MODE_FILL = 2;
+    public static final int MODE_COPY_BACKWARDS = 3;
+
+    // Cost of a transfer is SETUP_CYCLES + ceil(length / bytesPerCycle)
+    public static final int SETUP_CYCLES = 4;
+    public static final int DEFAULT_BYTES_PER_CYCLE = 4;
+
+    // Stalls longer than this are cut short (keeps the quanta from
+    // overflowing, nothing mapped is big enough to need more anyway)
+    private static final long MAX_STALL = 1 << 24;
+
+    private static final int REG_MODE = 12;
+
+    private final MemoryUnit memory;
+    private final ProcessUnit[] cores;
+    private final int bytesPerCycle;
+
+    private final ByteBuffer regs = ByteBuffer.allocate(REG_MODE);
+
+    public DmaController(MemoryUnit memory, ProcessUnit proc) {
+        this(memory, proc, DEFAULT_BYTES_PER_CYCLE);
+    }
+
+    public DmaController(MemoryUnit memory, ProcessUnit proc, int bytesPerCycle) {
+        this(memory, new ProcessUnit[] { proc }, bytesPerCycle);
+    }
+
+    public DmaController(MemoryUnit memory, ProcessUnit[] cores, int bytesPerCycle) {
+        if (bytesPerCycle < 1) {
+            throw new IllegalArgumentException("DMA Controller: Illegal rate of " + bytesPerCycle + " bytes per cycle");
+        }
+
+        this.memory = memory;
+        this.cores = cores.clone();
+        this.bytesPerCycle = bytesPerCycle;
+    }
+
+    @Override
+    public int getCapacity() {
+        return 16;
+    }
+
+    @Override
+    public synchronized byte readOffset(int offset) {
+        return offset < REG_MODE ? this.regs.get(offset) : 0;
+    }
+
+    @Override
+    public synchronized void writeOffset(int offset, byte b) {
+        if (offset < REG_MODE) {
+            this.regs.put(offset, b);
+        } else if (offset == REG_MODE) {
+            this.transfer(b);
+        }
+    }
+
+    private void transfer(int mode) {
+        final int src = this.regs.getInt(0);
+        final int dst = this.regs.getInt(4);
+        int length = this.regs.getInt(8);
+        if (length < 0) {
+            // 2GB or more is more than everything that is mapped, so the
+            // transfer just runs until it reaches an address that is not
+            // mapped and faults there (same as any other transfer that goes
+            // out of bounds).
+            length = Integer.MAX_VALUE;
+        }
+
+        switch (mode) {
+            case MODE_COPY:
+                this.memory.copy(dst, src, length);
+                break;
+            case MODE_FILL:
+                this.memory.fill(dst, (byte) src, length);
+                break;
+            case MODE_COPY_BACKWARDS:
+                this.memory.copyBackwards(dst, src, length);
+                break;
+            default:
+                return;
+        }
+
+        final ProcessUnit proc = ProcessUnit.current(this.cores);
+        final long cost = SETUP_CYCLES + ((long) length + this.bytesPerCycle - 1) / this.bytesPerCycle;
+        proc.stall((int) Math.min(cost, MAX_STALL));
+
+        final InterruptController interrupts = proc.getInterruptController();
+        if (interrupts != null) {
+            interrupts.raise(InterruptController.IRQ_DMA);
+        }
+    }
+}
@@ -460,6 +460,26 @@ public final class Encoder implements InstrVisitor {
         this.emitOp0IRR(Opcode.OP0_CALL_LT, imm, radj, rflag);
     }
 
+    @Override
+    public void halt() {
+        this.emitOp0IRR(Opcode.OP0_SYSEXT, Opcode.SYSEXT_HALT, 0, 0);
+    }
+
+    @Override
+    public void cpuid(int rdst) {
+        this.emitOp0IRR(Opcode.OP0_SYSEXT, Opcode.SYSEXT_CPUID, 0, rdst);
+    }
+
+    @Override
+    public void xadd(int raddr, int rval) {
+        this.emitOp0IRR(Opcode.OP0_SYSEXT, Opcode.SYSEXT_XADD, raddr, rval);
+    }
+
+    @Override
+    public void cas(int raddr, int rval) {
+        this.emitOp0IRR(Opcode.OP0_SYSEXT, Opcode.SYSEXT_CAS, raddr, rval);
+    }
+
     @Override
     public void iex(int imm13) {
         // This opcode is special... The other instructions that use immediates
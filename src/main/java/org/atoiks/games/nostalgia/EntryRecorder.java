@@ -0,0 +1,396 @@
+package org.atoiks.games.nostalgia;
+
+// Builds the entries of the decoding table (by recording the callback that
+// the switch based decoder would have made).
+final class EntryRecorder implements InstrVisitor {
+
+    private int word;
+    private Decoder.Entry entry;
+
+    public Decoder.Entry record(int word) {
+        this.word = word;
+        this.entry = null;
+        Decoder.decodeWord(word, this);
+        return this.entry;
+    }
+
+    private void record(int kind, Decoder.Handler handler, int p0, int p1, int p2, int p3) {
+        this.entry = new Decoder.Entry(kind, this.word, handler, p0, p1, p2, p3);
+    }
+
+    @Override
+    public void illegalOp(int fullWord) {
+        this.record(Decoder.Entry.KIND_BRANCH, (v, p0, p1, p2, p3) -> v.illegalOp(p0), fullWord, 0, 0, 0);
+    }
+
+    @Override
+    public void movI(int imm6, int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.movI(p0, p1), imm6, rdst, 0, 0);
+    }
+
+    @Override
+    public void movLO(int imm6, int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.movLO(p0, p1), imm6, rdst, 0, 0);
+    }
+
+    @Override
+    public void movHI(int imm6, int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.movHI(p0, p1), imm6, rdst, 0, 0);
+    }
+
+    @Override
+    public void addR(int rlhs, int rrhs, int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.addR(p0, p1, p2), rlhs, rrhs, rdst, 0);
+    }
+
+    @Override
+    public void subR(int rlhs, int rrhs, int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.subR(p0, p1, p2), rlhs, rrhs, rdst, 0);
+    }
+
+    @Override
+    public void andR(int rlhs, int rrhs, int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.andR(p0, p1, p2), rlhs, rrhs, rdst, 0);
+    }
+
+    @Override
+    public void orR(int rlhs, int rrhs, int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.orR(p0, p1, p2), rlhs, rrhs, rdst, 0);
+    }
+
+    @Override
+    public void xorR(int rlhs, int rrhs, int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.xorR(p0, p1, p2), rlhs, rrhs, rdst, 0);
+    }
+
+    @Override
+    public void andnR(int rlhs, int rrhs, int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.andnR(p0, p1, p2), rlhs, rrhs, rdst, 0);
+    }
+
+    @Override
+    public void ornR(int rlhs, int rrhs, int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.ornR(p0, p1, p2), rlhs, rrhs, rdst, 0);
+    }
+
+    @Override
+    public void fpext(int imm3, int rsrc, int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.fpext(p0, p1, p2), imm3, rsrc, rdst, 0);
+    }
+
+    @Override
+    public void addI(int imm6, int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.addI(p0, p1), imm6, rdst, 0, 0);
+    }
+
+    @Override
+    public void subI(int imm6, int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.subI(p0, p1), imm6, rdst, 0, 0);
+    }
+
+    @Override
+    public void rsubI(int imm6, int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.rsubI(p0, p1), imm6, rdst, 0, 0);
+    }
+
+    @Override
+    public void jabsZ(int imm3, int radj, int rflag) {
+        this.record(Decoder.Entry.KIND_BRANCH, (v, p0, p1, p2, p3) -> v.jabsZ(p0, p1, p2), imm3, radj, rflag, 0);
+    }
+
+    @Override
+    public void jabsNZ(int imm3, int radj, int rflag) {
+        this.record(Decoder.Entry.KIND_BRANCH, (v, p0, p1, p2, p3) -> v.jabsNZ(p0, p1, p2), imm3, radj, rflag, 0);
+    }
+
+    @Override
+    public void jabsGE(int imm3, int radj, int rflag) {
+        this.record(Decoder.Entry.KIND_BRANCH, (v, p0, p1, p2, p3) -> v.jabsGE(p0, p1, p2), imm3, radj, rflag, 0);
+    }
+
+    @Override
+    public void jabsGT(int imm3, int radj, int rflag) {
+        this.record(Decoder.Entry.KIND_BRANCH, (v, p0, p1, p2, p3) -> v.jabsGT(p0, p1, p2), imm3, radj, rflag, 0);
+    }
+
+    @Override
+    public void jabsLE(int imm3, int radj, int rflag) {
+        this.record(Decoder.Entry.KIND_BRANCH, (v, p0, p1, p2, p3) -> v.jabsLE(p0, p1, p2), imm3, radj, rflag, 0);
+    }
+
+    @Override
+    public void jabsLT(int imm3, int radj, int rflag) {
+        this.record(Decoder.Entry.KIND_BRANCH, (v, p0, p1, p2, p3) -> v.jabsLT(p0, p1, p2), imm3, radj, rflag, 0);
+    }
+
+    @Override
+    public void jrelZ(int imm6, int rflag) {
+        this.record(Decoder.Entry.KIND_BRANCH, (v, p0, p1, p2, p3) -> v.jrelZ(p0, p1), imm6, rflag, 0, 0);
+    }
+
+    @Override
+    public void jrelNZ(int imm6, int rflag) {
+        this.record(Decoder.Entry.KIND_BRANCH, (v, p0, p1, p2, p3) -> v.jrelNZ(p0, p1), imm6, rflag, 0, 0);
+    }
+
+    @Override
+    public void jrelGE(int imm6, int rflag) {
+        this.record(Decoder.Entry.KIND_BRANCH, (v, p0, p1, p2, p3) -> v.jrelGE(p0, p1), imm6, rflag, 0, 0);
+    }
+
+    @Override
+    public void jrelGT(int imm6, int rflag) {
+        this.record(Decoder.Entry.KIND_BRANCH, (v, p0, p1, p2, p3) -> v.jrelGT(p0, p1), imm6, rflag, 0, 0);
+    }
+
+    @Override
+    public void jrelLE(int imm6, int rflag) {
+        this.record(Decoder.Entry.KIND_BRANCH, (v, p0, p1, p2, p3) -> v.jrelLE(p0, p1), imm6, rflag, 0, 0);
+    }
+
+    @Override
+    public void jrelLT(int imm6, int rflag) {
+        this.record(Decoder.Entry.KIND_BRANCH, (v, p0, p1, p2, p3) -> v.jrelLT(p0, p1), imm6, rflag, 0, 0);
+    }
+
+    @Override
+    public void push(int imm9) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.push(p0), imm9, 0, 0, 0);
+    }
+
+    @Override
+    public void pop(int imm9) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.pop(p0), imm9, 0, 0, 0);
+    }
+
+    @Override
+    public void ret(int imm9) {
+        this.record(Decoder.Entry.KIND_BRANCH, (v, p0, p1, p2, p3) -> v.ret(p0), imm9, 0, 0, 0);
+    }
+
+    @Override
+    public void enter(int imm9) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.enter(p0), imm9, 0, 0, 0);
+    }
+
+    @Override
+    public void leave() {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.leave(), 0, 0, 0, 0);
+    }
+
+    @Override
+    public void halt() {
+        // Ends the quanta (and therefore blocks too)
+        this.record(Decoder.Entry.KIND_BRANCH, (v, p0, p1, p2, p3) -> v.halt(), 0, 0, 0, 0);
+    }
+
+    @Override
+    public void cpuid(int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.cpuid(p0), rdst, 0, 0, 0);
+    }
+
+    @Override
+    public void xadd(int raddr, int rval) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.xadd(p0, p1), raddr, rval, 0, 0);
+    }
+
+    @Override
+    public void cas(int raddr, int rval) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.cas(p0, p1), raddr, rval, 0, 0);
+    }
+
+    @Override
+    public void ldD(int imm3, int radj, int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.ldD(p0, p1, p2), imm3, radj, rdst, 0);
+    }
+
+    @Override
+    public void stD(int imm3, int radj, int rsrc) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.stD(p0, p1, p2), imm3, radj, rsrc, 0);
+    }
+
+    @Override
+    public void ldW(int imm3, int radj, int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.ldW(p0, p1, p2), imm3, radj, rdst, 0);
+    }
+
+    @Override
+    public void stW(int imm3, int radj, int rsrc) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.stW(p0, p1, p2), imm3, radj, rsrc, 0);
+    }
+
+    @Override
+    public void ldB(int imm3, int radj, int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.ldB(p0, p1, p2), imm3, radj, rdst, 0);
+    }
+
+    @Override
+    public void stB(int imm3, int radj, int rsrc) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.stB(p0, p1, p2), imm3, radj, rsrc, 0);
+    }
+
+    @Override
+    public void ldmD(int imm6, int rbase) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.ldmD(p0, p1), imm6, rbase, 0, 0);
+    }
+
+    @Override
+    public void stmD(int imm6, int rbase) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.stmD(p0, p1), imm6, rbase, 0, 0);
+    }
+
+    @Override
+    public void ldmW(int imm6, int rbase) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.ldmW(p0, p1), imm6, rbase, 0, 0);
+    }
+
+    @Override
+    public void stmW(int imm6, int rbase) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.stmW(p0, p1), imm6, rbase, 0, 0);
+    }
+
+    @Override
+    public void ldmLB(int imm6, int rbase) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.ldmLB(p0, p1), imm6, rbase, 0, 0);
+    }
+
+    @Override
+    public void stmLB(int imm6, int rbase) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.stmLB(p0, p1), imm6, rbase, 0, 0);
+    }
+
+    @Override
+    public void ldmHB(int imm6, int rbase) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.ldmHB(p0, p1), imm6, rbase, 0, 0);
+    }
+
+    @Override
+    public void stmHB(int imm6, int rbase) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.stmHB(p0, p1), imm6, rbase, 0, 0);
+    }
+
+    @Override
+    public void shlR(int rlhs, int rrhs, int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.shlR(p0, p1, p2), rlhs, rrhs, rdst, 0);
+    }
+
+    @Override
+    public void shrR(int rlhs, int rrhs, int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.shrR(p0, p1, p2), rlhs, rrhs, rdst, 0);
+    }
+
+    @Override
+    public void sarR(int rlhs, int rrhs, int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.sarR(p0, p1, p2), rlhs, rrhs, rdst, 0);
+    }
+
+    @Override
+    public void shlI(int imm6, int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.shlI(p0, p1), imm6, rdst, 0, 0);
+    }
+
+    @Override
+    public void shrI(int imm6, int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.shrI(p0, p1), imm6, rdst, 0, 0);
+    }
+
+    @Override
+    public void sarI(int imm6, int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.sarI(p0, p1), imm6, rdst, 0, 0);
+    }
+
+    @Override
+    public void cmovI(int imm3, int rflag, int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.cmovI(p0, p1, p2), imm3, rflag, rdst, 0);
+    }
+
+    @Override
+    public void cmovR(int rsrc, int rflag, int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.cmovR(p0, p1, p2), rsrc, rflag, rdst, 0);
+    }
+
+    @Override
+    public void paddW(int rlhs, int rrhs, int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.paddW(p0, p1, p2), rlhs, rrhs, rdst, 0);
+    }
+
+    @Override
+    public void paddB(int rlhs, int rrhs, int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.paddB(p0, p1, p2), rlhs, rrhs, rdst, 0);
+    }
+
+    @Override
+    public void psubW(int rlhs, int rrhs, int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.psubW(p0, p1, p2), rlhs, rrhs, rdst, 0);
+    }
+
+    @Override
+    public void psubB(int rlhs, int rrhs, int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.psubB(p0, p1, p2), rlhs, rrhs, rdst, 0);
+    }
+
+    @Override
+    public void callZ(int imm3, int radj, int rflag) {
+        this.record(Decoder.Entry.KIND_BRANCH, (v, p0, p1, p2, p3) -> v.callZ(p0, p1, p2), imm3, radj, rflag, 0);
+    }
+
+    @Override
+    public void callNZ(int imm3, int radj, int rflag) {
+        this.record(Decoder.Entry.KIND_BRANCH, (v, p0, p1, p2, p3) -> v.callNZ(p0, p1, p2), imm3, radj, rflag, 0);
+    }
+
+    @Override
+    public void callGE(int imm3, int radj, int rflag) {
+        this.record(Decoder.Entry.KIND_BRANCH, (v, p0, p1, p2, p3) -> v.callGE(p0, p1, p2), imm3, radj, rflag, 0);
+    }
+
+    @Override
+    public void callGT(int imm3, int radj, int rflag) {
+        this.record(Decoder.Entry.KIND_BRANCH, (v, p0, p1, p2, p3) -> v.callGT(p0, p1, p2), imm3, radj, rflag, 0);
+    }
+
+    @Override
+    public void callLE(int imm3, int radj, int rflag) {
+        this.record(Decoder.Entry.KIND_BRANCH, (v, p0, p1, p2, p3) -> v.callLE(p0, p1, p2), imm3, radj, rflag, 0);
+    }
+
+    @Override
+    public void callLT(int imm3, int radj, int rflag) {
+        this.record(Decoder.Entry.KIND_BRANCH, (v, p0, p1, p2, p3) -> v.callLT(p0, p1, p2), imm3, radj, rflag, 0);
+    }
+
+    @Override
+    public void iex(int imm12) {
+        this.record(Decoder.Entry.KIND_IEX, (v, p0, p1, p2, p3) -> v.iex(p0), imm12, 0, 0, 0);
+    }
+
+    @Override
+    public void rex(int rD, int rC, int rB, int rA) {
+        this.record(Decoder.Entry.KIND_REX, (v, p0, p1, p2, p3) -> v.rex(p0, p1, p2, p3), rD, rC, rB, rA);
+    }
+
+    @Override
+    public void imul(int rlhs, int rrhs, int rdlo, int rdhi) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.imul(p0, p1, p2, p3), rlhs, rrhs, rdlo, rdhi);
+    }
+
+    @Override
+    public void idiv(int rlhs, int rrhs, int rdrem, int rdquo) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.idiv(p0, p1, p2, p3), rlhs, rrhs, rdrem, rdquo);
+    }
+
+    @Override
+    public void mul(int rlhs, int rrhs, int rdlo, int rdhi) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.mul(p0, p1, p2, p3), rlhs, rrhs, rdlo, rdhi);
+    }
+
+    @Override
+    public void div(int rlhs, int rrhs, int rdrem, int rdquo) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.div(p0, p1, p2, p3), rlhs, rrhs, rdrem, rdquo);
+    }
+
+    @Override
+    public void imac(int rlhs, int rrhs, int racc, int rdst) {
+        this.record(Decoder.Entry.KIND_PLAIN, (v, p0, p1, p2, p3) -> v.imac(p0, p1, p2, p3), rlhs, rrhs, racc, rdst);
+    }
+}
@@ -0,0 +1,152 @@
+package org.atoiks.games.nostalgia;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.imageio.ImageIO;
+
+// Turns the contents of the graphics memory into files without a Screen (so
+// it also works on machines without a display). The format depends on the
+// extension of the file:
+//
+//   .png  => the screen as it would be drawn (unscaled)
+//   .rgb  => same pixels, but raw: 3 bytes per pixel, row major
+//   .txt  => the glyphs (CP437), one line per row
+//
+// If the file name contains %d, it is replaced by the cycle count and every
+// capture gets its own file. Otherwise the .rgb and .txt captures are added
+// to the end of the file and a .png capture replaces the previous one.
+public final class FrameCapture implements Closeable {
+
+    private static final int FORMAT_PNG = 0;
+    private static final int FORMAT_RGB = 1;
+    private static final int FORMAT_TEXT = 2;
+
+    private final String pattern;
+    private final int format;
+
+    private final short[] cells = new short[Screen.VIRT_WIDTH * Screen.VIRT_HEIGHT];
+    private final BufferedImage image = new BufferedImage(Screen.UNSCL_WIDTH, Screen.UNSCL_HEIGHT, BufferedImage.TYPE_INT_RGB);
+    private final int[] pixels = ((DataBufferInt) this.image.getRaster().getDataBuffer()).getData();
+
+    // The last frame (already encoded). It is only made again if the
+    // graphics memory changed in the mean time, so capturing a screen that
+    // sits still is just writing out the same bytes.
+    private byte[] encoded;
+    private boolean stale = true;
+
+    // Only if the captures all go into the same file
+    private OutputStream stream;
+
+    private int frames;
+
+    public FrameCapture(String pattern) {
+        this.pattern = pattern;
+
+        final String lower = pattern.toLowerCase();
+        if (lower.endsWith(".png")) {
+            this.format = FORMAT_PNG;
+        } else if (lower.endsWith(".rgb")) {
+            this.format = FORMAT_RGB;
+        } else if (lower.endsWith(".txt")) {
+            this.format = FORMAT_TEXT;
+        } else {
+            throw new IllegalArgumentException("Frame Capture: Unknown format (expected .png, .rgb or .txt): " + pattern);
+        }
+    }
+
+    public int getFrameCount() {
+        return this.frames;
+    }
+
+    // Has to be called whenever the graphics memory is written
+    public void invalidate() {
+        this.stale = true;
+    }
+
+    // video is the graphics memory (from its start, same layout as the one
+    // the Screen maps at 0x2000)
+    public void capture(ByteBuffer video, long cycles) throws IOException {
+        if (this.stale || this.encoded == null) {
+            // Even addresses are the glyph (the low byte of the cell)
+            final ByteBuffer src = video.duplicate();
+            src.clear();
+            src.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(this.cells);
+
+            this.encoded = this.encode();
+            this.stale = false;
+        }
+
+        ++this.frames;
+        if (!this.pattern.contains("%d")) {
+            if (this.format == FORMAT_PNG) {
+                try (final OutputStream out = new FileOutputStream(this.pattern)) {
+                    out.write(this.encoded);
+                }
+                return;
+            }
+
+            if (this.stream == null) {
+                this.stream = new BufferedOutputStream(new FileOutputStream(this.pattern));
+            }
+            this.stream.write(this.encoded);
+            return;
+        }
+
+        try (final OutputStream out = new FileOutputStream(this.pattern.replace("%d", Long.toString(cycles)))) {
+            out.write(this.encoded);
+        }
+    }
+
+    private byte[] encode() throws IOException {
+        switch (this.format) {
+            case FORMAT_PNG: {
+                Screen.renderCells(this.pixels, this.cells);
+
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ImageIO.write(this.image, "png", out);
+                return out.toByteArray();
+            }
+            case FORMAT_RGB: {
+                Screen.renderCells(this.pixels, this.cells);
+
+                final byte[] bytes = new byte[this.pixels.length * 3];
+                for (int i = 0; i < this.pixels.length; ++i) {
+                    final int rgb = this.pixels[i];
+                    bytes[3 * i] = (byte) (rgb >> 16);
+                    bytes[3 * i + 1] = (byte) (rgb >> 8);
+                    bytes[3 * i + 2] = (byte) rgb;
+                }
+                return bytes;
+            }
+            case FORMAT_TEXT: {
+                // Styles are dropped. The bootloader fills the screen with
+                // null bytes, those become spaces (everything else is kept
+                // as is, so every line is exactly VIRT_WIDTH bytes).
+                final byte[] bytes = new byte[(Screen.VIRT_WIDTH + 1) * Screen.VIRT_HEIGHT];
+                int k = 0;
+                for (int i = 0; i < Screen.VIRT_HEIGHT; ++i) {
+                    for (int j = 0; j < Screen.VIRT_WIDTH; ++j) {
+                        final byte ch = (byte) this.cells[i * Screen.VIRT_WIDTH + j];
+                        bytes[k++] = ch == 0 ? (byte) ' ' : ch;
+                    }
+                    bytes[k++] = '\n';
+                }
+                return bytes;
+            }
+            default:
+                throw new AssertionError("Unhandled format " + this.format);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.stream != null) {
+            this.stream.close();
+            this.stream = null;
+        }
+    }
+}
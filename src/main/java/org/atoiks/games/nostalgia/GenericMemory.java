@@ -1,6 +1,7 @@
 package org.atoiks.games.nostalgia;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Objects;
 
 public final class GenericMemory implements MemoryHandler {
@@ -29,4 +30,60 @@ public final class GenericMemory implements MemoryHandler {
     public void writeOffset(int offset, byte b) {
         this.buffer.put(offset, b);
     }
+
+    // Guest memory is big endian no matter how the buffer was setup
+
+    @Override
+    public short readWordOffset(int offset) {
+        final short w = this.buffer.getShort(offset);
+        return this.buffer.order() == ByteOrder.BIG_ENDIAN ? w : Short.reverseBytes(w);
+    }
+
+    @Override
+    public int readDwordOffset(int offset) {
+        final int d = this.buffer.getInt(offset);
+        return this.buffer.order() == ByteOrder.BIG_ENDIAN ? d : Integer.reverseBytes(d);
+    }
+
+    @Override
+    public void writeWordOffset(int offset, short w) {
+        this.buffer.putShort(offset, this.buffer.order() == ByteOrder.BIG_ENDIAN ? w : Short.reverseBytes(w));
+    }
+
+    @Override
+    public void writeDwordOffset(int offset, int d) {
+        this.buffer.putInt(offset, this.buffer.order() == ByteOrder.BIG_ENDIAN ? d : Integer.reverseBytes(d));
+    }
+
+    @Override
+    public void readBlockOffset(int offset, byte[] dst, int at, int length) {
+        final ByteBuffer part = this.buffer.duplicate();
+        part.clear().position(offset);
+        part.get(dst, at, length);
+    }
+
+    @Override
+    public void writeBlockOffset(int offset, byte[] src, int at, int length) {
+        final ByteBuffer part = this.buffer.duplicate();
+        part.clear().position(offset);
+        part.put(src, at, length);
+    }
+
+    @Override
+    public void saveContents(ByteBuffer dst) {
+        final ByteBuffer all = this.buffer.duplicate();
+        all.clear();
+        dst.put(all);
+    }
+
+    @Override
+    public void loadContents(ByteBuffer src) {
+        final ByteBuffer part = src.duplicate();
+        part.limit(part.position() + this.buffer.capacity());
+
+        final ByteBuffer all = this.buffer.duplicate();
+        all.clear();
+        all.put(part);
+        src.position(part.position());
+    }
 }
\ No newline at end of file
@@ -0,0 +1,90 @@
+package org.atoiks.games.nostalgia;
+
+import java.util.Arrays;
+
+final class InstrCache {
+
+    // At most this many prefixes are folded in front of an instruction.
+    // Longer chains are split into prefix-only entries, which behave just the
+    // same: they only run if the instruction at the end of the chain fits in
+    // the quanta (see ProcessUnit.costOf).
+    public static final int MAX_PREFIXES = 2;
+
+    // In bytes: the prefixes plus the actual instruction
+    public static final int MAX_LENGTH = 2 * (MAX_PREFIXES + 1);
+
+    // In bytes: an entry plus the one fused after it
+    public static final int MAX_SPAN = 2 * MAX_LENGTH;
+
+    // The 32 bit address is split into 12 + 12 + 8 bits. That keeps sparse
+    // layouts cheap (only the touched pages are ever allocated).
+    private static final int PAGE_BITS = 8;
+    private static final int TABLE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int TABLE_SIZE = 1 << TABLE_BITS;
+
+    private final CachedInstr[][][] directory = new CachedInstr[TABLE_SIZE][][];
+
+    public CachedInstr get(final int address) {
+        final CachedInstr[] page = this.loadPage(address);
+        return page == null ? null : page[address & (PAGE_SIZE - 1)];
+    }
+
+    public void put(final int address, CachedInstr instr) {
+        final int dirIdx = address >>> (PAGE_BITS + TABLE_BITS);
+        CachedInstr[][] table = this.directory[dirIdx];
+        if (table == null) {
+            table = this.directory[dirIdx] = new CachedInstr[TABLE_SIZE][];
+        }
+
+        final int tblIdx = (address >>> PAGE_BITS) & (TABLE_SIZE - 1);
+        CachedInstr[] page = table[tblIdx];
+        if (page == null) {
+            page = table[tblIdx] = new CachedInstr[PAGE_SIZE];
+        }
+
+        page[address & (PAGE_SIZE - 1)] = instr;
+    }
+
+    public void invalidate(final int address, final int length) {
+        // Entries can start up to MAX_SPAN - 1 bytes before the address
+        // and still cover it.
+        final int first = address - (MAX_SPAN - 1);
+        final int last = address + length - 1;
+
+        int addr = first;
+        while (addr - last <= 0) {
+            final CachedInstr[] page = this.loadPage(addr);
+            final int pageEnd = (addr | (PAGE_SIZE - 1));
+            final int stop = pageEnd - last < 0 ? pageEnd : last;
+
+            if (page != null) {
+                for (int k = addr; k - stop <= 0; ++k) {
+                    final int slot = k & (PAGE_SIZE - 1);
+                    final CachedInstr instr = page[slot];
+                    if (instr != null && k + instr.span() - address > 0) {
+                        page[slot] = null;
+                    }
+                }
+            }
+
+            if (stop == last) {
+                break;
+            }
+            addr = stop + 1;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(this.directory, null);
+    }
+
+    private CachedInstr[] loadPage(final int address) {
+        final CachedInstr[][] table = this.directory[address >>> (PAGE_BITS + TABLE_BITS)];
+        if (table == null) {
+            return null;
+        }
+
+        return table[(address >>> PAGE_BITS) & (TABLE_SIZE - 1)];
+    }
+}
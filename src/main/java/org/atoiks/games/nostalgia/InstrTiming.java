@@ -0,0 +1,437 @@
+package org.atoiks.games.nostalgia;
+
+final class InstrTiming implements InstrVisitor {
+
+    private int timingBank;
+
+    public int getTiming() {
+        return this.timingBank;
+    }
+
+    public void clearTiming() {
+        this.timingBank = 0;
+    }
+
+    @Override
+    public void illegalOp(int fullWord) {
+        // Operation is illegal anyway, timing is irrelevant. We give it 0
+        // meaning if it did something, it took no time!
+        this.timingBank = 0;
+    }
+
+    @Override
+    public void movI(int imm6, int rdst) {
+        this.timingBank = 1;
+    }
+
+    @Override
+    public void movLO(int imm6, int rdst) {
+        this.timingBank = 1;
+    }
+
+    @Override
+    public void movHI(int imm6, int rdst) {
+        this.timingBank = 1;
+    }
+
+    @Override
+    public void addR(int rlhs, int rrhs, int rdst) {
+        this.timingBank = 1;
+    }
+
+    @Override
+    public void subR(int rlhs, int rrhs, int rdst) {
+        this.timingBank = 1;
+    }
+
+    @Override
+    public void andR(int rlhs, int rrhs, int rdst) {
+        this.timingBank = 1;
+    }
+
+    @Override
+    public void orR(int rlhs, int rrhs, int rdst) {
+        this.timingBank = 1;
+    }
+
+    @Override
+    public void xorR(int rlhs, int rrhs, int rdst) {
+        this.timingBank = 1;
+    }
+
+    @Override
+    public void andnR(int rlhs, int rrhs, int rdst) {
+        this.timingBank = 1;
+    }
+
+    @Override
+    public void ornR(int rlhs, int rrhs, int rdst) {
+        this.timingBank = 1;
+    }
+
+    @Override
+    public void fpext(int imm, int rsrc, int rdst) {
+        // IEEE floats are expensive yo!
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void addI(int imm6, int rdst) {
+        this.timingBank = 1;
+    }
+
+    @Override
+    public void subI(int imm6, int rdst) {
+        this.timingBank = 1;
+    }
+
+    @Override
+    public void rsubI(int imm6, int rdst) {
+        this.timingBank = 1;
+    }
+
+    @Override
+    public void jabsZ(int imm3, int radj, int rflag) {
+        // Cost is like super high because it needs to fetch the value, check
+        // the condition, then branch!
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void jabsNZ(int imm3, int radj, int rflag) {
+        // Cost is like super high because it needs to fetch the value, check
+        // the condition, then branch!
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void jabsGE(int imm3, int radj, int rflag) {
+        // Cost is like super high because it needs to fetch the value, check
+        // the condition, then branch!
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void jabsGT(int imm3, int radj, int rflag) {
+        // Cost is like super high because it needs to fetch the value, check
+        // the condition, then branch!
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void jabsLE(int imm3, int radj, int rflag) {
+        // Cost is like super high because it needs to fetch the value, check
+        // the condition, then branch!
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void jabsLT(int imm3, int radj, int rflag) {
+        // Cost is like super high because it needs to fetch the value, check
+        // the condition, then branch!
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void jrelZ(int imm6, int rflag) {
+        // Cost is like super high because it needs to fetch the value, check
+        // the condition, then branch!
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void jrelNZ(int imm6, int rflag) {
+        // Cost is like super high because it needs to fetch the value, check
+        // the condition, then branch!
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void jrelGE(int imm6, int rflag) {
+        // Cost is like super high because it needs to fetch the value, check
+        // the condition, then branch!
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void jrelGT(int imm6, int rflag) {
+        // Cost is like super high because it needs to fetch the value, check
+        // the condition, then branch!
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void jrelLE(int imm6, int rflag) {
+        // Cost is like super high because it needs to fetch the value, check
+        // the condition, then branch!
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void jrelLT(int imm6, int rflag) {
+        // Cost is like super high because it needs to fetch the value, check
+        // the condition, then branch!
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void push(int imm9) {
+        // Treat like an load-store multiple
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void pop(int imm9) {
+        // Treat like an load-store multiple
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void ret(int imm9) {
+        // Most of the cost comes from the implicit pop
+        this.timingBank = 5;
+    }
+
+    @Override
+    public void enter(int imm9) {
+        this.timingBank = 5;
+    }
+
+    @Override
+    public void leave() {
+        this.timingBank = 5;
+    }
+
+    @Override
+    public void ldD(int imm3, int radj, int rdst) {
+        this.timingBank = 4;
+    }
+
+    @Override
+    public void stD(int imm3, int radj, int rsrc) {
+        this.timingBank = 4;
+    }
+
+    @Override
+    public void ldW(int imm3, int radj, int rdst) {
+        this.timingBank = 4;
+    }
+
+    @Override
+    public void stW(int imm3, int radj, int rsrc) {
+        this.timingBank = 4;
+    }
+
+    @Override
+    public void ldB(int imm3, int radj, int rdst) {
+        this.timingBank = 4;
+    }
+
+    @Override
+    public void stB(int imm3, int radj, int rsrc) {
+        this.timingBank = 4;
+    }
+
+    @Override
+    public void ldmD(int imm3, int rbase) {
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void stmD(int imm3, int rbase) {
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void ldmW(int imm3, int rbase) {
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void stmW(int imm3, int rbase) {
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void ldmLB(int imm3, int rbase) {
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void stmLB(int imm3, int rbase) {
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void ldmHB(int imm3, int rbase) {
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void stmHB(int imm3, int rbase) {
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void shlR(int rlhs, int rrhs, int rdst) {
+        this.timingBank = 1;
+    }
+
+    @Override
+    public void shrR(int rlhs, int rrhs, int rdst) {
+        this.timingBank = 1;
+    }
+
+    @Override
+    public void sarR(int rlhs, int rrhs, int rdst) {
+        this.timingBank = 1;
+    }
+
+    @Override
+    public void shlI(int imm6, int rdst) {
+        this.timingBank = 1;
+    }
+
+    @Override
+    public void shrI(int imm6, int rdst) {
+        this.timingBank = 1;
+    }
+
+    @Override
+    public void sarI(int imm6, int rdst) {
+        this.timingBank = 1;
+    }
+
+    @Override
+    public void cmovI(int imm3, int rflag, int rdst) {
+        // Faster than using a branch
+        this.timingBank = 1;
+    }
+
+    @Override
+    public void cmovR(int rsrc, int rflag, int rdst) {
+        // Faster than using a branch
+        this.timingBank = 1;
+    }
+
+    @Override
+    public void paddW(int rlhs, int rrhs, int rdst) {
+        this.timingBank = 1;
+    }
+
+    @Override
+    public void psubW(int rlhs, int rrhs, int rdst) {
+        this.timingBank = 1;
+    }
+
+    @Override
+    public void paddB(int rlhs, int rrhs, int rdst) {
+        this.timingBank = 1;
+    }
+
+    @Override
+    public void psubB(int rlhs, int rrhs, int rdst) {
+        this.timingBank = 1;
+    }
+
+    @Override
+    public void callZ(int imm3, int radj, int rflag) {
+        // Cost is like super high because it needs to fetch the value, check
+        // the condition, then branch!
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void callNZ(int imm3, int radj, int rflag) {
+        // Cost is like super high because it needs to fetch the value, check
+        // the condition, then branch!
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void callGE(int imm3, int radj, int rflag) {
+        // Cost is like super high because it needs to fetch the value, check
+        // the condition, then branch!
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void callGT(int imm3, int radj, int rflag) {
+        // Cost is like super high because it needs to fetch the value, check
+        // the condition, then branch!
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void callLE(int imm3, int radj, int rflag) {
+        // Cost is like super high because it needs to fetch the value, check
+        // the condition, then branch!
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void callLT(int imm3, int radj, int rflag) {
+        // Cost is like super high because it needs to fetch the value, check
+        // the condition, then branch!
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void halt() {
+        // Waiting is not counted here (see ProcessUnit.executeNextQuanta)
+        this.timingBank = 1;
+    }
+
+    @Override
+    public void cpuid(int rdst) {
+        this.timingBank = 1;
+    }
+
+    @Override
+    public void xadd(int raddr, int rval) {
+        // A load and a store (plus waiting for the other cores)
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void cas(int raddr, int rval) {
+        this.timingBank = 6;
+    }
+
+    @Override
+    public void iex(int imm12) {
+        // Instruction prefixes: assume they take no time to decode.
+        this.timingBank = 0;
+    }
+
+    @Override
+    public void rex(int rD, int rC, int rB, int rA) {
+        // Instruction prefixes: assume they take no time to decode.
+        this.timingBank = 0;
+    }
+
+    @Override
+    public void imul(int rlhs, int rrhs, int rdlo, int rdhi) {
+        this.timingBank = 2;
+    }
+
+    @Override
+    public void idiv(int rlhs, int rrhs, int rdrem, int rdquo) {
+        this.timingBank = 3;
+    }
+
+    @Override
+    public void mul(int rlhs, int rrhs, int rdlo, int rdhi) {
+        this.timingBank = 2;
+    }
+
+    @Override
+    public void div(int rlhs, int rrhs, int rdrem, int rdquo) {
+        this.timingBank = 3;
+    }
+
+    @Override
+    public void imac(int rlhs, int rrhs, int racc, int rdst) {
+        this.timingBank = 2;
+    }
+}
\ No newline at end of file
@@ -84,6 +84,11 @@ public interface InstrVisitor {
     public void callLE(int imm3, int radj, int rflag);
     public void callLT(int imm3, int radj, int rflag);
 
+    public void halt(); // SYSEXT_HALT
+    public void cpuid(int rdst); // SYSEXT_CPUID
+    public void xadd(int raddr, int rval); // SYSEXT_XADD
+    public void cas(int raddr, int rval); // SYSEXT_CAS
+
     // ***** OP1 class *****
 
     public void iex(int imm12); // prefix
@@ -0,0 +1,55 @@
+package org.atoiks.games.nostalgia;
+
+import java.nio.ByteBuffer;
+
+// Maps the InterruptController of every core at the same address: each core
+// only ever sees (and clears or enables) its own lines (see
+// ProcessUnit.current). Devices raise lines on the controller of the core
+// they are working for, so there is nothing to route here.
+//
+// Snapshots only hold the first core, so only its controller is kept (which
+// is the same layout as a single controller).
+public final class InterruptBank implements MemoryHandler {
+
+    private final ProcessUnit[] cores;
+
+    public InterruptBank(ProcessUnit[] cores) {
+        this.cores = cores.clone();
+        for (final ProcessUnit core : this.cores) {
+            core.setInterruptController(new InterruptController(core));
+        }
+    }
+
+    public InterruptController[] getControllers() {
+        final InterruptController[] controllers = new InterruptController[this.cores.length];
+        for (int i = 0; i < this.cores.length; ++i) {
+            controllers[i] = this.cores[i].getInterruptController();
+        }
+        return controllers;
+    }
+
+    @Override
+    public int getCapacity() {
+        return 16;
+    }
+
+    @Override
+    public byte readOffset(int offset) {
+        return ProcessUnit.current(this.cores).getInterruptController().readOffset(offset);
+    }
+
+    @Override
+    public void writeOffset(int offset, byte b) {
+        ProcessUnit.current(this.cores).getInterruptController().writeOffset(offset, b);
+    }
+
+    @Override
+    public void saveContents(ByteBuffer dst) {
+        this.cores[0].getInterruptController().saveContents(dst);
+    }
+
+    @Override
+    public void loadContents(ByteBuffer src) {
+        this.cores[0].getInterruptController().loadContents(src);
+    }
+}
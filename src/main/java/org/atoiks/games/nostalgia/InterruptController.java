@@ -0,0 +1,126 @@
+package org.atoiks.games.nostalgia;
+
+import java.nio.ByteBuffer;
+
+// Collects the events that wake up a halted processor (see HALT). Same as
+// any other memory, the registers are big endian:
+//
+//   +0  dword  pending lines (writing 1s clears those lines)
+//   +4  dword  enabled lines
+//   +8 .. +15 unused
+//
+// Each line is a bit (IRQ_TIMER is bit 0 and so on). A line stays pending
+// until the guest clears it, HALT only waits if none of the pending lines
+// are enabled. There are no handlers: the processor just carries on after
+// the HALT and it is up to the guest to check what happened.
+//
+// Devices raise lines from any thread (the keyboard is on the UI thread),
+// everything else happens on the thread running the processor.
+public final class InterruptController implements MemoryHandler {
+
+    public static final int IRQ_TIMER = 0;
+    public static final int IRQ_KEYBOARD = 1;
+    public static final int IRQ_DMA = 2;
+
+    private static final int REG_PENDING = 0;
+    private static final int REG_ENABLED = 4;
+
+    private final ProcessUnit proc;
+
+    private volatile int pending;
+    private volatile int enabled;
+
+    // Cycle count where IRQ_TIMER is raised (negative if there is none)
+    private long timerAlarm = -1;
+
+    public InterruptController(ProcessUnit proc) {
+        this.proc = proc;
+    }
+
+    @Override
+    public int getCapacity() {
+        return 16;
+    }
+
+    public synchronized void raise(int line) {
+        this.pending |= 1 << line;
+        this.notifyAll();
+    }
+
+    public void setTimerAlarm(long cycle) {
+        this.timerAlarm = cycle;
+    }
+
+    public long getTimerAlarm() {
+        return this.timerAlarm;
+    }
+
+    private void checkTimer() {
+        if (this.timerAlarm >= 0 && this.proc.getCycleCount() >= this.timerAlarm) {
+            this.timerAlarm = -1;
+            this.raise(IRQ_TIMER);
+        }
+    }
+
+    public boolean isPending() {
+        this.checkTimer();
+        return (this.pending & this.enabled) != 0;
+    }
+
+    // Parks the calling thread until an enabled line is raised by another
+    // thread (or until the time runs out). The timer alarm is not checked
+    // while waiting, callers should not wait past it.
+    public synchronized void awaitInterrupt(long nanos) throws InterruptedException {
+        final long end = System.nanoTime() + nanos;
+        while (!this.isPending()) {
+            final long left = end - System.nanoTime();
+            if (left <= 0) {
+                break;
+            }
+            this.wait(left / 1000000, (int) (left % 1000000));
+        }
+    }
+
+    @Override
+    public byte readOffset(int offset) {
+        if (offset >= 8) {
+            return 0;
+        }
+
+        this.checkTimer();
+        final int reg = offset < REG_ENABLED ? this.pending : this.enabled;
+        return (byte) (reg >>> (8 * (3 - offset % 4)));
+    }
+
+    @Override
+    public void writeOffset(int offset, byte b) {
+        if (offset >= 8) {
+            return;
+        }
+
+        final int bits = (b & 0xFF) << (8 * (3 - offset % 4));
+        synchronized (this) {
+            if (offset < REG_ENABLED) {
+                this.pending &= ~bits;
+            } else {
+                this.enabled = this.enabled & ~(0xFF << (8 * (3 - offset % 4))) | bits;
+            }
+        }
+    }
+
+    @Override
+    public void saveContents(ByteBuffer dst) {
+        dst.putInt(this.pending);
+        dst.putInt(this.enabled);
+        dst.putLong(this.timerAlarm);
+    }
+
+    @Override
+    public void loadContents(ByteBuffer src) {
+        synchronized (this) {
+            this.pending = src.getInt();
+            this.enabled = src.getInt();
+        }
+        this.timerAlarm = src.getLong();
+    }
+}
@@ -0,0 +1,191 @@
+package org.atoiks.games.nostalgia;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Memory backed by a host file (mapped, so nothing is read into the heap up
+// front). How the guest's writes end up depends on the mode:
+//
+// - READ_ONLY: the writes are dropped (like a ROM)
+// - READ_WRITE: the writes go to the file
+// - PRIVATE: the writes only change this copy, the file is left alone
+//
+// Mapping privately still needs write access to the file (the JDK insists),
+// files that cannot be written to are read into the heap instead.
+public final class MappedMemory implements MemoryHandler {
+
+    public static enum Mode {
+        READ_ONLY, READ_WRITE, PRIVATE
+    }
+
+    public final ByteBuffer buffer;
+    public final Mode mode;
+
+    // Does the actual accesses (the mapped buffer is just a ByteBuffer)
+    private final GenericMemory memory;
+
+    private MappedMemory(ByteBuffer buffer, Mode mode) {
+        this.buffer = buffer;
+        this.mode = mode;
+        this.memory = new GenericMemory(buffer);
+    }
+
+    // Maps the whole file
+    public static MappedMemory open(Path path, Mode mode) throws IOException {
+        return open(path, mode, -1);
+    }
+
+    // Maps the first size bytes of the file (or the whole file if size is
+    // negative). In READ_WRITE mode, the file is created or grown to fit.
+    public static MappedMemory open(Path path, Mode mode, long size) throws IOException {
+        final FileChannel.MapMode mapMode;
+        final StandardOpenOption[] options;
+        switch (mode) {
+            case READ_ONLY:
+                mapMode = FileChannel.MapMode.READ_ONLY;
+                options = new StandardOpenOption[] { StandardOpenOption.READ };
+                break;
+            case READ_WRITE:
+                mapMode = FileChannel.MapMode.READ_WRITE;
+                options = new StandardOpenOption[] {
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE
+                };
+                break;
+            case PRIVATE:
+                mapMode = FileChannel.MapMode.PRIVATE;
+                options = new StandardOpenOption[] { StandardOpenOption.READ, StandardOpenOption.WRITE };
+                break;
+            default:
+                throw new AssertionError("Unhandled mode " + mode);
+        }
+
+        final FileChannel ch;
+        try {
+            ch = FileChannel.open(path, options);
+        } catch (AccessDeniedException ex) {
+            if (mode != Mode.PRIVATE) {
+                throw ex;
+            }
+            return readPrivate(path, size);
+        }
+
+        try {
+            final long fileSize = ch.size();
+            if (size < 0) {
+                size = fileSize;
+            } else if (size > fileSize && mode != Mode.READ_WRITE) {
+                throw new IOException("Mapped Memory: " + path + " is shorter than " + size + " bytes");
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Mapped Memory: " + path + " is too big to be mapped (" + size + " bytes)");
+            }
+
+            // The mapping stays valid after the channel is closed
+            return new MappedMemory(ch.map(mapMode, 0, size), mode);
+        } finally {
+            ch.close();
+        }
+    }
+
+    private static MappedMemory readPrivate(Path path, long size) throws IOException {
+        try (final FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long fileSize = ch.size();
+            if (size < 0) {
+                size = fileSize;
+            } else if (size > fileSize) {
+                throw new IOException("Mapped Memory: " + path + " is shorter than " + size + " bytes");
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Mapped Memory: " + path + " is too big to be read (" + size + " bytes)");
+            }
+
+            final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && ch.read(buffer) >= 0) {
+                // keep reading
+            }
+            buffer.clear();
+            return new MappedMemory(buffer, Mode.PRIVATE);
+        }
+    }
+
+    // Makes sure the writes made it to the file (only matters for
+    // READ_WRITE, the OS writes them back eventually anyway)
+    public void force() {
+        if (this.mode == Mode.READ_WRITE) {
+            ((MappedByteBuffer) this.buffer).force();
+        }
+    }
+
+    @Override
+    public int getCapacity() {
+        return this.memory.getCapacity();
+    }
+
+    @Override
+    public byte readOffset(int offset) {
+        return this.memory.readOffset(offset);
+    }
+
+    @Override
+    public void writeOffset(int offset, byte b) {
+        if (this.mode != Mode.READ_ONLY) {
+            this.memory.writeOffset(offset, b);
+        }
+    }
+
+    @Override
+    public short readWordOffset(int offset) {
+        return this.memory.readWordOffset(offset);
+    }
+
+    @Override
+    public int readDwordOffset(int offset) {
+        return this.memory.readDwordOffset(offset);
+    }
+
+    @Override
+    public void writeWordOffset(int offset, short w) {
+        if (this.mode != Mode.READ_ONLY) {
+            this.memory.writeWordOffset(offset, w);
+        }
+    }
+
+    @Override
+    public void writeDwordOffset(int offset, int d) {
+        if (this.mode != Mode.READ_ONLY) {
+            this.memory.writeDwordOffset(offset, d);
+        }
+    }
+
+    @Override
+    public void readBlockOffset(int offset, byte[] dst, int at, int length) {
+        this.memory.readBlockOffset(offset, dst, at, length);
+    }
+
+    @Override
+    public void writeBlockOffset(int offset, byte[] src, int at, int length) {
+        if (this.mode != Mode.READ_ONLY) {
+            this.memory.writeBlockOffset(offset, src, at, length);
+        }
+    }
+
+    @Override
+    public void saveContents(ByteBuffer dst) {
+        this.memory.saveContents(dst);
+    }
+
+    @Override
+    public void loadContents(ByteBuffer src) {
+        if (this.mode == Mode.READ_ONLY) {
+            // Nothing could have changed it anyway
+            src.position(src.position() + this.getCapacity());
+        } else {
+            this.memory.loadContents(src);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package org.atoiks.games.nostalgia;
+
+// Thrown by the MemoryUnit when nothing is mapped at the address. The
+// processor turns it into a FAULT_BAD_ADDRESS trap (see TrapController), so
+// it is cheap to make: there is no stack trace and the message is only put
+// together if someone asks for it.
+public final class MemoryFault extends IndexOutOfBoundsException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int address;
+
+    public MemoryFault(int address) {
+        this.address = address;
+    }
+
+    public int getAddress() {
+        return this.address;
+    }
+
+    @Override
+    public String getMessage() {
+        return describe(this.address);
+    }
+
+    public static String describe(int address) {
+        return "Memory Unit: bad memory access at 0x" + Integer.toString(address, 16);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
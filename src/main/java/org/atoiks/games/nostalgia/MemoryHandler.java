@@ -1,9 +1,70 @@
 package org.atoiks.games.nostalgia;
 
+import java.nio.ByteBuffer;
+
 public interface MemoryHandler {
 
     public int getCapacity();
 
     public byte readOffset(int offset);
     public void writeOffset(int offset, byte b);
-}
\ No newline at end of file
+
+    // The multi-byte accesses are always big endian. MemoryUnit only uses
+    // these if the whole access fits inside the handler. Override them if
+    // there is a faster way than going byte by byte.
+
+    public default short readWordOffset(int offset) {
+        final int hi = this.readOffset(offset);
+        final int lo = this.readOffset(offset + 1);
+        return (short) ((hi << 8) | (lo & 0xFF));
+    }
+
+    public default int readDwordOffset(int offset) {
+        final int hi = this.readWordOffset(offset);
+        final int lo = this.readWordOffset(offset + 2);
+        return (hi << 16) | (lo & 0xFFFF);
+    }
+
+    public default void writeWordOffset(int offset, short w) {
+        this.writeOffset(offset, (byte) (w >> 8));
+        this.writeOffset(offset + 1, (byte) w);
+    }
+
+    public default void writeDwordOffset(int offset, int d) {
+        this.writeWordOffset(offset, (short) (d >> 16));
+        this.writeWordOffset(offset + 2, (short) d);
+    }
+
+    // Bulk accesses (see MemoryUnit.copy and MemoryUnit.fill): length bytes
+    // starting at offset, all of them inside the handler.
+
+    public default void readBlockOffset(int offset, byte[] dst, int at, int length) {
+        for (int i = 0; i < length; ++i) {
+            dst[at + i] = this.readOffset(offset + i);
+        }
+    }
+
+    public default void writeBlockOffset(int offset, byte[] src, int at, int length) {
+        for (int i = 0; i < length; ++i) {
+            this.writeOffset(offset + i, src[at + i]);
+        }
+    }
+
+    // Used by snapshots: exactly getCapacity bytes are saved (and later
+    // loaded back in). Devices where reading and writing a byte does not
+    // just mean storing it need to override these.
+
+    public default void saveContents(ByteBuffer dst) {
+        final int capacity = this.getCapacity();
+        for (int i = 0; i < capacity; ++i) {
+            dst.put(this.readOffset(i));
+        }
+    }
+
+    public default void loadContents(ByteBuffer src) {
+        final int capacity = this.getCapacity();
+        for (int i = 0; i < capacity; ++i) {
+            this.writeOffset(i, src.get());
+        }
+    }
+}
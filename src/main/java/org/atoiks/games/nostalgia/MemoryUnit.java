@@ -5,42 +5,403 @@ import java.util.*;
 
 public final class MemoryUnit {
 
-    private final TreeMap<Integer, MemoryHandler> regions = new TreeMap<>();
+    public static interface WriteListener {
 
-    private Optional<Map.Entry<Integer, MemoryHandler>> loadHandler(final int address) {
-        final Map.Entry<Integer, MemoryHandler> entry = regions.floorEntry(address);
-        if (entry != null) {
-            final int start = entry.getKey();
-            final MemoryHandler handler = entry.getValue();
-            if (start <= address && address - start < handler.getCapacity()) {
-                return Optional.of(entry);
+        public void memoryWritten(int address, int length);
+    }
+
+    // Sorted by the start address. These are plain arrays (instead of a
+    // TreeMap) so looking up a handler does not allocate anything.
+    private int[] starts = new int[0];
+    private MemoryHandler[] handlers = new MemoryHandler[0];
+
+    // Page table on top of the arrays above. The 32 bit address is split
+    // into 12 + 12 + 8 bits (same as the InstrCache), so sparse layouts only
+    // allocate the tables they touch. Each page holds:
+    //
+    //   0               => nothing is mapped in this page
+    //   PAGE_SHARED     => more than one handler, do the binary search
+    //   anything else   => 1 + the index of the only handler in this page
+    private static final int PAGE_BITS = 8;
+    private static final int TABLE_BITS = 12;
+    private static final int TABLE_SIZE = 1 << TABLE_BITS;
+    private static final int PAGE_SHARED = -1;
+
+    private final int[][] pageTable = new int[TABLE_SIZE][];
+
+    private WriteListener[] listeners = new WriteListener[0];
+
+    // Returns the index of the handler, or -1 if the address is not mapped
+    private int loadHandler(final int address) {
+        final int[] table = this.pageTable[address >>> (PAGE_BITS + TABLE_BITS)];
+        if (table == null) {
+            return -1;
+        }
+
+        final int page = table[(address >>> PAGE_BITS) & (TABLE_SIZE - 1)];
+        if (page == 0) {
+            return -1;
+        }
+        if (page != PAGE_SHARED) {
+            final int index = page - 1;
+            final int start = this.starts[index];
+            if (start <= address && address - start < this.handlers[index].getCapacity()) {
+                return index;
             }
+            return -1;
         }
 
-        return Optional.empty();
+        return this.searchHandler(address);
+    }
+
+    private int searchHandler(final int address) {
+        // Look for the last region starting at or before the address
+        int lo = 0;
+        int hi = this.starts.length - 1;
+        int found = -1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (this.starts[mid] <= address) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        if (found >= 0 && address - this.starts[found] < this.handlers[found].getCapacity()) {
+            return found;
+        }
+        return -1;
+    }
+
+    private int loadHandlerOrThrow(final int address) {
+        final int index = this.loadHandler(address);
+        if (index < 0) {
+            throw new MemoryFault(address);
+        }
+        return index;
     }
 
     public void mapHandler(int address, MemoryHandler handler) {
-        if (this.loadHandler(address).isPresent()) {
+        if (this.loadHandler(address) >= 0) {
             throw new RuntimeException("Memory Unit: handler has overlapping regions at 0x" + Integer.toString(address, 16));
         }
 
-        regions.put(address, Objects.requireNonNull(handler));
+        Objects.requireNonNull(handler);
+
+        int index = Arrays.binarySearch(this.starts, address);
+        if (index >= 0) {
+            // Only possible if the old one is empty, just replace it
+            this.handlers[index] = handler;
+            this.rebuildPageTable();
+            return;
+        }
+
+        index = -(index + 1);
+        final int length = this.starts.length;
+
+        final int[] newStarts = new int[length + 1];
+        System.arraycopy(this.starts, 0, newStarts, 0, index);
+        System.arraycopy(this.starts, index, newStarts, index + 1, length - index);
+        newStarts[index] = address;
+
+        final MemoryHandler[] newHandlers = new MemoryHandler[length + 1];
+        System.arraycopy(this.handlers, 0, newHandlers, 0, index);
+        System.arraycopy(this.handlers, index, newHandlers, index + 1, length - index);
+        newHandlers[index] = handler;
+
+        this.starts = newStarts;
+        this.handlers = newHandlers;
+
+        // Indices have shifted, so just redo the whole thing. Mapping stuff
+        // only happens during setup anyway.
+        this.rebuildPageTable();
+    }
+
+    private void rebuildPageTable() {
+        for (final int[] table : this.pageTable) {
+            if (table != null) {
+                Arrays.fill(table, 0);
+            }
+        }
+
+        for (int i = 0; i < this.starts.length; ++i) {
+            final int capacity = this.handlers[i].getCapacity();
+            if (capacity <= 0) {
+                continue;
+            }
+
+            // Addresses are compared as signed ints, so a region never wraps
+            // past Integer.MAX_VALUE.
+            final long first = this.starts[i];
+            final long last = Math.min(first + capacity - 1, Integer.MAX_VALUE);
+            for (long page = first >> PAGE_BITS; page <= last >> PAGE_BITS; ++page) {
+                final int address = (int) (page << PAGE_BITS);
+                final int dirIdx = address >>> (PAGE_BITS + TABLE_BITS);
+                int[] table = this.pageTable[dirIdx];
+                if (table == null) {
+                    table = this.pageTable[dirIdx] = new int[TABLE_SIZE];
+                }
+
+                final int tblIdx = (address >>> PAGE_BITS) & (TABLE_SIZE - 1);
+                table[tblIdx] = table[tblIdx] == 0 ? i + 1 : PAGE_SHARED;
+            }
+        }
+    }
+
+    public void addWriteListener(WriteListener listener) {
+        final WriteListener[] old = this.listeners;
+        final WriteListener[] arr = Arrays.copyOf(old, old.length + 1);
+        arr[old.length] = Objects.requireNonNull(listener);
+        this.listeners = arr;
+    }
+
+    private void notifyWrite(final int address, final int length) {
+        for (final WriteListener listener : this.listeners) {
+            listener.memoryWritten(address, length);
+        }
     }
 
     public byte read(final int address) {
-        final Map.Entry<Integer, MemoryHandler> entry = this.loadHandler(address)
-                .orElseThrow(() -> new IndexOutOfBoundsException("Memory Unit: bad memory access at 0x" + Integer.toString(address, 16)));
-        return entry.getValue().readOffset(address - entry.getKey());
+        final int index = this.loadHandlerOrThrow(address);
+        return this.handlers[index].readOffset(address - this.starts[index]);
     }
 
     public void write(final int address, byte b) {
-        final Map.Entry<Integer, MemoryHandler> entry = this.loadHandler(address)
-                .orElseThrow(() -> new IndexOutOfBoundsException("Memory Unit: bad memory access at 0x" + Integer.toString(address, 16)));
-        entry.getValue().writeOffset(address - entry.getKey(), b);
+        final int index = this.loadHandlerOrThrow(address);
+        this.handlers[index].writeOffset(address - this.starts[index], b);
+        this.notifyWrite(address, 1);
+    }
+
+    // Word and dword accesses are big endian. If the access does not fit
+    // inside a single handler, it is split into bytes (which is slow but
+    // still correct).
+
+    public short readWord(final int address) {
+        final int index = this.loadHandlerOrThrow(address);
+        final MemoryHandler handler = this.handlers[index];
+        final int offset = address - this.starts[index];
+        if (offset < handler.getCapacity() - 1) {
+            return handler.readWordOffset(offset);
+        }
+
+        final int hi = this.read(address);
+        final int lo = this.read(address + 1);
+        return (short) ((hi << 8) | (lo & 0xFF));
+    }
+
+    public int readDword(final int address) {
+        final int index = this.loadHandlerOrThrow(address);
+        final MemoryHandler handler = this.handlers[index];
+        final int offset = address - this.starts[index];
+        if (offset < handler.getCapacity() - 3) {
+            return handler.readDwordOffset(offset);
+        }
+
+        int d = 0;
+        for (int i = 0; i < 4; ++i) {
+            d = (d << 8) | (this.read(address + i) & 0xFF);
+        }
+        return d;
+    }
+
+    public void writeWord(final int address, short w) {
+        final int index = this.loadHandlerOrThrow(address);
+        final MemoryHandler handler = this.handlers[index];
+        final int offset = address - this.starts[index];
+        if (offset < handler.getCapacity() - 1) {
+            handler.writeWordOffset(offset, w);
+            this.notifyWrite(address, 2);
+            return;
+        }
+
+        this.write(address, (byte) (w >> 8));
+        this.write(address + 1, (byte) w);
+    }
+
+    public void writeDword(final int address, int d) {
+        final int index = this.loadHandlerOrThrow(address);
+        final MemoryHandler handler = this.handlers[index];
+        final int offset = address - this.starts[index];
+        if (offset < handler.getCapacity() - 3) {
+            handler.writeDwordOffset(offset, d);
+            this.notifyWrite(address, 4);
+            return;
+        }
+
+        for (int i = 0; i < 4; ++i) {
+            this.write(address + i, (byte) (d >> (24 - 8 * i)));
+        }
+    }
+
+    // Atomic read-modify-writes (see XADD and CAS). These are atomic with
+    // respect to each other (all of them share one lock), but not with
+    // respect to plain accesses made by another core at the same time. The
+    // lock also orders everything else: whatever a core wrote before an
+    // atomic is visible to another core once that core performs an atomic
+    // after it.
+
+    private final Object atomicLock = new Object();
+
+    // Returns the old value
+    public int fetchAddDword(final int address, int delta) {
+        synchronized (this.atomicLock) {
+            final int old = this.readDword(address);
+            this.writeDword(address, old + delta);
+            return old;
+        }
+    }
+
+    // Returns the old value (which equals expected if it was swapped)
+    public int compareAndSwapDword(final int address, int expected, int update) {
+        synchronized (this.atomicLock) {
+            final int old = this.readDword(address);
+            if (old == expected) {
+                this.writeDword(address, update);
+            }
+            return old;
+        }
+    }
+
+    // Bulk transfers (see DmaController). These go through the handlers a
+    // block at a time instead of a byte at a time. Overlapping copies end up
+    // the same as copying a byte at a time in that direction would.
+
+    private static final int BLOCK_SIZE = 4096;
+
+    public void copy(final int dst, final int src, final int length) {
+        final byte[] block = new byte[Math.min(length, BLOCK_SIZE)];
+        final int distance = dst - src;
+
+        int done = 0;
+        while (done < length) {
+            int chunk = Math.min(length - done, BLOCK_SIZE);
+            if (distance > 0 && distance < chunk) {
+                // The source catches up with what was just written
+                chunk = distance;
+            }
+
+            this.readBlock(src + done, block, 0, chunk);
+            this.writeBlock(dst + done, block, 0, chunk);
+            done += chunk;
+        }
+    }
+
+    public void copyBackwards(final int dst, final int src, final int length) {
+        final byte[] block = new byte[Math.min(length, BLOCK_SIZE)];
+        final int distance = src - dst;
+
+        int left = length;
+        while (left > 0) {
+            int chunk = Math.min(left, BLOCK_SIZE);
+            if (distance > 0 && distance < chunk) {
+                chunk = distance;
+            }
+
+            left -= chunk;
+            this.readBlock(src + left, block, 0, chunk);
+            this.writeBlock(dst + left, block, 0, chunk);
+        }
+    }
+
+    public void fill(final int dst, final byte value, final int length) {
+        final byte[] block = new byte[Math.min(length, BLOCK_SIZE)];
+        Arrays.fill(block, value);
+
+        int done = 0;
+        while (done < length) {
+            final int chunk = Math.min(length - done, BLOCK_SIZE);
+            this.writeBlock(dst + done, block, 0, chunk);
+            done += chunk;
+        }
+    }
+
+    private void readBlock(int address, final byte[] dst, int at, final int length) {
+        final int end = at + length;
+        while (at < end) {
+            final int index = this.loadHandlerOrThrow(address);
+            final MemoryHandler handler = this.handlers[index];
+            final int offset = address - this.starts[index];
+            final int n = Math.min(end - at, handler.getCapacity() - offset);
+
+            handler.readBlockOffset(offset, dst, at, n);
+            address += n;
+            at += n;
+        }
+    }
+
+    private void writeBlock(int address, final byte[] src, int at, final int length) {
+        final int end = at + length;
+        while (at < end) {
+            final int index = this.loadHandlerOrThrow(address);
+            final MemoryHandler handler = this.handlers[index];
+            final int offset = address - this.starts[index];
+            final int n = Math.min(end - at, handler.getCapacity() - offset);
+
+            handler.writeBlockOffset(offset, src, at, n);
+            this.notifyWrite(address, n);
+            address += n;
+            at += n;
+        }
+    }
+
+    // Snapshot support: the contents of every handler (together with where
+    // it is mapped so loading can check the layout is still the same).
+
+    public long getContentsSize() {
+        long size = 4;
+        for (final MemoryHandler handler : this.handlers) {
+            size += 8 + handler.getCapacity();
+        }
+        return size;
+    }
+
+    public void saveContents(ByteBuffer dst) {
+        dst.putInt(this.handlers.length);
+        for (int i = 0; i < this.handlers.length; ++i) {
+            dst.putInt(this.starts[i]);
+            dst.putInt(this.handlers[i].getCapacity());
+            this.handlers[i].saveContents(dst);
+        }
+    }
+
+    public void loadContents(ByteBuffer src) {
+        // Check the whole layout first (so nothing is half loaded)
+        final ByteBuffer layout = src.duplicate();
+        if (layout.getInt() != this.handlers.length) {
+            throw new RuntimeException("Memory Unit: snapshot has a different number of handlers");
+        }
+        for (int i = 0; i < this.handlers.length; ++i) {
+            final int start = layout.getInt();
+            final int capacity = layout.getInt();
+            if (start != this.starts[i] || capacity != this.handlers[i].getCapacity()) {
+                throw new RuntimeException("Memory Unit: snapshot has a handler at 0x" + Integer.toString(start, 16)
+                        + " (" + capacity + " bytes) which is not mapped");
+            }
+            layout.position(layout.position() + capacity);
+        }
+
+        src.getInt();
+        for (int i = 0; i < this.handlers.length; ++i) {
+            final int start = src.getInt();
+            final int capacity = src.getInt();
+            this.handlers[i].loadContents(src);
+
+            // Same as if all of it were written through here
+            if (capacity > 0) {
+                this.notifyWrite(start, capacity);
+            }
+        }
     }
 
     public void read(final int start, ByteBuffer buf) {
+        if (buf.hasArray()) {
+            this.readBlock(start, buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+            buf.position(buf.limit());
+            return;
+        }
+
         int address = start;
         while (buf.hasRemaining()) {
             buf.put(this.read(address++));
@@ -48,6 +409,12 @@ public final class MemoryUnit {
     }
 
     public void write(final int start, ByteBuffer buf) {
+        if (buf.hasArray()) {
+            this.writeBlock(start, buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+            buf.position(buf.limit());
+            return;
+        }
+
         int address = start;
         while (buf.hasRemaining()) {
             this.write(address++, buf.get());
@@ -9,6 +9,7 @@ public final class Opcode {
     public static final int MASK_OP0    = 0x3F;
     public static final int MASK_OP1    = 0x07;
     public static final int MASK_FPEXT  = 0xFF;
+    public static final int MASK_SYSEXT = 0x07;
 
     // All OP0 opcodes must be masked to MASK_OP0!
     //
@@ -30,7 +31,7 @@ public final class Opcode {
     //   0xxx xxxc ccbb baaa
     //
     // Note: All possible OP0 opcodes have been filled!
-    // (OP0_RESV reserved to allow future extensions)
+    // (OP0_SYSEXT is where future extensions go, see SYSEXT below)
 
     public static final int OP0_MOV_I   = 0 & MASK_OP0;
     public static final int OP0_MOV_LO  = 1 & MASK_OP0;
@@ -108,7 +109,7 @@ public final class Opcode {
     public static final int OP0_LDM_LB  = 61 & MASK_OP0;
     public static final int OP0_STM_LB  = 62 & MASK_OP0;
 
-    public static final int OP0_RESV    = 63 & MASK_OP0;
+    public static final int OP0_SYSEXT  = 63 & MASK_OP0;
 
     // All OP1 opcodes must be masked to MASK_OP1!
     //
@@ -171,4 +172,19 @@ public final class Opcode {
     public static final int FPEXT_FMOV  = 10 & MASK_FPEXT;
     public static final int FPEXT_FRSUB = 11 & MASK_FPEXT;
     public static final int FPEXT_FRDIV = 12 & MASK_FPEXT;
-}
\ No newline at end of file
+
+    // All SYSEXT opcodes must be masked to MASK_SYSEXT!
+    //
+    // Same trick as FPEXT: an OP0_SYSEXT instruction has the IRR format and
+    // the opcode takes the place of the 3 bit immediate (no IEX this time,
+    // the prefix is just ignored). The registers are unused by HALT, the
+    // assembler leaves them as zero. The ones not listed here are reserved,
+    // they are illegal opcodes (see ProcessUnit.FAULT_ILLEGAL_OP).
+    //
+    //   0111 111x xxbb baaa
+
+    public static final int SYSEXT_HALT  = 0 & MASK_SYSEXT;
+    public static final int SYSEXT_CPUID = 1 & MASK_SYSEXT;
+    public static final int SYSEXT_XADD  = 2 & MASK_SYSEXT;
+    public static final int SYSEXT_CAS   = 3 & MASK_SYSEXT;
+}
@@ -0,0 +1,156 @@
+package org.atoiks.games.nostalgia;
+
+import java.util.concurrent.TimeUnit;
+
+// Runs the processor at a fixed guest clock rate (in cycles per second).
+//
+// The number of cycles that should have happened is always worked out from
+// the time since the start (not from the last slice), so rounding and late
+// wake ups do not add up over time. In between, it sleeps for a whole slice
+// instead of after every quanta.
+//
+// While the guest is halted (see HALT), the cycles are counted without
+// running anything, and the thread is parked until either the next slice or
+// an interrupt (whichever comes first).
+//
+// run only returns once the processor is stopped by a fault (see
+// ProcessUnit.getFault), or throws once the thread running it is
+// interrupted.
+public final class Pacer {
+
+    // Roughly the old sleep(1) loop (one quanta is about 6 cycles), with
+    // --fast being four times that.
+    public static final long SLOW_CLOCK = 6000;
+    public static final long FAST_CLOCK = 4 * SLOW_CLOCK;
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    // How long to sleep in between batches
+    private static final long SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(4);
+
+    // If the host falls this far behind (the machine went to sleep, or
+    // someone is debugging), the time is just lost instead of running
+    // everything in one go.
+    private static final long MAX_LAG_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+    // Where the time comes from (tests use a fake one)
+    static interface HostClock {
+
+        public long nanoTime();
+
+        // Waits for (about) nanos, but if the processor is halted, an
+        // interrupt ends the wait early
+        public void await(ProcessUnit proc, long nanos) throws InterruptedException;
+    }
+
+    private static final HostClock SYSTEM_CLOCK = new HostClock() {
+
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void await(ProcessUnit proc, long nanos) throws InterruptedException {
+            if (proc.isHalted()) {
+                proc.waitForInterrupt(nanos);
+            } else {
+                TimeUnit.NANOSECONDS.sleep(nanos);
+            }
+        }
+    };
+
+    private final ProcessUnit proc;
+    private final long clock;
+    private final HostClock host;
+
+    // clock <= 0 means as fast as possible
+    public Pacer(ProcessUnit proc, long clock) {
+        this(proc, clock, SYSTEM_CLOCK);
+    }
+
+    Pacer(ProcessUnit proc, long clock, HostClock host) {
+        this.proc = proc;
+        this.clock = clock;
+        this.host = host;
+    }
+
+    public void run() throws InterruptedException {
+        if (this.clock <= 0) {
+            while (true) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if (this.proc.isIdle()) {
+                    // Skip to the timer if it is set, otherwise wait for
+                    // something else (like the keyboard)
+                    final long alarm = this.proc.getInterruptController().getTimerAlarm();
+                    if (alarm >= 0) {
+                        this.proc.idle(alarm - this.proc.getCycleCount());
+                    } else {
+                        this.host.await(this.proc, SLICE_NANOS);
+                    }
+                }
+                this.proc.executeNextQuanta();
+                if (this.proc.getFault() != ProcessUnit.FAULT_NONE) {
+                    return;
+                }
+            }
+        }
+
+        final long maxLag = this.cyclesIn(MAX_LAG_NANOS);
+
+        long startTime = this.host.nanoTime();
+        long startCycles = this.proc.getCycleCount();
+        long wakeTime = startTime;
+
+        while (true) {
+            if (Thread.interrupted()) {
+                // (Running late means it never sleeps)
+                throw new InterruptedException();
+            }
+
+            final long now = this.host.nanoTime();
+            final long target = startCycles + this.cyclesIn(now - startTime);
+            if (target - this.proc.getCycleCount() > maxLag) {
+                // Start counting again from here
+                startTime = now;
+                startCycles = this.proc.getCycleCount();
+            } else {
+                while (this.proc.getCycleCount() < target) {
+                    if (this.proc.isIdle()) {
+                        // The cycles still pass (so the timer stays in step
+                        // with the clock), there is just nothing to run
+                        final long alarm = this.proc.getInterruptController().getTimerAlarm();
+                        final long until = alarm < 0 ? target : Math.min(alarm, target);
+                        this.proc.idle(until - this.proc.getCycleCount());
+                        if (this.proc.isIdle()) {
+                            break;
+                        }
+                    }
+                    this.proc.executeNextQuanta();
+                }
+            }
+
+            if (this.proc.getFault() != ProcessUnit.FAULT_NONE) {
+                return;
+            }
+
+            wakeTime += SLICE_NANOS;
+            final long delay = wakeTime - this.host.nanoTime();
+            if (delay > 0) {
+                // Woken up early if the processor is halted and an
+                // interrupt comes in
+                this.host.await(this.proc, delay);
+            } else {
+                // Running late, no point in trying to make up for it
+                wakeTime = this.host.nanoTime();
+            }
+        }
+    }
+
+    private long cyclesIn(long nanos) {
+        // Split up so it does not overflow even after running for years
+        return nanos / NANOS_PER_SECOND * this.clock + nanos % NANOS_PER_SECOND * this.clock / NANOS_PER_SECOND;
+    }
+}
@@ -6,6 +6,14 @@ import java.util.Objects;
 
 public final class ProcessUnit implements Decoder.InstrStream, InstrVisitor {
 
+    // What went wrong when the guest does something it should not (see
+    // TrapController and getFault)
+    public static final int FAULT_NONE = 0;
+    public static final int FAULT_ILLEGAL_OP = 1;
+    public static final int FAULT_ILLEGAL_FPEXT = 2;
+    public static final int FAULT_BAD_ADDRESS = 3;
+    public static final int FAULT_DIVIDE_BY_ZERO = 4;
+
     // Keep this in sync with Assembler.java!
     private static final int REG_SLOT_SP = 7;   // R8
     private static final int REG_SLOT_BP = 8;   // R9
@@ -27,15 +35,195 @@ public final class ProcessUnit implements Decoder.InstrStream, InstrVisitor {
 
     private final InstrTiming timing = new InstrTiming();
     private int quanta; // just models instruction timing
+    private int quantaStart; // quanta when the current one started
+    private long cycles; // total time spent on instructions (before it)
+    private long instructions; // total number of instructions executed
+
+    // executeNextQuanta stops right before executing the instruction here
+    private boolean hasBreakpoint;
+    private int breakpoint;
+
+    // Set by HALT: nothing is executed until the interrupt controller has
+    // an interrupt pending (but the time still passes).
+    private boolean halted;
+    private InterruptController interrupts;
+
+    // Set by a fault that the guest did not handle. The processor stays
+    // halted for good (until reset), the host is expected to check this.
+    private int fault;
+    private int faultDetail;
+    private TrapController traps;
 
     // Super random, but can we get a counter register lulz!?
 
     private final MemoryUnit memory;
+
+    // See CPUID (cores sharing one MemoryUnit each get their own)
+    private final int coreId;
+
+    // Only set if setOwner was called (see RemoteWrites)
+    private Thread owner;
+    private RemoteWrites remoteWrites;
+
+    // Already decoded instructions, keyed by their (guest) address
+    private final InstrCache codeCache = new InstrCache();
+    private final CachedInstr.Builder cacheBuilder = new CachedInstr.Builder();
     private final Decoder decoder;
+    private int fetchAddr;
+
+    // Only set if enableJit was called. The flag tracks if the next
+    // instruction starts a new basic block (only those are compiled).
+    private BlockJit jit;
+    private boolean atBlockEntry = true;
+
+    // Only set if enableProfiler was called
+    private Profiler profiler;
 
     public ProcessUnit(MemoryUnit memory) {
+        this(memory, 0);
+    }
+
+    public ProcessUnit(MemoryUnit memory, int coreId) {
         this.memory = Objects.requireNonNull(memory);
-        this.decoder = new Decoder(this);
+        this.coreId = coreId;
+        this.decoder = new Decoder(this::fetchWord);
+
+        // Code is allowed to be overwritten (the bootloader's stack does
+        // exactly that), so any stale entries must be dropped.
+        this.memory.addWriteListener(this::memoryWritten);
+    }
+
+    public int getCoreId() {
+        return this.coreId;
+    }
+
+    // Only needed if other cores share the MemoryUnit: this core is only
+    // ever run by the owner thread, writes made by any other thread drop
+    // the stale code at the start of the next quanta (instead of right
+    // away, which would mean touching the caches from the wrong thread).
+    public void setOwner(Thread owner) {
+        this.owner = owner;
+        if (this.remoteWrites == null) {
+            this.remoteWrites = new RemoteWrites();
+        }
+    }
+
+    // Devices shared by several cores use this to find the core doing the
+    // access: the one owned by the calling thread (see setOwner), or the
+    // first one if none of them are (a single core never needs an owner).
+    public static ProcessUnit current(ProcessUnit[] cores) {
+        final Thread self = Thread.currentThread();
+        for (final ProcessUnit core : cores) {
+            if (core.owner == self) {
+                return core;
+            }
+        }
+        return cores[0];
+    }
+
+    private void memoryWritten(int address, int length) {
+        if (this.remoteWrites != null && Thread.currentThread() != this.owner) {
+            this.remoteWrites.add(address, length);
+            return;
+        }
+
+        this.invalidateCode(address, length);
+    }
+
+    private void invalidateCode(int address, int length) {
+        this.codeCache.invalidate(address, length);
+        if (this.jit != null) {
+            this.jit.invalidate(address, length);
+        }
+    }
+
+    private void applyRemoteWrites() {
+        if (this.remoteWrites != null && this.remoteWrites.isPending()
+                && !this.remoteWrites.drain(this::invalidateCode)) {
+            this.flushCodeCache();
+        }
+    }
+
+    public void enableJit() {
+        this.enableJit(BlockJit.DEFAULT_THRESHOLD);
+    }
+
+    public void enableJit(int threshold) {
+        if (this.jit == null) {
+            this.jit = new BlockJit(this, this.memory, threshold);
+        }
+    }
+
+    public Profiler enableProfiler() {
+        if (this.profiler == null) {
+            this.profiler = new Profiler(this.ip);
+        }
+        return this.profiler;
+    }
+
+    public Profiler getProfiler() {
+        return this.profiler;
+    }
+
+    // Without one, HALT does nothing (there is nothing to wake it up)
+    public void setInterruptController(InterruptController interrupts) {
+        this.interrupts = interrupts;
+    }
+
+    public InterruptController getInterruptController() {
+        return this.interrupts;
+    }
+
+    // Without one, every fault stops the processor
+    public void setTrapController(TrapController traps) {
+        this.traps = traps;
+    }
+
+    public TrapController getTrapController() {
+        return this.traps;
+    }
+
+    // FAULT_NONE unless the processor was stopped by a fault
+    public int getFault() {
+        return this.fault;
+    }
+
+    public int getFaultDetail() {
+        return this.faultDetail;
+    }
+
+    public String getFaultMessage() {
+        switch (this.fault) {
+            case FAULT_ILLEGAL_OP:
+                return "Process Unit: Illegal opcode: " + this.faultDetail;
+            case FAULT_ILLEGAL_FPEXT:
+                return "Process Unit: Illegal float-point extension opcode: " + this.faultDetail;
+            case FAULT_BAD_ADDRESS:
+                return MemoryFault.describe(this.faultDetail);
+            case FAULT_DIVIDE_BY_ZERO:
+                return "Process Unit: Division by zero";
+            default:
+                return null;
+        }
+    }
+
+    // Either jumps to the guest's handler or stops the processor. Only
+    // happens once something is already wrong, so it does not matter how
+    // slow this is.
+    private void raiseFault(int code, int detail) {
+        this.iexImm = 0;
+        this.resetREX();
+        this.atBlockEntry = true;
+
+        final int handler = this.traps == null ? 0 : this.traps.enter(code, this.ip, detail);
+        if (handler != 0) {
+            this.ip = handler;
+            return;
+        }
+
+        this.fault = code;
+        this.faultDetail = detail;
+        this.halted = true;
     }
 
     private void adjustQuanta() {
@@ -46,33 +234,125 @@ public final class ProcessUnit implements Decoder.InstrStream, InstrVisitor {
     }
 
     public void executeNextQuanta() {
+        this.applyRemoteWrites();
         this.adjustQuanta();
 
+        this.quantaStart = this.quanta;
+        if (this.halted && !this.wakeUp()) {
+            // The whole quanta is spent waiting
+            this.cycles += this.quanta;
+            this.quanta = 0;
+            this.quantaStart = 0;
+            return;
+        }
+
+        try {
+            if (this.profiler == null) {
+                this.executeQuanta();
+            } else {
+                this.executeQuantaProfiled();
+            }
+        } catch (MemoryFault ex) {
+            // The ip is already past the instruction (unless it could not be
+            // fetched at all)
+            this.raiseFault(FAULT_BAD_ADDRESS, ex.getAddress());
+        } finally {
+            this.cycles += this.quantaStart - this.quanta;
+            this.quantaStart = this.quanta;
+        }
+    }
+
+    private void executeQuanta() {
         while (true) {
-            // Perform a double decoding:
-            final int save = this.ip;
-
-            // Check if we have enough quanta to execute the next instruction
-            int cost = 0;
-            while (cost == 0) {
-                // bypass the instruction prefixes
-                this.decoder.decode(this.timing);
-                cost = this.timing.getTiming();
+            if (this.halted || (this.hasBreakpoint && this.ip == this.breakpoint)) {
+                break;
+            }
+
+            // (Breakpoints need every instruction boundary, so no compiled
+            // blocks or fused pairs with those)
+            if (this.jit != null && !this.hasBreakpoint && this.atBlockEntry && this.iexImm == 0 && this.rexRA == 0
+                    && this.rexRB == 0 && this.rexRC == 0 && this.rexRD == 0) {
+                // Compiled blocks assume they start with a clean prefix
+                // state (which is almost always the case after a jump).
+                final CompiledBlock block = this.jit.lookup(this.loadCachedInstr(), this.ip);
+                if (block != null) {
+                    final int used = block.run(this.regs, this.quanta);
+                    this.quanta -= used;
+                    this.instructions += block.countExecuted(used);
+                    this.atBlockEntry = true;
+
+                    // Nothing was executed means the quanta is used up
+                    if (used > 0) {
+                        continue;
+                    }
+                }
             }
 
-            // Restore the ip (modified by the first decode)
-            this.ip = save;
+            // The cost is decoded together with the instruction (and the
+            // prefixes are already folded into it), so there is no need for
+            // a second decoding pass.
+            final CachedInstr instr = this.loadCachedInstr();
 
             // If it's too costly, then we do not execute the instruction.
-            if (cost > this.quanta) {
+            if (this.costOf(instr) > this.quanta) {
                 break;
             }
 
             // Adjust the quanta
-            this.quanta -= cost;
+            this.quanta -= instr.cost;
+
+            // Then execute the actual instruction (together with the next
+            // one if they are fused and both fit in the quanta)
+            final CachedInstr next = instr.fusedNext;
+            if (next != null && !this.hasBreakpoint && next.cost <= this.quanta) {
+                this.quanta -= next.cost;
+                this.instructions += 2;
+                this.executeFused(instr, next);
+            } else {
+                ++this.instructions;
+                this.executeCached(instr);
+            }
+        }
+    }
 
-            // Then execute the actual instruction
-            this.executeNext();
+    private void executeQuantaProfiled() {
+        // Same as executeQuanta, but one instruction at a time (so no
+        // compiled blocks or fused pairs): every cycle has to be charged to
+        // the address it was spent at.
+        while (true) {
+            if (this.halted || (this.hasBreakpoint && this.ip == this.breakpoint)) {
+                break;
+            }
+
+            final CachedInstr instr = this.loadCachedInstr();
+            if (this.costOf(instr) > this.quanta) {
+                break;
+            }
+
+            this.quanta -= instr.cost;
+            ++this.instructions;
+
+            // The call itself belongs to the caller, the return to the callee
+            final int sp = this.regs[REG_SLOT_SP];
+            this.profiler.record(this.ip, instr.cost);
+            this.executeCached(instr);
+
+            switch (opcodeOP0(instr.entry)) {
+                case Opcode.OP0_CALL_Z:
+                case Opcode.OP0_CALL_NZ:
+                case Opcode.OP0_CALL_GE:
+                case Opcode.OP0_CALL_GT:
+                case Opcode.OP0_CALL_LE:
+                case Opcode.OP0_CALL_LT:
+                    // Only if it was taken (so the return address got pushed)
+                    if (this.regs[REG_SLOT_SP] == sp - 4) {
+                        this.profiler.enter(this.ip);
+                    }
+                    break;
+                case Opcode.OP0_RET:
+                    this.profiler.leave();
+                    break;
+            }
         }
     }
 
@@ -80,7 +360,293 @@ public final class ProcessUnit implements Decoder.InstrStream, InstrVisitor {
         // Then the eflags will be very easy to implement:
         // Just catch the exceptions and handle them. Done!
 
-        this.decoder.decode(this);
+        this.applyRemoteWrites();
+        if (this.halted && !this.wakeUp()) {
+            ++this.cycles;
+            return;
+        }
+
+        final int initialQuanta = this.quanta;
+        try {
+            final CachedInstr instr = this.loadCachedInstr();
+            this.cycles += instr.cost;
+            ++this.instructions;
+            this.executeCached(instr);
+        } catch (MemoryFault ex) {
+            this.raiseFault(FAULT_BAD_ADDRESS, ex.getAddress());
+        }
+
+        // Stalls (see stall) still have to be counted
+        this.cycles += initialQuanta - this.quanta;
+        this.quanta = initialQuanta;
+    }
+
+    // Used by devices that make the instruction accessing them take longer
+    // (like the DmaController). The cycles come out of the current quanta,
+    // so it ends early and the cycle count includes them.
+    public void stall(int cycles) {
+        this.quanta -= cycles;
+    }
+
+    // Also counts the part of the current quanta used up so far, so devices
+    // (like the TimerDevice) see the cycle the accessing instruction ends at.
+    // Compiled blocks only catch up at the end of the block.
+    public long getCycleCount() {
+        return this.cycles + (this.quantaStart - this.quanta);
+    }
+
+    private boolean wakeUp() {
+        if (this.fault == FAULT_NONE && (this.interrupts == null || this.interrupts.isPending())) {
+            this.halted = false;
+        }
+        return !this.halted;
+    }
+
+    public boolean isHalted() {
+        return this.halted;
+    }
+
+    // Halted and nothing pending: executing anything is pointless until an
+    // interrupt is raised (see idle and waitForInterrupt).
+    public boolean isIdle() {
+        return this.halted && this.fault == FAULT_NONE && this.interrupts != null && !this.interrupts.isPending();
+    }
+
+    // Lets cycles pass without executing anything (instead of calling
+    // executeNextQuanta over and over). Does nothing unless halted.
+    public void idle(long cycles) {
+        if (this.halted && cycles > 0) {
+            this.cycles += cycles;
+        }
+    }
+
+    // Parks the calling thread until an interrupt is raised (or until the
+    // time runs out). Returns right away unless halted.
+    public void waitForInterrupt(long nanos) throws InterruptedException {
+        if (this.halted && this.interrupts != null) {
+            this.interrupts.awaitInterrupt(nanos);
+        }
+    }
+
+    public long getInstructionCount() {
+        // Prefixes are counted as part of the instruction they belong to
+        return this.instructions;
+    }
+
+    public void setBreakpoint(int address) {
+        this.hasBreakpoint = true;
+        this.breakpoint = address;
+    }
+
+    public void clearBreakpoint() {
+        this.hasBreakpoint = false;
+    }
+
+    public boolean isAtBreakpoint() {
+        return this.hasBreakpoint && this.ip == this.breakpoint;
+    }
+
+    void executeCached(final CachedInstr instr) {
+        this.beginCached(instr);
+        instr.dispatch(this);
+    }
+
+    private void beginCached(final CachedInstr instr) {
+        this.ip += instr.length;
+        this.atBlockEntry = instr.endsBlock;
+
+        // Same as if the prefixes were executed one by one
+        if (instr.hasIEX) {
+            this.iexImm = instr.iexImm;
+        }
+        if (instr.hasREX) {
+            this.rexRA = instr.rexRA;
+            this.rexRB = instr.rexRB;
+            this.rexRC = instr.rexRC;
+            this.rexRD = instr.rexRD;
+        }
+    }
+
+    private void executeFused(final CachedInstr first, final CachedInstr second) {
+        // Same as calling executeCached on both, except the calls are direct
+        // (so no dispatching through the decoding table).
+
+        final Decoder.Entry a = first.entry;
+        this.beginCached(first);
+        switch (opcodeOP0(a)) {
+            case Opcode.OP0_ADD_I:  this.addI(a.p0, a.p1); break;
+            case Opcode.OP0_SUB_I:  this.subI(a.p0, a.p1); break;
+            case Opcode.OP0_RSUB_I: this.rsubI(a.p0, a.p1); break;
+            case Opcode.OP0_ADD_R:  this.addR(a.p0, a.p1, a.p2); break;
+            case Opcode.OP0_SUB_R:  this.subR(a.p0, a.p1, a.p2); break;
+            case Opcode.OP0_AND_R:  this.andR(a.p0, a.p1, a.p2); break;
+            default:                a.dispatch(this); break;
+        }
+
+        final Decoder.Entry b = second.entry;
+        this.beginCached(second);
+        switch (opcodeOP0(b)) {
+            case Opcode.OP0_JREL_Z:     this.jrelZ(b.p0, b.p1); break;
+            case Opcode.OP0_JREL_NZ:    this.jrelNZ(b.p0, b.p1); break;
+            case Opcode.OP0_JREL_GE:    this.jrelGE(b.p0, b.p1); break;
+            case Opcode.OP0_JREL_GT:    this.jrelGT(b.p0, b.p1); break;
+            case Opcode.OP0_JREL_LE:    this.jrelLE(b.p0, b.p1); break;
+            case Opcode.OP0_JREL_LT:    this.jrelLT(b.p0, b.p1); break;
+            case Opcode.OP0_JABS_Z:     this.jabsZ(b.p0, b.p1, b.p2); break;
+            case Opcode.OP0_JABS_NZ:    this.jabsNZ(b.p0, b.p1, b.p2); break;
+            case Opcode.OP0_JABS_GE:    this.jabsGE(b.p0, b.p1, b.p2); break;
+            case Opcode.OP0_JABS_GT:    this.jabsGT(b.p0, b.p1, b.p2); break;
+            case Opcode.OP0_JABS_LE:    this.jabsLE(b.p0, b.p1, b.p2); break;
+            case Opcode.OP0_JABS_LT:    this.jabsLT(b.p0, b.p1, b.p2); break;
+            default:                    b.dispatch(this); break;
+        }
+    }
+
+    private static int opcodeOP0(final Decoder.Entry entry) {
+        if ((entry.word & (1 << 15)) != 0) {
+            return -1;
+        }
+        return (entry.word >> 9) & Opcode.MASK_OP0;
+    }
+
+    private static boolean canFuseFirst(final CachedInstr instr) {
+        // Only register-to-register stuff: the instruction after it must
+        // still be the same once this one is done.
+        switch (opcodeOP0(instr.entry)) {
+            case Opcode.OP0_ADD_I:
+            case Opcode.OP0_SUB_I:
+            case Opcode.OP0_RSUB_I:
+            case Opcode.OP0_ADD_R:
+            case Opcode.OP0_SUB_R:
+            case Opcode.OP0_AND_R:
+                return instr.cost > 0;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean canFuseSecond(final CachedInstr instr) {
+        switch (opcodeOP0(instr.entry)) {
+            case Opcode.OP0_JREL_Z:
+            case Opcode.OP0_JREL_NZ:
+            case Opcode.OP0_JREL_GE:
+            case Opcode.OP0_JREL_GT:
+            case Opcode.OP0_JREL_LE:
+            case Opcode.OP0_JREL_LT:
+            case Opcode.OP0_JABS_Z:
+            case Opcode.OP0_JABS_NZ:
+            case Opcode.OP0_JABS_GE:
+            case Opcode.OP0_JABS_GT:
+            case Opcode.OP0_JABS_LE:
+            case Opcode.OP0_JABS_LT:
+                return instr.cost > 0;
+            default:
+                return false;
+        }
+    }
+
+    public void flushCodeCache() {
+        // Only needed if memory was changed without going through the
+        // memory unit (for example, writing into the handler directly).
+        this.codeCache.clear();
+    }
+
+    private CachedInstr loadCachedInstr() {
+        return this.loadCachedInstr(this.ip);
+    }
+
+    CachedInstr loadCachedInstr(final int start) {
+        CachedInstr instr = this.codeCache.get(start);
+        if (instr == null) {
+            instr = this.decodeCachedInstr(start);
+            this.codeCache.put(start, instr);
+
+            if (canFuseFirst(instr)) {
+                // Peek at the next instruction. If it was not cached yet, it
+                // is decoded again once something jumps to it (that way it
+                // still gets a chance to fuse with its own successor).
+                final int nextAddr = start + instr.length;
+                CachedInstr next = this.codeCache.get(nextAddr);
+                if (next == null) {
+                    try {
+                        next = this.decodeCachedInstr(nextAddr);
+                    } catch (RuntimeException ex) {
+                        // Not our problem until it actually gets executed
+                    }
+                }
+
+                if (next != null && canFuseSecond(next)) {
+                    instr.fusedNext = next;
+                }
+            }
+        }
+        return instr;
+    }
+
+    private int costOf(final CachedInstr instr) {
+        if (!instr.prefixOnly) {
+            return instr.cost;
+        }
+
+        // Part of a long chain of prefixes: it only goes if the instruction
+        // at the end of the chain does (so a quanta never ends half way
+        // through the chain, same as when the prefixes were decoded one by
+        // one)
+        int address = this.ip + instr.length;
+        CachedInstr next;
+        while ((next = this.loadCachedInstr(address)).prefixOnly) {
+            address += next.length;
+        }
+        return next.cost;
+    }
+
+    private CachedInstr decodeCachedInstr(final int start) {
+        if (this.remoteWrites != null) {
+            // Before reading it (so writes racing with this are not lost)
+            this.remoteWrites.markCode(start);
+            this.remoteWrites.markCode(start + InstrCache.MAX_SPAN - 1);
+        }
+
+        this.fetchAddr = start;
+        this.cacheBuilder.reset();
+
+        // Fold the prefixes into the actual instruction
+        int prefixes = 0;
+        do {
+            this.cacheBuilder.add(this.decoder.next());
+        } while (this.cacheBuilder.lastWasPrefix() && ++prefixes <= InstrCache.MAX_PREFIXES);
+
+        return this.cacheBuilder.build(this.fetchAddr - start, this.timing);
+    }
+
+    private short fetchWord() {
+        final short word = this.memory.readWord(this.fetchAddr);
+        this.fetchAddr += 2;
+        return word;
+    }
+
+    void chargeAborted(int cycles, int executed) {
+        // Used by compiled blocks that were cut short (see
+        // CompiledBlock.abort), run only charges once it returns normally
+        this.quanta -= cycles;
+        this.instructions += executed;
+    }
+
+    boolean isAtBlockEntry() {
+        // Used by compiled blocks after falling back on an instruction that
+        // might fault (see CompiledBlock.fallbackLeaves)
+        return this.atBlockEntry;
+    }
+
+    void restoreState(int ip, int prefixState) {
+        // Used by compiled blocks when they hand control back (see
+        // BlockCompiler for how the prefix state is packed)
+        this.ip = ip;
+        this.iexImm = (short) prefixState;
+        this.rexRA = (byte) ((prefixState >> 16) & 0x7);
+        this.rexRB = (byte) ((prefixState >> 19) & 0x7);
+        this.rexRC = (byte) ((prefixState >> 22) & 0x7);
+        this.rexRD = (byte) ((prefixState >> 25) & 0x7);
     }
 
     public void execute() {
@@ -98,6 +664,13 @@ public final class ProcessUnit implements Decoder.InstrStream, InstrVisitor {
         this.resetREX();
 
         this.quanta = 0;
+        this.quantaStart = 0;
+        this.halted = false;
+        this.fault = FAULT_NONE;
+        this.faultDetail = 0;
+        this.cycles = 0;
+        this.instructions = 0;
+        this.atBlockEntry = true;
     }
 
     private void resetREX() {
@@ -109,40 +682,105 @@ public final class ProcessUnit implements Decoder.InstrStream, InstrVisitor {
 
     public void setIP(int ip) {
         this.ip = ip;
+        this.atBlockEntry = true;
     }
 
-    public void pushDword(int val) {
-        final ByteBuffer buf = ByteBuffer.allocate(4);
-        buf.putInt(val).flip();
-        this.push(buf);
+    public int getIP() {
+        return this.ip;
     }
 
-    public void pushWord(int val) {
-        final ByteBuffer buf = ByteBuffer.allocate(2);
-        buf.putShort((short) val).flip();
-        this.push(buf);
+    public long readRegFp(int slot) {
+        return this.fpregs[slot];
     }
 
-    private void push(final ByteBuffer buf) {
-        this.regs[REG_SLOT_SP] -= buf.capacity();
-        memory.write(this.regs[REG_SLOT_SP], buf);
+    // Everything (memory aside) that decides what the processor does next.
+    // Two equal states with no memory writes in between means the processor
+    // is stuck in a loop.
+    public static final int STATE_SIZE = 15 + 2 * 32 + 5;
+
+    public int[] captureState(int[] dst) {
+        if (dst == null || dst.length < STATE_SIZE) {
+            dst = new int[STATE_SIZE];
+        }
+
+        System.arraycopy(this.regs, 0, dst, 0, 15);
+        for (int i = 0; i < 32; ++i) {
+            dst[15 + 2 * i] = (int) (this.fpregs[i] >>> 32);
+            dst[16 + 2 * i] = (int) this.fpregs[i];
+        }
+
+        int k = 15 + 2 * 32;
+        dst[k++] = this.ip;
+        dst[k++] = this.iexImm;
+        dst[k++] = (this.rexRA << 9) | (this.rexRB << 6) | (this.rexRC << 3) | this.rexRD;
+        dst[k++] = this.quanta;
+        dst[k++] = this.halted ? 1 : 0;
+        return dst;
     }
 
-    public int popDword() {
-        final ByteBuffer buf = ByteBuffer.allocate(4);
-        this.pop(buf);
-        return buf.flip().getInt();
+    // Snapshot support: the state from captureState plus the fault (a
+    // faulted processor is halted too, it must not come back as one that is
+    // just waiting for an interrupt) and the counters
+    public static final int SNAPSHOT_SIZE = 4 * STATE_SIZE + 4 + 4 + 8 + 8;
+
+    public void saveState(ByteBuffer dst) {
+        for (final int value : this.captureState(null)) {
+            dst.putInt(value);
+        }
+        dst.putInt(this.fault);
+        dst.putInt(this.faultDetail);
+        dst.putLong(this.getCycleCount());
+        dst.putLong(this.instructions);
     }
 
-    public short popWord() {
-        final ByteBuffer buf = ByteBuffer.allocate(2);
-        this.pop(buf);
-        return buf.flip().getShort();
+    public void loadState(ByteBuffer src) {
+        for (int i = 0; i < 15; ++i) {
+            this.regs[i] = src.getInt();
+        }
+        for (int i = 0; i < 32; ++i) {
+            final long hi = src.getInt();
+            final long lo = src.getInt();
+            this.fpregs[i] = (hi << 32) | (lo & 0xFFFFFFFFL);
+        }
+
+        this.ip = src.getInt();
+        this.iexImm = (short) src.getInt();
+        final int rex = src.getInt();
+        this.rexRA = (byte) ((rex >> 9) & 0x7);
+        this.rexRB = (byte) ((rex >> 6) & 0x7);
+        this.rexRC = (byte) ((rex >> 3) & 0x7);
+        this.rexRD = (byte) (rex & 0x7);
+        this.quanta = src.getInt();
+        this.quantaStart = this.quanta;
+        this.halted = src.getInt() != 0;
+        this.fault = src.getInt();
+        this.faultDetail = src.getInt();
+
+        this.cycles = src.getLong();
+        this.instructions = src.getLong();
+        this.atBlockEntry = true;
     }
 
-    private void pop(final ByteBuffer buf) {
-        memory.read(this.regs[REG_SLOT_SP], buf);
-        this.regs[REG_SLOT_SP] += buf.capacity();
+    public void pushDword(int val) {
+        this.regs[REG_SLOT_SP] -= 4;
+        memory.writeDword(this.regs[REG_SLOT_SP], val);
+    }
+
+    public void pushWord(int val) {
+        this.regs[REG_SLOT_SP] -= 2;
+        memory.writeWord(this.regs[REG_SLOT_SP], (short) val);
+    }
+
+    public int popDword() {
+        final int val = memory.readDword(this.regs[REG_SLOT_SP]);
+        this.regs[REG_SLOT_SP] += 4;
+        return val;
+    }
+
+    public short popWord() {
+        final short val = memory.readWord(this.regs[REG_SLOT_SP]);
+        this.regs[REG_SLOT_SP] += 2;
+        return val;
     }
 
     @Override
@@ -166,15 +804,14 @@ public final class ProcessUnit implements Decoder.InstrStream, InstrVisitor {
 
     @Override
     public short nextWord() {
-        final ByteBuffer buf = ByteBuffer.allocate(2);
-        memory.read(this.ip, buf);
+        final short word = memory.readWord(this.ip);
         this.ip += 2;
-        return buf.flip().getShort();
+        return word;
     }
 
     @Override
     public void illegalOp(int fullWord) {
-        throw new RuntimeException("Process Unit: Illegal opcode: " + fullWord);
+        this.raiseFault(FAULT_ILLEGAL_OP, fullWord);
     }
 
     private short loadImm3(int imm3) {
@@ -561,7 +1198,8 @@ public final class ProcessUnit implements Decoder.InstrStream, InstrVisitor {
                 break;
             }
             default:
-                throw new RuntimeException("Process Unit: Illegal float-point extension opcode: " + (imm & Opcode.MASK_FPEXT));
+                this.raiseFault(FAULT_ILLEGAL_FPEXT, imm & Opcode.MASK_FPEXT);
+                return;
         }
 
         this.resetREX();
@@ -767,28 +1405,20 @@ public final class ProcessUnit implements Decoder.InstrStream, InstrVisitor {
 
         if ((mask & 1) != 0) {
             // dword
-            final ByteBuffer buf = ByteBuffer.allocate(4);
             for (int index = 15; index >= 1; --index) {
                 if ((mask & (1 << index)) != 0) {
                     addr -= 4;
 
-                    buf.putInt(this.readRegDword(index));
-                    this.memory.write(addr, buf.flip());
-
-                    buf.flip();
+                    this.memory.writeDword(addr, this.readRegDword(index));
                 }
             }
         } else {
             // word
-            final ByteBuffer buf = ByteBuffer.allocate(2);
             for (int index = 15; index >= 1; --index) {
                 if ((mask & (1 << index)) != 0) {
                     addr -= 2;
 
-                    buf.putShort(this.readRegWord(index));
-                    this.memory.write(addr, buf.flip());
-
-                    buf.flip();
+                    this.memory.writeWord(addr, this.readRegWord(index));
                 }
             }
         }
@@ -804,26 +1434,18 @@ public final class ProcessUnit implements Decoder.InstrStream, InstrVisitor {
 
         if ((mask & 1) != 0) {
             // dword
-            final ByteBuffer buf = ByteBuffer.allocate(4);
             for (int index = 1; index < 16; ++index) {
                 if ((mask & (1 << index)) != 0) {
-                    this.memory.read(addr, buf);
-                    this.writeRegDword(index, buf.flip().getInt());
-
+                    this.writeRegDword(index, this.memory.readDword(addr));
                     addr += 4;
-                    buf.flip();
                 }
             }
         } else {
             // word
-            final ByteBuffer buf = ByteBuffer.allocate(2);
             for (int index = 1; index < 16; ++index) {
                 if ((mask & (1 << index)) != 0) {
-                    this.memory.read(addr, buf);
-                    this.writeRegWord(index, buf.flip().getShort());
-
+                    this.writeRegWord(index, this.memory.readWord(addr));
                     addr += 2;
-                    buf.flip();
                 }
             }
         }
@@ -857,10 +1479,7 @@ public final class ProcessUnit implements Decoder.InstrStream, InstrVisitor {
         final int rdst = ((this.rexRA & 0x1) << 3) | rA;
 
         final int address = imm + this.rexReadSigned(radj, this.rexRB);
-        final ByteBuffer buf = ByteBuffer.allocate(4);
-        this.memory.read(address, buf);
-
-        this.rexWrite(rdst, this.rexRA, buf.flip().getInt());
+        this.rexWrite(rdst, this.rexRA, this.memory.readDword(address));
         this.resetREX();
     }
 
@@ -871,10 +1490,7 @@ public final class ProcessUnit implements Decoder.InstrStream, InstrVisitor {
         final int rsrc = ((this.rexRA & 0x1) << 3) | rA;
 
         final int address = imm + this.rexReadSigned(radj, this.rexRB);
-        final ByteBuffer buf = ByteBuffer.allocate(4);
-        buf.putInt(this.rexReadSigned(rsrc, this.rexRA)).flip();
-
-        this.memory.write(address, buf);
+        this.memory.writeDword(address, this.rexReadSigned(rsrc, this.rexRA));
         this.resetREX();
     }
 
@@ -885,10 +1501,7 @@ public final class ProcessUnit implements Decoder.InstrStream, InstrVisitor {
         final int rdst = ((this.rexRA & 0x1) << 3) | rA;
 
         final int address = imm + this.rexReadSigned(radj, this.rexRB);
-        final ByteBuffer buf = ByteBuffer.allocate(2);
-        this.memory.read(address, buf);
-
-        this.rexWrite(rdst, this.rexRA, buf.flip().getShort());
+        this.rexWrite(rdst, this.rexRA, this.memory.readWord(address));
         this.resetREX();
     }
 
@@ -899,10 +1512,7 @@ public final class ProcessUnit implements Decoder.InstrStream, InstrVisitor {
         final int rsrc = ((this.rexRA & 0x1) << 3) | rA;
 
         final int address = imm + this.rexReadSigned(radj, this.rexRB);
-        final ByteBuffer buf = ByteBuffer.allocate(2);
-        buf.putShort((short) this.rexReadSigned(rsrc, this.rexRA)).flip();
-
-        this.memory.write(address, buf);
+        this.memory.writeWord(address, (short) this.rexReadSigned(rsrc, this.rexRA));
         this.resetREX();
     }
 
@@ -938,16 +1548,12 @@ public final class ProcessUnit implements Decoder.InstrStream, InstrVisitor {
         final int rbase = ((this.rexRA & 0x1) << 3) | rA;
 
         final int base = this.rexReadUnsigned(rbase, this.rexRA);
-        final ByteBuffer buf = ByteBuffer.allocate(4);
 
         int addr = base;
         for (int index = 1; index < 16; ++index) {
             if ((mask & (1 << index)) != 0) {
-                this.memory.read(addr, buf);
-                this.writeRegDword(index, buf.flip().getInt());
-
+                this.writeRegDword(index, this.memory.readDword(addr));
                 addr += 4;
-                buf.flip();
             }
         }
 
@@ -963,17 +1569,13 @@ public final class ProcessUnit implements Decoder.InstrStream, InstrVisitor {
         final int rbase = ((this.rexRA & 0x1) << 3) | rA;
 
         final int base = this.rexReadUnsigned(rbase, this.rexRA);
-        final ByteBuffer buf = ByteBuffer.allocate(4);
 
         int addr = base;
         for (int index = 15; index >= 1; --index) {
             if ((mask & (1 << index)) != 0) {
                 addr -= 4;
 
-                buf.putInt(this.readRegDword(index));
-                this.memory.write(addr, buf.flip());
-
-                buf.flip();
+                this.memory.writeDword(addr, this.readRegDword(index));
             }
         }
 
@@ -989,16 +1591,12 @@ public final class ProcessUnit implements Decoder.InstrStream, InstrVisitor {
         final int rbase = ((this.rexRA & 0x1) << 3) | rA;
 
         final int base = this.rexReadUnsigned(rbase, this.rexRA);
-        final ByteBuffer buf = ByteBuffer.allocate(2);
 
         int addr = base;
         for (int index = 1; index < 16; ++index) {
             if ((mask & (1 << index)) != 0) {
-                this.memory.read(addr, buf);
-                this.writeRegWord(index, buf.flip().getShort());
-
+                this.writeRegWord(index, this.memory.readWord(addr));
                 addr += 2;
-                buf.flip();
             }
         }
 
@@ -1014,17 +1612,13 @@ public final class ProcessUnit implements Decoder.InstrStream, InstrVisitor {
         final int rbase = ((this.rexRA & 0x1) << 3) | rA;
 
         final int base = this.rexReadUnsigned(rbase, this.rexRA);
-        final ByteBuffer buf = ByteBuffer.allocate(2);
 
         int addr = base;
         for (int index = 15; index >= 1; --index) {
             if ((mask & (1 << index)) != 0) {
                 addr -= 2;
 
-                buf.putShort(this.readRegWord(index));
-                this.memory.write(addr, buf.flip());
-
-                buf.flip();
+                this.memory.writeWord(addr, this.readRegWord(index));
             }
         }
 
@@ -1410,6 +2004,50 @@ public final class ProcessUnit implements Decoder.InstrStream, InstrVisitor {
         this.resetREX();
     }
 
+    @Override
+    public void halt() {
+        // Prefixes are ignored (see Opcode.java), they must not carry over
+        // to whatever runs after the wake up
+        this.iexImm = 0;
+        this.resetREX();
+
+        // Already woken up (or it never could be), so just carry on
+        if (this.interrupts != null && !this.interrupts.isPending()) {
+            this.halted = true;
+        }
+    }
+
+    @Override
+    public void cpuid(int rA) {
+        final int rdst = ((this.rexRA & 0x1) << 3) | rA;
+        this.rexWrite(rdst, this.rexRA, this.coreId);
+        this.resetREX();
+    }
+
+    @Override
+    public void xadd(int rB, int rA) {
+        final int raddr = ((this.rexRB & 0x1) << 3) | rB;
+        final int rval = ((this.rexRA & 0x1) << 3) | rA;
+
+        final int address = this.rexReadSigned(raddr, this.rexRB);
+        final int old = this.memory.fetchAddDword(address, this.rexReadSigned(rval, this.rexRA));
+        this.rexWrite(rval, this.rexRA, old);
+        this.resetREX();
+    }
+
+    @Override
+    public void cas(int rB, int rA) {
+        final int raddr = ((this.rexRB & 0x1) << 3) | rB;
+        final int rval = ((this.rexRA & 0x1) << 3) | rA;
+
+        // The expected value is always in %R1 (same width as the other one)
+        final int address = this.rexReadSigned(raddr, this.rexRB);
+        final int expected = this.rexReadSigned(1, this.rexRA);
+        final int old = this.memory.compareAndSwapDword(address, expected, this.rexReadSigned(rval, this.rexRA));
+        this.rexWrite(rval, this.rexRA, old);
+        this.resetREX();
+    }
+
     @Override
     public void iex(int imm12) {
         // Note: we save all 12 bits, but not all 12 bits are used.
@@ -1521,7 +2159,12 @@ public final class ProcessUnit implements Decoder.InstrStream, InstrVisitor {
         final long lhs = this.rexReadSigned(rlhs, this.rexRD);
         final long rhs = this.rexReadSigned(rrhs, this.rexRC);
 
-        // let the JVM handle crash on division by zero...
+        if (rhs == 0) {
+            // Neither destination is touched
+            this.raiseFault(FAULT_DIVIDE_BY_ZERO, 0);
+            return;
+        }
+
         final long quo = lhs / rhs;
         final long rem = lhs % rhs;
 
@@ -1612,7 +2255,12 @@ public final class ProcessUnit implements Decoder.InstrStream, InstrVisitor {
         final long lhs = Integer.toUnsignedLong(this.rexReadUnsigned(rlhs, this.rexRD));
         final long rhs = Integer.toUnsignedLong(this.rexReadUnsigned(rrhs, this.rexRC));
 
-        // let the JVM handle crash on division by zero...
+        if (rhs == 0) {
+            // Neither destination is touched
+            this.raiseFault(FAULT_DIVIDE_BY_ZERO, 0);
+            return;
+        }
+
         final long quo = lhs / rhs;
         final long rem = lhs % rhs;
 
@@ -1636,413 +2284,3 @@ public final class ProcessUnit implements Decoder.InstrStream, InstrVisitor {
         this.resetREX();
     }
 }
-
-final class InstrTiming implements InstrVisitor {
-
-    private int timingBank;
-
-    public int getTiming() {
-        return this.timingBank;
-    }
-
-    @Override
-    public void illegalOp(int fullWord) {
-        // Operation is illegal anyway, timing is irrelevant. We give it 0
-        // meaning if it did something, it took no time!
-        this.timingBank = 0;
-    }
-
-    @Override
-    public void movI(int imm6, int rdst) {
-        this.timingBank = 1;
-    }
-
-    @Override
-    public void movLO(int imm6, int rdst) {
-        this.timingBank = 1;
-    }
-
-    @Override
-    public void movHI(int imm6, int rdst) {
-        this.timingBank = 1;
-    }
-
-    @Override
-    public void addR(int rlhs, int rrhs, int rdst) {
-        this.timingBank = 1;
-    }
-
-    @Override
-    public void subR(int rlhs, int rrhs, int rdst) {
-        this.timingBank = 1;
-    }
-
-    @Override
-    public void andR(int rlhs, int rrhs, int rdst) {
-        this.timingBank = 1;
-    }
-
-    @Override
-    public void orR(int rlhs, int rrhs, int rdst) {
-        this.timingBank = 1;
-    }
-
-    @Override
-    public void xorR(int rlhs, int rrhs, int rdst) {
-        this.timingBank = 1;
-    }
-
-    @Override
-    public void andnR(int rlhs, int rrhs, int rdst) {
-        this.timingBank = 1;
-    }
-
-    @Override
-    public void ornR(int rlhs, int rrhs, int rdst) {
-        this.timingBank = 1;
-    }
-
-    @Override
-    public void fpext(int imm, int rsrc, int rdst) {
-        // IEEE floats are expensive yo!
-        this.timingBank = 6;
-    }
-
-    @Override
-    public void addI(int imm6, int rdst) {
-        this.timingBank = 1;
-    }
-
-    @Override
-    public void subI(int imm6, int rdst) {
-        this.timingBank = 1;
-    }
-
-    @Override
-    public void rsubI(int imm6, int rdst) {
-        this.timingBank = 1;
-    }
-
-    @Override
-    public void jabsZ(int imm3, int radj, int rflag) {
-        // Cost is like super high because it needs to fetch the value, check
-        // the condition, then branch!
-        this.timingBank = 6;
-    }
-
-    @Override
-    public void jabsNZ(int imm3, int radj, int rflag) {
-        // Cost is like super high because it needs to fetch the value, check
-        // the condition, then branch!
-        this.timingBank = 6;
-    }
-
-    @Override
-    public void jabsGE(int imm3, int radj, int rflag) {
-        // Cost is like super high because it needs to fetch the value, check
-        // the condition, then branch!
-        this.timingBank = 6;
-    }
-
-    @Override
-    public void jabsGT(int imm3, int radj, int rflag) {
-        // Cost is like super high because it needs to fetch the value, check
-        // the condition, then branch!
-        this.timingBank = 6;
-    }
-
-    @Override
-    public void jabsLE(int imm3, int radj, int rflag) {
-        // Cost is like super high because it needs to fetch the value, check
-        // the condition, then branch!
-        this.timingBank = 6;
-    }
-
-    @Override
-    public void jabsLT(int imm3, int radj, int rflag) {
-        // Cost is like super high because it needs to fetch the value, check
-        // the condition, then branch!
-        this.timingBank = 6;
-    }
-
-    @Override
-    public void jrelZ(int imm6, int rflag) {
-        // Cost is like super high because it needs to fetch the value, check
-        // the condition, then branch!
-        this.timingBank = 6;
-    }
-
-    @Override
-    public void jrelNZ(int imm6, int rflag) {
-        // Cost is like super high because it needs to fetch the value, check
-        // the condition, then branch!
-        this.timingBank = 6;
-    }
-
-    @Override
-    public void jrelGE(int imm6, int rflag) {
-        // Cost is like super high because it needs to fetch the value, check
-        // the condition, then branch!
-        this.timingBank = 6;
-    }
-
-    @Override
-    public void jrelGT(int imm6, int rflag) {
-        // Cost is like super high because it needs to fetch the value, check
-        // the condition, then branch!
-        this.timingBank = 6;
-    }
-
-    @Override
-    public void jrelLE(int imm6, int rflag) {
-        // Cost is like super high because it needs to fetch the value, check
-        // the condition, then branch!
-        this.timingBank = 6;
-    }
-
-    @Override
-    public void jrelLT(int imm6, int rflag) {
-        // Cost is like super high because it needs to fetch the value, check
-        // the condition, then branch!
-        this.timingBank = 6;
-    }
-
-    @Override
-    public void push(int imm9) {
-        // Treat like an load-store multiple
-        this.timingBank = 6;
-    }
-
-    @Override
-    public void pop(int imm9) {
-        // Treat like an load-store multiple
-        this.timingBank = 6;
-    }
-
-    @Override
-    public void ret(int imm9) {
-        // Most of the cost comes from the implicit pop
-        this.timingBank = 5;
-    }
-
-    @Override
-    public void enter(int imm9) {
-        this.timingBank = 5;
-    }
-
-    @Override
-    public void leave() {
-        this.timingBank = 5;
-    }
-
-    @Override
-    public void ldD(int imm3, int radj, int rdst) {
-        this.timingBank = 4;
-    }
-
-    @Override
-    public void stD(int imm3, int radj, int rsrc) {
-        this.timingBank = 4;
-    }
-
-    @Override
-    public void ldW(int imm3, int radj, int rdst) {
-        this.timingBank = 4;
-    }
-
-    @Override
-    public void stW(int imm3, int radj, int rsrc) {
-        this.timingBank = 4;
-    }
-
-    @Override
-    public void ldB(int imm3, int radj, int rdst) {
-        this.timingBank = 4;
-    }
-
-    @Override
-    public void stB(int imm3, int radj, int rsrc) {
-        this.timingBank = 4;
-    }
-
-    @Override
-    public void ldmD(int imm3, int rbase) {
-        this.timingBank = 6;
-    }
-
-    @Override
-    public void stmD(int imm3, int rbase) {
-        this.timingBank = 6;
-    }
-
-    @Override
-    public void ldmW(int imm3, int rbase) {
-        this.timingBank = 6;
-    }
-
-    @Override
-    public void stmW(int imm3, int rbase) {
-        this.timingBank = 6;
-    }
-
-    @Override
-    public void ldmLB(int imm3, int rbase) {
-        this.timingBank = 6;
-    }
-
-    @Override
-    public void stmLB(int imm3, int rbase) {
-        this.timingBank = 6;
-    }
-
-    @Override
-    public void ldmHB(int imm3, int rbase) {
-        this.timingBank = 6;
-    }
-
-    @Override
-    public void stmHB(int imm3, int rbase) {
-        this.timingBank = 6;
-    }
-
-    @Override
-    public void shlR(int rlhs, int rrhs, int rdst) {
-        this.timingBank = 1;
-    }
-
-    @Override
-    public void shrR(int rlhs, int rrhs, int rdst) {
-        this.timingBank = 1;
-    }
-
-    @Override
-    public void sarR(int rlhs, int rrhs, int rdst) {
-        this.timingBank = 1;
-    }
-
-    @Override
-    public void shlI(int imm6, int rdst) {
-        this.timingBank = 1;
-    }
-
-    @Override
-    public void shrI(int imm6, int rdst) {
-        this.timingBank = 1;
-    }
-
-    @Override
-    public void sarI(int imm6, int rdst) {
-        this.timingBank = 1;
-    }
-
-    @Override
-    public void cmovI(int imm3, int rflag, int rdst) {
-        // Faster than using a branch
-        this.timingBank = 1;
-    }
-
-    @Override
-    public void cmovR(int rsrc, int rflag, int rdst) {
-        // Faster than using a branch
-        this.timingBank = 1;
-    }
-
-    @Override
-    public void paddW(int rlhs, int rrhs, int rdst) {
-        this.timingBank = 1;
-    }
-
-    @Override
-    public void psubW(int rlhs, int rrhs, int rdst) {
-        this.timingBank = 1;
-    }
-
-    @Override
-    public void paddB(int rlhs, int rrhs, int rdst) {
-        this.timingBank = 1;
-    }
-
-    @Override
-    public void psubB(int rlhs, int rrhs, int rdst) {
-        this.timingBank = 1;
-    }
-
-    @Override
-    public void callZ(int imm3, int radj, int rflag) {
-        // Cost is like super high because it needs to fetch the value, check
-        // the condition, then branch!
-        this.timingBank = 6;
-    }
-
-    @Override
-    public void callNZ(int imm3, int radj, int rflag) {
-        // Cost is like super high because it needs to fetch the value, check
-        // the condition, then branch!
-        this.timingBank = 6;
-    }
-
-    @Override
-    public void callGE(int imm3, int radj, int rflag) {
-        // Cost is like super high because it needs to fetch the value, check
-        // the condition, then branch!
-        this.timingBank = 6;
-    }
-
-    @Override
-    public void callGT(int imm3, int radj, int rflag) {
-        // Cost is like super high because it needs to fetch the value, check
-        // the condition, then branch!
-        this.timingBank = 6;
-    }
-
-    @Override
-    public void callLE(int imm3, int radj, int rflag) {
-        // Cost is like super high because it needs to fetch the value, check
-        // the condition, then branch!
-        this.timingBank = 6;
-    }
-
-    @Override
-    public void callLT(int imm3, int radj, int rflag) {
-        // Cost is like super high because it needs to fetch the value, check
-        // the condition, then branch!
-        this.timingBank = 6;
-    }
-
-    @Override
-    public void iex(int imm12) {
-        // Instruction prefixes: assume they take no time to decode.
-        this.timingBank = 0;
-    }
-
-    @Override
-    public void rex(int rD, int rC, int rB, int rA) {
-        // Instruction prefixes: assume they take no time to decode.
-        this.timingBank = 0;
-    }
-
-    @Override
-    public void imul(int rlhs, int rrhs, int rdlo, int rdhi) {
-        this.timingBank = 2;
-    }
-
-    @Override
-    public void idiv(int rlhs, int rrhs, int rdrem, int rdquo) {
-        this.timingBank = 3;
-    }
-
-    @Override
-    public void mul(int rlhs, int rrhs, int rdlo, int rdhi) {
-        this.timingBank = 2;
-    }
-
-    @Override
-    public void div(int rlhs, int rrhs, int rdrem, int rdquo) {
-        this.timingBank = 3;
-    }
-
-    @Override
-    public void imac(int rlhs, int rrhs, int racc, int rdst) {
-        this.timingBank = 2;
-    }
-}
\ No newline at end of file
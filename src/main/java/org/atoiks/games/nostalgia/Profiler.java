@@ -0,0 +1,200 @@
+package org.atoiks.games.nostalgia;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+// Counts how often each instruction (keyed by its address) runs and how many
+// cycles it takes (see ProcessUnit.enableProfiler). The cycles are also
+// attributed to the call stack they ran under, which is what the collapsed
+// stack output (the one flamegraph.pl and friends read) is made from.
+public final class Profiler {
+
+    // Same split as the InstrCache: 12 + 12 + 8 bits
+    private static final int PAGE_BITS = 8;
+    private static final int TABLE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int TABLE_SIZE = 1 << TABLE_BITS;
+
+    // Calls nested deeper than this are charged to the deepest frame (so
+    // code that never returns does not grow the tree forever)
+    private static final int MAX_DEPTH = 256;
+
+    // Each page holds (execution count, cycles) pairs
+    private final long[][][] directory = new long[TABLE_SIZE][][];
+
+    // The call tree. Node 0 is whatever was running when profiling started,
+    // every other node is a function (keyed by the address it was called
+    // at) under its parent.
+    private int[] nodeAddress = new int[64];
+    private int[] nodeParent = new int[64];
+    private int[] nodeChild = new int[64];
+    private int[] nodeSibling = new int[64];
+    private long[] nodeCycles = new long[64];
+    private int nodeCount;
+
+    private int current;
+    private int depth;
+    private int overflow;
+
+    private long totalCount;
+    private long totalCycles;
+
+    Profiler(int startAddress) {
+        this.nodeAddress[0] = startAddress;
+        this.nodeParent[0] = -1;
+        this.nodeChild[0] = -1;
+        this.nodeSibling[0] = -1;
+        this.nodeCount = 1;
+    }
+
+    void record(final int address, final int cycles) {
+        final int dirIdx = address >>> (PAGE_BITS + TABLE_BITS);
+        long[][] table = this.directory[dirIdx];
+        if (table == null) {
+            table = this.directory[dirIdx] = new long[TABLE_SIZE][];
+        }
+
+        final int tblIdx = (address >>> PAGE_BITS) & (TABLE_SIZE - 1);
+        long[] page = table[tblIdx];
+        if (page == null) {
+            page = table[tblIdx] = new long[2 * PAGE_SIZE];
+        }
+
+        final int slot = 2 * (address & (PAGE_SIZE - 1));
+        ++page[slot];
+        page[slot + 1] += cycles;
+
+        this.nodeCycles[this.current] += cycles;
+        ++this.totalCount;
+        this.totalCycles += cycles;
+    }
+
+    void enter(final int target) {
+        if (this.depth >= MAX_DEPTH) {
+            ++this.overflow;
+            return;
+        }
+
+        ++this.depth;
+
+        int node = this.nodeChild[this.current];
+        while (node >= 0 && this.nodeAddress[node] != target) {
+            node = this.nodeSibling[node];
+        }
+
+        if (node < 0) {
+            node = this.addNode(target);
+        }
+        this.current = node;
+    }
+
+    void leave() {
+        if (this.overflow > 0) {
+            --this.overflow;
+        } else if (this.depth > 0) {
+            // (Returning past where profiling started is just ignored)
+            --this.depth;
+            this.current = this.nodeParent[this.current];
+        }
+    }
+
+    private int addNode(final int target) {
+        final int node = this.nodeCount++;
+        if (node == this.nodeAddress.length) {
+            final int size = 2 * node;
+            this.nodeAddress = Arrays.copyOf(this.nodeAddress, size);
+            this.nodeParent = Arrays.copyOf(this.nodeParent, size);
+            this.nodeChild = Arrays.copyOf(this.nodeChild, size);
+            this.nodeSibling = Arrays.copyOf(this.nodeSibling, size);
+            this.nodeCycles = Arrays.copyOf(this.nodeCycles, size);
+        }
+
+        this.nodeAddress[node] = target;
+        this.nodeParent[node] = this.current;
+        this.nodeChild[node] = -1;
+        this.nodeSibling[node] = this.nodeChild[this.current];
+        this.nodeChild[this.current] = node;
+        return node;
+    }
+
+    public long getTotalCycles() {
+        return this.totalCycles;
+    }
+
+    // Prints (at most limit) addresses, the most expensive one first
+    public void writeHotSpots(PrintStream out, int limit) {
+        int entries = 0;
+        long[] addresses = new long[PAGE_SIZE];
+        for (int i = 0; i < TABLE_SIZE; ++i) {
+            final long[][] table = this.directory[i];
+            if (table == null) {
+                continue;
+            }
+
+            for (int j = 0; j < TABLE_SIZE; ++j) {
+                final long[] page = table[j];
+                if (page == null) {
+                    continue;
+                }
+
+                for (int k = 0; k < PAGE_SIZE; ++k) {
+                    if (page[2 * k] == 0) {
+                        continue;
+                    }
+
+                    if (entries == addresses.length) {
+                        addresses = Arrays.copyOf(addresses, 2 * entries);
+                    }
+                    addresses[entries++] = ((long) i << (PAGE_BITS + TABLE_BITS)) | (j << PAGE_BITS) | k;
+                }
+            }
+        }
+
+        final Integer[] order = new Integer[entries];
+        final long[] cycles = new long[entries];
+        final long[] counts = new long[entries];
+        for (int i = 0; i < entries; ++i) {
+            final int address = (int) addresses[i];
+            final long[] page = this.directory[address >>> (PAGE_BITS + TABLE_BITS)][(address >>> PAGE_BITS) & (TABLE_SIZE - 1)];
+            final int slot = 2 * (address & (PAGE_SIZE - 1));
+
+            order[i] = i;
+            counts[i] = page[slot];
+            cycles[i] = page[slot + 1];
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(cycles[b], cycles[a]));
+
+        out.println("# instructions=" + this.totalCount + " cycles=" + this.totalCycles);
+        out.println("# address      executions          cycles   share");
+        for (int i = 0; i < entries && i < limit; ++i) {
+            final int k = order[i];
+            out.println(String.format("0x%08x  %12d  %14d  %5.2f%%",
+                    addresses[k], counts[k], cycles[k],
+                    this.totalCycles == 0 ? 0.0 : 100.0 * cycles[k] / this.totalCycles));
+        }
+    }
+
+    // One line per call stack: the frames (outermost first) separated by
+    // semicolons, then the cycles spent in the innermost one.
+    public void writeCollapsed(PrintStream out) {
+        this.writeCollapsed(out, new StringBuilder(), 0);
+    }
+
+    private void writeCollapsed(PrintStream out, StringBuilder path, int node) {
+        final int mark = path.length();
+        if (mark > 0) {
+            path.append(';');
+        }
+        path.append(String.format("0x%08x", this.nodeAddress[node]));
+
+        if (this.nodeCycles[node] > 0) {
+            out.println(path + " " + this.nodeCycles[node]);
+        }
+
+        for (int child = this.nodeChild[node]; child >= 0; child = this.nodeSibling[child]) {
+            this.writeCollapsed(out, path, child);
+        }
+
+        path.setLength(mark);
+    }
+}
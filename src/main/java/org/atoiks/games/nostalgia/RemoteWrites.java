@@ -0,0 +1,87 @@
+package org.atoiks.games.nostalgia;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Writes that another core made to memory this core has decoded code from
+// (see ProcessUnit.setOwner). The caches of a core are only ever touched by
+// its own thread, so the other threads leave the ranges here and the owner
+// drops the stale code before its next quanta.
+//
+// Most writes are to plain data, so the memory is split into regions and
+// only writes to regions the owner has decoded code from are kept.
+final class RemoteWrites {
+
+    private static final int REGION_BITS = 16;
+
+    // After this many, the owner just drops everything
+    private static final int MAX_RANGES = 64;
+
+    // One bit per region. Only the owner sets bits (they are never cleared),
+    // everyone else reads them.
+    private final AtomicIntegerArray regions = new AtomicIntegerArray(1 << (32 - REGION_BITS - 5));
+
+    private final int[] ranges = new int[2 * MAX_RANGES];
+    private int count;
+    private boolean overflow;
+    private volatile boolean pending;
+
+    // Called by the owner before it reads code from the address
+    public void markCode(final int address) {
+        final int region = address >>> REGION_BITS;
+        final int bit = 1 << (region & 31);
+        final int bits = this.regions.get(region >>> 5);
+        if ((bits & bit) == 0) {
+            this.regions.set(region >>> 5, bits | bit);
+        }
+    }
+
+    private boolean touchesCode(final int address, final int length) {
+        final int first = address >>> REGION_BITS;
+        final int last = (address + length - 1) >>> REGION_BITS;
+        for (int region = first; ; region = (region + 1) & ((1 << (32 - REGION_BITS)) - 1)) {
+            if ((this.regions.get(region >>> 5) & (1 << (region & 31))) != 0) {
+                return true;
+            }
+            if (region == last) {
+                return false;
+            }
+        }
+    }
+
+    public void add(final int address, final int length) {
+        if (length <= 0 || !this.touchesCode(address, length)) {
+            return;
+        }
+
+        synchronized (this) {
+            if (this.count == MAX_RANGES) {
+                this.overflow = true;
+            } else {
+                this.ranges[2 * this.count] = address;
+                this.ranges[2 * this.count + 1] = length;
+                ++this.count;
+            }
+            this.pending = true;
+        }
+    }
+
+    public boolean isPending() {
+        return this.pending;
+    }
+
+    // Hands the ranges to the listener. Returns false if there were too
+    // many (and the listener was not called), everything should be dropped.
+    public synchronized boolean drain(MemoryUnit.WriteListener listener) {
+        final boolean kept = !this.overflow;
+        if (kept) {
+            for (int i = 0; i < this.count; ++i) {
+                listener.memoryWritten(this.ranges[2 * i], this.ranges[2 * i + 1]);
+            }
+        }
+
+        this.count = 0;
+        this.overflow = false;
+        this.pending = false;
+        return kept;
+    }
+}
@@ -9,9 +9,11 @@ import java.awt.event.KeyAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.event.ComponentAdapter;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import javax.swing.*;
 import javax.imageio.ImageIO;
@@ -27,6 +29,9 @@ public final class Screen extends JFrame {
     private static final int CELL_WIDTH     = UNSCL_WIDTH / VIRT_WIDTH;
     private static final int CELL_HEIGHT    = UNSCL_HEIGHT / (VIRT_HEIGHT + 1);
 
+    // How often changed cells are drawn (and shown), in milliseconds
+    private static final int FRAME_DELAY    = 16;
+
     private static final Color[] COLOR_MAP = {
         Color.BLACK,
         Color.RED,
@@ -38,14 +43,28 @@ public final class Screen extends JFrame {
         Color.WHITE
     };
 
+    private static final int[] COLOR_RGB = new int[COLOR_MAP.length];
+
     private static final int VGA_FONT_COLS  = 16;
     private static final int VGA_FONT_ROWS  = 17;
-    private static final BufferedImage[] VGA_FONT = new BufferedImage[256];
+
+    // The font already scaled down to a cell, one int per row of a glyph
+    // (bit x is set if pixel x is in the foreground). The second half has
+    // the mirrored glyphs.
+    private static final int[] FONT_BITS = new int[2 * 256 * CELL_HEIGHT];
 
     static {
         if (COLOR_MAP.length != 8) {
             throw new AssertionError("Illegal color map size: " + COLOR_MAP.length);
         }
+        if (CELL_WIDTH > 32) {
+            throw new AssertionError("Glyph rows do not fit in an int: " + CELL_WIDTH);
+        }
+
+        for (int i = 0; i < COLOR_MAP.length; ++i) {
+            // RGB is only 24 bits: need explicit mask.
+            COLOR_RGB[i] = COLOR_MAP[i].getRGB() & 0xFFFFFF;
+        }
 
         try {
             // Load the awesome VGA ROM font and partition it into each character
@@ -58,7 +77,9 @@ public final class Screen extends JFrame {
                 for (int j = 0; j < VGA_FONT_COLS; ++j) {
                     final int x = j * w;
                     final int y = i * h;
-                    VGA_FONT[i * VGA_FONT_COLS + j] = bitmap.getSubimage(x, y, w, h);
+                    final BufferedImage glyph = bitmap.getSubimage(x, y, w, h);
+                    packGlyph(i * VGA_FONT_COLS + j, glyph, false);
+                    packGlyph(256 + i * VGA_FONT_COLS + j, glyph, true);
                 }
             }
         } catch (IOException ex) {
@@ -66,6 +87,31 @@ public final class Screen extends JFrame {
         }
     }
 
+    private static void packGlyph(int index, BufferedImage original, boolean mirror) {
+        // Scale it the same way drawing it into the cell would (mirroring
+        // it before scaling so it looks the same as it always did)
+        final int w = original.getWidth();
+        final BufferedImage cell = new BufferedImage(CELL_WIDTH, CELL_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        final Graphics g = cell.createGraphics();
+        if (mirror) {
+            g.drawImage(original, 0, 0, CELL_WIDTH, CELL_HEIGHT, w, 0, 0, original.getHeight(), null);
+        } else {
+            g.drawImage(original, 0, 0, CELL_WIDTH, CELL_HEIGHT, null);
+        }
+        g.dispose();
+
+        // Foreground originally is white, Background originally is black
+        for (int ky = 0; ky < CELL_HEIGHT; ++ky) {
+            int bits = 0;
+            for (int kx = 0; kx < CELL_WIDTH; ++kx) {
+                if ((cell.getRGB(kx, ky) & 0xFFFFFF) != 0) {
+                    bits |= 1 << kx;
+                }
+            }
+            FONT_BITS[index * CELL_HEIGHT + ky] = bits;
+        }
+    }
+
     private float scaleFactor;
     private float transX;
     private float transY;
@@ -81,6 +127,19 @@ public final class Screen extends JFrame {
     // 15       => underline
     private final short[] memory = new short[VIRT_WIDTH * VIRT_HEIGHT];
 
+    // One bit per cell that changed since it was last drawn. Writes (from
+    // the emulator) only set bits, the frame timer (on the EDT) draws and
+    // clears them, so the guest can write as much as it wants without
+    // flooding the event queue.
+    private final AtomicLongArray dirty = new AtomicLongArray((VIRT_WIDTH * VIRT_HEIGHT + 63) / 64);
+
+    // The cells as they were last drawn (unscaled). The cells are written
+    // straight into the pixels, and the whole thing is drawn once per frame.
+    private final BufferedImage backBuffer = new BufferedImage(UNSCL_WIDTH, UNSCL_HEIGHT, BufferedImage.TYPE_INT_RGB);
+    private final int[] pixels = ((DataBufferInt) this.backBuffer.getRaster().getDataBuffer()).getData();
+
+    private final Timer frameTimer = new Timer(FRAME_DELAY, e -> this.drawDirtyCells());
+
     private final JPanel canvas = new JPanel() {
 
         @Override
@@ -90,67 +149,55 @@ public final class Screen extends JFrame {
             g.translate(transX, transY);
             g.scale(scaleFactor, scaleFactor);
 
-            g.setColor(Color.BLACK);
-            g.fillRect(0, 0, UNSCL_WIDTH, UNSCL_HEIGHT);
+            g.drawImage(Screen.this.backBuffer, 0, 0, null);
+        }
+    };
 
-            for (int i = 0; i < VIRT_HEIGHT; ++i) {
-                for (int j = 0; j < VIRT_WIDTH; ++j) {
-                    this.renderCell(g, i, j);
-                }
+    // Draws every cell into pixels (UNSCL_WIDTH by UNSCL_HEIGHT, one int
+    // per pixel like TYPE_INT_RGB)
+    static void renderCells(final int[] pixels, final short[] memory) {
+        for (int i = 0; i < VIRT_HEIGHT; ++i) {
+            for (int j = 0; j < VIRT_WIDTH; ++j) {
+                renderCell(pixels, memory, i, j);
             }
         }
+    }
 
-        private void renderCell(Graphics g, final int row, final int col) {
-            final int cell = Short.toUnsignedInt(Screen.this.memory[row * VIRT_WIDTH + col]);
-
-            // Calculate it's on-screen coordinate
-            final int x = col * CELL_WIDTH;
-            final int y = row * CELL_HEIGHT;
-
-            // Fetch the glyph
-            final BufferedImage original = VGA_FONT[cell & 0xFF];
-
-            // Query the glyph styles
-
-            final int bg = Screen.COLOR_MAP[(cell >> 11) & 0x7].getRGB() & 0xFFFFFF;
-            final int fg = Screen.COLOR_MAP[(cell >>  8) & 0x7].getRGB() & 0xFFFFFF;
-            final boolean inv = ((cell >> 14) & 1) != 0;
-            final boolean udl = ((cell >> 15) & 1) != 0;
-
-            final BufferedImage glyph;
-            if (!inv && bg == 0 && fg == 0xFFFFFF) {
-                // the original glyph is already non-inverted, fg=white, bg=black
-                glyph = original;
-            } else {
-                // Apply transformations to it
-                final int w = original.getWidth();
-                final int h = original.getHeight();
-                glyph = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
-
-                // Foreground originally is white, Background originally is black
-                for (int ky = 0; ky < h; ++ky) {
-                    for (int kx = 0; kx < w; ++kx) {
-                        // RGB is only 24 bits: need explicit mask.
-                        final int old = original.getRGB(kx, ky) & 0xFFFFFF;
-                        glyph.setRGB(inv ? w - kx - 1 : kx, ky, old == 0 ? bg : fg);
-                    }
-                }
-            }
+    private static void renderCell(final int[] pixels, final short[] memory, final int row, final int col) {
+        final int cell = Short.toUnsignedInt(memory[row * VIRT_WIDTH + col]);
+
+        // Query the glyph styles
 
-            g.drawImage(glyph, x, y, CELL_WIDTH, CELL_HEIGHT, null);
+        final int bg = COLOR_RGB[(cell >> 11) & 0x7];
+        final int fg = COLOR_RGB[(cell >>  8) & 0x7];
+        final boolean inv = ((cell >> 14) & 1) != 0;
+        final boolean udl = ((cell >> 15) & 1) != 0;
 
-            if (udl) {
-                g.setColor(Screen.COLOR_MAP[(cell >>  8) & 0x7]);
+        // Calculate it's on-screen coordinate
+        int offset = row * CELL_HEIGHT * UNSCL_WIDTH + col * CELL_WIDTH;
+        int glyph = ((inv ? 256 : 0) + (cell & 0xFF)) * CELL_HEIGHT;
 
-                final int baseline = y + CELL_HEIGHT - 2;
-                g.drawLine(x, baseline, x + CELL_WIDTH, baseline);
+        for (int ky = 0; ky < CELL_HEIGHT; ++ky) {
+            final int bits = FONT_BITS[glyph++];
+            for (int kx = 0; kx < CELL_WIDTH; ++kx) {
+                pixels[offset + kx] = (bits & (1 << kx)) != 0 ? fg : bg;
             }
+            offset += UNSCL_WIDTH;
         }
-    };
+
+        if (udl) {
+            final int baseline = offset - 2 * UNSCL_WIDTH;
+            Arrays.fill(pixels, baseline, baseline + CELL_WIDTH, fg);
+        }
+    }
 
     private final GraphicsMemory memGraphics = new GraphicsMemory();
     private final KeyboardMemory memKeyboard = new KeyboardMemory();
 
+    // Key events raise IRQ_KEYBOARD on all of them (every core gets to see
+    // the keyboard)
+    private volatile InterruptController[] interrupts = new InterruptController[0];
+
     public Screen() {
         super("Atoiks Games - Nostalgia...");
         super.setSize(UNSCL_WIDTH, UNSCL_HEIGHT);
@@ -181,18 +228,74 @@ public final class Screen extends JFrame {
         super.addKeyListener(this.memKeyboard);
         // we want all the keys (there's nothing to traverse anyway)
         super.setFocusTraversalKeysEnabled(false);
+
+        this.flush();
+        this.frameTimer.start();
+    }
+
+    @Override
+    public void dispose() {
+        this.frameTimer.stop();
+        super.dispose();
+    }
+
+    private void drawDirtyCells() {
+        boolean changed = false;
+        for (int i = 0; i < this.dirty.length(); ++i) {
+            // Clear first: anything written after this is drawn next time
+            long bits = this.dirty.getAndSet(i, 0);
+            changed |= bits != 0;
+
+            while (bits != 0) {
+                final int index = i * 64 + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                renderCell(this.pixels, this.memory, index / VIRT_WIDTH, index % VIRT_WIDTH);
+            }
+        }
+
+        if (changed) {
+            this.canvas.repaint();
+        }
     }
 
     public void setupMemory(MemoryUnit mem) {
         mem.mapHandler(0x2000, this.memGraphics);
         mem.mapHandler(0x1000, this.memKeyboard);
+
+        // Headless runs capture the screen when this is written (there is
+        // nothing to do here, but the layout should stay the same)
+        mem.mapHandler(0x1010, new GenericMemory(new byte[1]));
+    }
+
+    public void setInterruptControllers(InterruptController... interrupts) {
+        this.interrupts = interrupts.clone();
     }
 
     private void internalWrite(final int offset, byte b) {
         final int flag = 1 - offset % 2;
         final int mask = 0xFF << (8 * flag);
         final int updt = Byte.toUnsignedInt(b) << 8 * (1 - flag);
-        this.memory[offset / 2] = (short) ((this.memory[offset / 2] & mask) | updt);
+
+        // Only half of the cell changes, so another core writing the other
+        // half at the same time must not be undone
+        synchronized (this.memory) {
+            this.memory[offset / 2] = (short) ((this.memory[offset / 2] & mask) | updt);
+        }
+        this.markDirty(offset / 2);
+    }
+
+    private void markDirty(final int index) {
+        final int slot = index / 64;
+        final long bit = 1L << (index % 64);
+
+        long bits;
+        do {
+            bits = this.dirty.get(slot);
+            if ((bits & bit) != 0) {
+                // Still waiting to be drawn
+                return;
+            }
+        } while (!this.dirty.compareAndSet(slot, bits, bits | bit));
     }
 
     public static byte makeCellAttr(int fg, int bg) {
@@ -216,7 +319,10 @@ public final class Screen extends JFrame {
     }
 
     public void flush() {
-        this.repaint();
+        // Redraw everything on the next frame
+        for (int i = 0; i < VIRT_WIDTH * VIRT_HEIGHT; ++i) {
+            this.markDirty(i);
+        }
     }
 
     private final class GraphicsMemory implements MemoryHandler {
@@ -234,11 +340,29 @@ public final class Screen extends JFrame {
 
         @Override
         public void writeOffset(final int offset, byte b) {
+            // (The frame timer picks it up)
             Screen.this.internalWrite(offset, b);
-            Screen.this.flush();
+        }
+
+        @Override
+        public void writeWordOffset(final int offset, short w) {
+            if (offset % 2 != 0) {
+                MemoryHandler.super.writeWordOffset(offset, w);
+                return;
+            }
+
+            // A whole cell: the character is the byte at the lower address,
+            // so it ends up as the low byte of the cell
+            final int cell = ((w >> 8) & 0xFF) | ((w & 0xFF) << 8);
+            synchronized (Screen.this.memory) {
+                Screen.this.memory[offset / 2] = (short) cell;
+            }
+            Screen.this.markDirty(offset / 2);
         }
     }
 
+    // The key events come from the EDT and the accesses from however many
+    // cores there are, so everything is synchronized.
     private final class KeyboardMemory extends KeyAdapter implements MemoryHandler {
 
         private final ByteBuffer bytes = ByteBuffer.allocate(6); // [ kc0, kc1, kc2, kc3, ch0, ch1 ]
@@ -253,7 +377,7 @@ public final class Screen extends JFrame {
         }
 
         @Override
-        public byte readOffset(final int offset) {
+        public synchronized byte readOffset(final int offset) {
             switch (offset) {
                 case 0:
                 case 1:
@@ -272,7 +396,7 @@ public final class Screen extends JFrame {
         }
 
         @Override
-        public void writeOffset(int offset, byte b) {
+        public synchronized void writeOffset(int offset, byte b) {
             switch (offset) {
                 case 0:
                 case 1:
@@ -311,20 +435,53 @@ public final class Screen extends JFrame {
         }
 
         @Override
-        public void keyPressed(KeyEvent e) {
+        public synchronized void saveContents(ByteBuffer dst) {
+            // Only the registers, the keys that are held down (and the ones
+            // not read yet) come from the host anyway.
+            dst.put(this.bytes.get(0));
+            dst.put(this.bytes.get(1));
+            dst.put(this.bytes.get(2));
+            dst.put(this.bytes.get(3));
+            dst.put(this.dropChars ? (byte) 1 : 0);
+            dst.put(this.bytes.get(4));
+            dst.put(this.bytes.get(5));
+        }
+
+        @Override
+        public synchronized void loadContents(ByteBuffer src) {
+            this.bytes.put(0, src.get());
+            this.bytes.put(1, src.get());
+            this.bytes.put(2, src.get());
+            this.bytes.put(3, src.get());
+            this.dropChars = (src.get() & 1) != 0;
+            this.bytes.put(4, src.get());
+            this.bytes.put(5, src.get());
+        }
+
+        @Override
+        public synchronized void keyPressed(KeyEvent e) {
             this.set.set(e.getKeyCode());
+            this.interrupt();
         }
 
         @Override
-        public void keyReleased(KeyEvent e) {
+        public synchronized void keyReleased(KeyEvent e) {
             this.set.clear(e.getKeyCode());
+            this.interrupt();
         }
 
         @Override
-        public void keyTyped(KeyEvent e) {
+        public synchronized void keyTyped(KeyEvent e) {
             if (!this.dropChars) {
                 this.ring.offer(e.getKeyChar());
             }
+            this.interrupt();
+        }
+
+        private void interrupt() {
+            for (final InterruptController ic : Screen.this.interrupts) {
+                ic.raise(InterruptController.IRQ_KEYBOARD);
+            }
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,78 @@
+package org.atoiks.games.nostalgia;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Saves (and restores) a whole machine: the processor state followed by the
+// contents of everything mapped in the memory unit. The file is memory
+// mapped, so the memory handlers copy straight into (or out of) it.
+//
+// Restoring only works on a machine with the same layout (same handlers
+// mapped at the same addresses), the snapshot does not know how to create
+// the handlers.
+public final class Snapshot {
+
+    private static final int MAGIC = 0x4E4F5353; // NOSS
+    private static final int VERSION = 3;
+
+    private static final int HEADER_SIZE = 4 + 4;
+
+    private Snapshot() {
+    }
+
+    public static void save(Path path, ProcessUnit proc, MemoryUnit mem) throws IOException {
+        final long size = HEADER_SIZE + ProcessUnit.SNAPSHOT_SIZE + mem.getContentsSize();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot: machine is too big to be saved (" + size + " bytes)");
+        }
+
+        try (final FileChannel ch = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buf.putInt(MAGIC);
+            buf.putInt(VERSION);
+            proc.saveState(buf);
+            mem.saveContents(buf);
+
+            // Make sure it actually survives the host going down
+            buf.force();
+        }
+    }
+
+    public static void restore(Path path, ProcessUnit proc, MemoryUnit mem) throws IOException {
+        try (final FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = ch.size();
+            if (size < HEADER_SIZE + ProcessUnit.SNAPSHOT_SIZE) {
+                throw new IOException("Snapshot: " + path + " is too short to be a snapshot");
+            }
+
+            final ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buf.getInt() != MAGIC) {
+                throw new IOException("Snapshot: " + path + " is not a snapshot");
+            }
+            final int version = buf.getInt();
+            if (version != VERSION) {
+                throw new IOException("Snapshot: " + path + " has unsupported version " + version);
+            }
+
+            // Memory first: if the layout does not match, the processor is
+            // left alone too.
+            final ByteBuffer procState = buf.slice();
+            procState.limit(ProcessUnit.SNAPSHOT_SIZE);
+            buf.position(buf.position() + ProcessUnit.SNAPSHOT_SIZE);
+
+            try {
+                mem.loadContents(buf);
+            } catch (BufferUnderflowException | IllegalArgumentException ex) {
+                throw new IOException("Snapshot: " + path + " is truncated", ex);
+            }
+            proc.loadState(procState);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.atoiks.games.nostalgia;
+
+import java.nio.ByteBuffer;
+
+// Lets the guest tell time. Same as any other memory, the registers are big
+// endian:
+//
+//   +0  qword  cycles executed so far (see ProcessUnit.getCycleCount)
+//   +8  qword  microseconds since the timer was created (host time)
+//   +16 dword  countdown (in cycles)
+//   +20 .. +23 unused
+//
+// The two counters are read only. Reading the first byte of either one
+// latches the whole value, so reading the high dword and then the low dword
+// gives a consistent 64 bit value.
+//
+// Writing the countdown starts it from that value, after that it reads as
+// the number of cycles left until it reaches zero (where it stays). Unlike
+// the microsecond counter, it only depends on the kernel, so it is the same
+// no matter the host or the clock rate. Reaching zero raises IRQ_TIMER (if
+// there is an InterruptController).
+//
+// With several cores, the cycles are the ones of the core doing the access
+// (see ProcessUnit.current), so the countdown is only meaningful on the core
+// that started it, and IRQ_TIMER is raised on that core (see InterruptBank).
+public final class TimerDevice implements MemoryHandler {
+
+    private static final int REG_CYCLES = 0;
+    private static final int REG_MICROS = 8;
+    private static final int REG_COUNTDOWN = 16;
+
+    private final ProcessUnit[] cores;
+    private final long startNanos = System.nanoTime();
+
+    private final ByteBuffer latched = ByteBuffer.allocate(REG_COUNTDOWN);
+    private final ByteBuffer countdown = ByteBuffer.allocate(4);
+
+    // Cycle count where the countdown reaches zero
+    private long deadline;
+
+    public TimerDevice(ProcessUnit proc) {
+        this(new ProcessUnit[] { proc });
+    }
+
+    public TimerDevice(ProcessUnit[] cores) {
+        this.cores = cores.clone();
+    }
+
+    @Override
+    public int getCapacity() {
+        return 24;
+    }
+
+    public long getCountdown() {
+        return Math.max(0, this.deadline - ProcessUnit.current(this.cores).getCycleCount());
+    }
+
+    @Override
+    public synchronized byte readOffset(int offset) {
+        switch (offset) {
+            case REG_CYCLES:
+                this.latched.putLong(REG_CYCLES, ProcessUnit.current(this.cores).getCycleCount());
+                break;
+            case REG_MICROS:
+                this.latched.putLong(REG_MICROS, (System.nanoTime() - this.startNanos) / 1000);
+                break;
+            default:
+                break;
+        }
+
+        if (offset < REG_COUNTDOWN) {
+            return this.latched.get(offset);
+        }
+        if (offset < REG_COUNTDOWN + 4) {
+            final int left = (int) Math.min(this.getCountdown(), 0xFFFFFFFFL);
+            return (byte) (left >>> (8 * (REG_COUNTDOWN + 3 - offset)));
+        }
+        return 0;
+    }
+
+    @Override
+    public synchronized void writeOffset(int offset, byte b) {
+        if (offset >= REG_COUNTDOWN && offset < REG_COUNTDOWN + 4) {
+            // Multi-byte writes all happen at the same cycle, so restarting
+            // it for every byte works out
+            final ProcessUnit proc = ProcessUnit.current(this.cores);
+            this.countdown.put(offset - REG_COUNTDOWN, b);
+            this.deadline = proc.getCycleCount() + Integer.toUnsignedLong(this.countdown.getInt(0));
+
+            final InterruptController interrupts = proc.getInterruptController();
+            if (interrupts != null) {
+                interrupts.setTimerAlarm(this.deadline);
+            }
+        }
+    }
+
+    // Snapshots only need the countdown (the cycle count is part of the
+    // processor, the microseconds just keep going).
+
+    @Override
+    public void saveContents(ByteBuffer dst) {
+        dst.putLong(this.deadline);
+        dst.put(this.countdown.array());
+        dst.putLong(0);
+        dst.putInt(0);
+    }
+
+    @Override
+    public void loadContents(ByteBuffer src) {
+        this.deadline = src.getLong();
+        src.get(this.countdown.array());
+        src.getLong();
+        src.getInt();
+    }
+}
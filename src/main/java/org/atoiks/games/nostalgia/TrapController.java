@@ -0,0 +1,71 @@
+package org.atoiks.games.nostalgia;
+
+import java.nio.ByteBuffer;
+
+// Lets the guest deal with its own faults (see ProcessUnit.FAULT_*). Same as
+// any other memory, the registers are big endian:
+//
+//   +0  dword  handler address (0 means there is none)
+//   +4  dword  fault code (writing anything clears it)
+//   +8  dword  resume address
+//   +12 dword  detail: the instruction word, the FPEXT opcode, the address
+//              that was accessed or zero (depending on the fault)
+//
+// On a fault, the processor fills in the last three and jumps to the
+// handler (the prefixes are dropped, the registers are left alone). The
+// resume address is where the processor would have gone next: just past the
+// faulting instruction, or the instruction itself if it could not even be
+// fetched. Until the handler clears the fault code, another fault stops the
+// processor (same as when there is no handler), so a broken handler cannot
+// loop forever.
+public final class TrapController implements MemoryHandler {
+
+    private static final int REG_HANDLER = 0;
+    private static final int REG_CODE = 4;
+    private static final int REG_RESUME = 8;
+    private static final int REG_DETAIL = 12;
+
+    private final ByteBuffer regs = ByteBuffer.allocate(16);
+
+    @Override
+    public int getCapacity() {
+        return 16;
+    }
+
+    // Returns the handler address, or 0 if the fault is not taken
+    int enter(int code, int resume, int detail) {
+        final int handler = this.regs.getInt(REG_HANDLER);
+        if (handler == 0 || this.regs.getInt(REG_CODE) != ProcessUnit.FAULT_NONE) {
+            return 0;
+        }
+
+        this.regs.putInt(REG_CODE, code);
+        this.regs.putInt(REG_RESUME, resume);
+        this.regs.putInt(REG_DETAIL, detail);
+        return handler;
+    }
+
+    @Override
+    public byte readOffset(int offset) {
+        return this.regs.get(offset);
+    }
+
+    @Override
+    public void writeOffset(int offset, byte b) {
+        if (offset < REG_CODE) {
+            this.regs.put(offset, b);
+        } else if (offset < REG_RESUME) {
+            this.regs.putInt(REG_CODE, ProcessUnit.FAULT_NONE);
+        }
+    }
+
+    @Override
+    public void saveContents(ByteBuffer dst) {
+        dst.put(this.regs.array());
+    }
+
+    @Override
+    public void loadContents(ByteBuffer src) {
+        src.get(this.regs.array());
+    }
+}
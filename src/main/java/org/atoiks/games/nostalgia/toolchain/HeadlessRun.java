@@ -0,0 +1,378 @@
+package org.atoiks.games.nostalgia.toolchain;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import org.atoiks.games.nostalgia.*;
+
+// Runs a machine without a Screen (used by nosemu --headless and nosbatch).
+final class HeadlessRun {
+
+    // Same layout as the keyboard memory of the Screen
+    private static final int KEYBOARD_MEM_SIZE = 7;
+
+    private static final int VIDEO_START = 0x2000;
+    private static final int VIDEO_SIZE = Screen.VIRT_WIDTH * Screen.VIRT_HEIGHT * 2;
+
+    // Writing anything to this byte captures the screen (if there is a
+    // FrameCapture). The Screen maps the same byte, but does nothing with it.
+    private static final int CAPTURE_REQUEST = 0x1010;
+
+    // How often (in quantas) the run checks if the kernel is stuck (or if it
+    // ran out of time)
+    private static final int CHECK_INTERVAL = 64;
+
+    private final MemoryUnit mem;
+    private final ProcessUnit proc;
+
+    // With several cores, the ones other than proc (see setOtherCores)
+    private ProcessUnit[] others = new ProcessUnit[0];
+    private CoreControl control;
+    private long[] savedCycles = new long[0];
+    private long[] currentCycles = new long[0];
+    private int[] coreState;
+
+    // Bumped on every memory write (see run)
+    private long writes;
+
+    private String errorMessage;
+
+    // Devices that finish work on their own (like the BlockDevice). The
+    // kernel is not stuck while it waits on one of them.
+    private final ArrayList<BooleanSupplier> busyChecks = new ArrayList<>();
+
+    // The run in progress (see start and resume)
+    private long cycleLimit;
+    private long timeoutNanos;
+    private long runNanos;
+    private int[] saved;
+    private int[] current;
+    private long savedWrites;
+    private long power;
+    private long steps;
+    private long quantas;
+    private boolean blocked;
+
+    private final GenericMemory video = new GenericMemory(new byte[VIDEO_SIZE]);
+
+    // See setCapture
+    private FrameCapture capture;
+    private long[] captureAt;
+    private long captureEvery;
+    private int captureIndex;
+    private long nextCapture = Long.MAX_VALUE;
+
+    public HeadlessRun(MemoryUnit mem, ProcessUnit proc) {
+        this.mem = mem;
+        this.proc = proc;
+
+        // Same addresses as the Screen, but these are just plain memory
+        mem.mapHandler(VIDEO_START, this.video);
+        mem.mapHandler(0x1000, new GenericMemory(new byte[KEYBOARD_MEM_SIZE]));
+        mem.mapHandler(CAPTURE_REQUEST, new GenericMemory(new byte[1]));
+        mem.addWriteListener(this::memoryWritten);
+    }
+
+    private void memoryWritten(int address, int length) {
+        // (With several cores, the other cores write from their own
+        // threads. The count only has to change, so a lost bump is fine.)
+        ++this.writes;
+        if (this.capture == null) {
+            return;
+        }
+
+        synchronized (this) {
+            if (address < VIDEO_START + VIDEO_SIZE && VIDEO_START < address + length) {
+                this.capture.invalidate();
+            }
+            if (address <= CAPTURE_REQUEST && CAPTURE_REQUEST < address + length) {
+                // Right away (instead of after the quanta), so it is the
+                // screen as the kernel saw it when asking
+                this.captureFrame();
+            }
+        }
+    }
+
+    // The other cores run on their own threads (the run itself follows
+    // proc), the kernel is only stuck once all of them are too
+    public void setOtherCores(CoreControl control, ProcessUnit... others) {
+        this.control = control;
+        this.others = others.clone();
+        this.savedCycles = new long[others.length];
+        this.currentCycles = new long[others.length];
+    }
+
+    public void addBusyCheck(BooleanSupplier busy) {
+        this.busyChecks.add(busy);
+    }
+
+    private boolean isWaiting() {
+        for (final BooleanSupplier busy : this.busyChecks) {
+            if (busy.getAsBoolean()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Captures the screen whenever the kernel asks for it, once the cycle
+    // count reaches each of the (sorted) counts in at and every time
+    // another multiple of every cycles (if positive) is reached.
+    public void setCapture(FrameCapture capture, long[] at, long every) {
+        this.capture = capture;
+        this.captureAt = at;
+        this.captureEvery = every;
+        this.captureIndex = 0;
+        this.updateNextCapture(this.proc.getCycleCount());
+    }
+
+    public synchronized void captureFrame() {
+        try {
+            this.capture.capture(this.video.buffer, this.proc.getCycleCount());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    // Looks for the first capture at or after cycle from
+    private void updateNextCapture(long from) {
+        while (this.captureIndex < this.captureAt.length && this.captureAt[this.captureIndex] < from) {
+            ++this.captureIndex;
+        }
+
+        long next = this.captureIndex < this.captureAt.length ? this.captureAt[this.captureIndex] : Long.MAX_VALUE;
+        if (this.captureEvery > 0) {
+            next = Math.min(next, (from + this.captureEvery - 1) / this.captureEvery * this.captureEvery);
+        }
+        this.nextCapture = next;
+    }
+
+    public static int parseAddress(String str) {
+        // Allow the full 32 bit range (so 0xFFFFFFFF is fine)
+        return (int) Long.decode(str).longValue();
+    }
+
+    public String getErrorMessage() {
+        return this.errorMessage;
+    }
+
+    // Returns why the run stopped: budget, address, timeout, halt, illegal or
+    // error (for the last two, see getErrorMessage). A negative cycle limit
+    // or timeout means there is none.
+    public String run(long cycleLimit, Integer untilAddress, long timeoutNanos) {
+        this.start(cycleLimit, untilAddress, timeoutNanos);
+
+        String reason;
+        do {
+            reason = this.resume(Integer.MAX_VALUE);
+        } while (reason == null);
+        return reason;
+    }
+
+    // Same as run, but split into slices (see MachineScheduler): start sets
+    // things up, then resume is called until it returns the reason. The
+    // timeout only counts the time spent inside of resume.
+    public void start(long cycleLimit, Integer untilAddress, long timeoutNanos) {
+        if (untilAddress != null) {
+            this.proc.setBreakpoint(untilAddress);
+        }
+
+        this.cycleLimit = cycleLimit;
+        this.timeoutNanos = timeoutNanos;
+        this.runNanos = 0;
+
+        this.saved = this.captureStates(null);
+        readCycles(this.others, this.savedCycles);
+        this.current = null;
+        this.savedWrites = this.writes;
+        this.power = 1;
+        this.steps = 0;
+        this.quantas = 0;
+    }
+
+    // Runs at most (about) quantas quantas. Returns null if the run has not
+    // stopped yet.
+    public String resume(int quantas) {
+        final long sliceStart = System.nanoTime();
+        this.blocked = false;
+        try {
+            for (int i = 0; i < quantas; ++i) {
+                final String reason = this.executeNext(sliceStart);
+                if (reason != null || this.blocked) {
+                    return reason;
+                }
+            }
+            return null;
+        } catch (RuntimeException ex) {
+            // Guest faults do not end up here (see ProcessUnit.getFault),
+            // only things like a device failing
+            this.errorMessage = String.valueOf(ex.getMessage());
+            return "error";
+        } finally {
+            this.runNanos += System.nanoTime() - sliceStart;
+        }
+    }
+
+    // If the last call to resume ended early because the kernel was waiting
+    // on a device (so there is no point in resuming it right away)
+    public boolean isBlocked() {
+        return this.blocked;
+    }
+
+    // Time spent inside of resume so far
+    public long getRunNanos() {
+        return this.runNanos;
+    }
+
+    private String executeNext(long sliceStart) {
+        if (this.cycleLimit >= 0 && this.proc.getCycleCount() >= this.cycleLimit) {
+            return "budget";
+        }
+        if (this.proc.isAtBreakpoint()) {
+            return "address";
+        }
+
+        if (this.proc.isIdle()) {
+            // Nothing happens until the timer goes off, so skip straight to
+            // it (or to whatever comes first)
+            final long alarm = this.proc.getInterruptController().getTimerAlarm();
+            if (alarm >= 0) {
+                final long until = Math.min(Math.min(alarm, this.nextCapture),
+                        this.cycleLimit >= 0 ? this.cycleLimit : Long.MAX_VALUE);
+                this.proc.idle(until - this.proc.getCycleCount());
+            } else if (this.others.length == 0 && !this.isWaiting()) {
+                return "halt";
+            }
+
+            // Otherwise there is nothing to skip to: the quanta just passes
+            // (halted) while the device or the other cores get on with it
+            // (and the check below sees if they ever do)
+        }
+
+        this.proc.executeNextQuanta();
+
+        switch (this.proc.getFault()) {
+            case ProcessUnit.FAULT_NONE:
+                break;
+            case ProcessUnit.FAULT_BAD_ADDRESS:
+            case ProcessUnit.FAULT_DIVIDE_BY_ZERO:
+                this.errorMessage = this.proc.getFaultMessage();
+                return "error";
+            default:
+                this.errorMessage = this.proc.getFaultMessage();
+                return "illegal";
+        }
+
+        if (this.proc.getCycleCount() >= this.nextCapture) {
+            this.captureFrame();
+            this.updateNextCapture(this.proc.getCycleCount() + 1);
+        }
+
+        if (++this.quantas % CHECK_INTERVAL == 0) {
+            if (this.timeoutNanos >= 0 && this.runNanos + (System.nanoTime() - sliceStart) >= this.timeoutNanos) {
+                return "timeout";
+            }
+
+            // The kernel is stuck if the processor ends up in the same state
+            // again without any memory being written. The saved state is
+            // moved forward every power of two checks (Brent's cycle
+            // detection), so loops of any length are caught.
+            readCycles(this.others, this.currentCycles);
+            this.current = this.captureStates(this.current);
+            if (this.writes == this.savedWrites && Arrays.equals(this.saved, this.current) && this.othersHadATurn()) {
+                if (!this.isWaiting()) {
+                    return "halt";
+                }
+
+                // Polling a device, it keeps going once the device is done
+                this.blocked = true;
+            }
+
+            if (++this.steps == this.power) {
+                final int[] tmp = this.saved;
+                this.saved = this.current;
+                this.current = tmp;
+                this.savedWrites = this.writes;
+                readCycles(this.others, this.savedCycles);
+                this.power <<= 1;
+                this.steps = 0;
+            }
+        }
+        return null;
+    }
+
+    // When the other cores run is up to the host, so one that looks the same
+    // may just not have had a turn since the saved state. The ones that
+    // cannot run at all (never started, or stopped by a fault) are fine.
+    //
+    // The saved cycles are read right after the saved state and the current
+    // ones right before the current state, so cycles that went by in between
+    // really were in between the two states.
+    private boolean othersHadATurn() {
+        for (int i = 0; i < this.others.length; ++i) {
+            final ProcessUnit core = this.others[i];
+            if (this.control.isStarted(core.getCoreId()) && core.getFault() == ProcessUnit.FAULT_NONE
+                    && this.currentCycles[i] == this.savedCycles[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void readCycles(ProcessUnit[] cores, long[] dst) {
+        for (int i = 0; i < cores.length; ++i) {
+            dst[i] = cores[i].getCycleCount();
+        }
+    }
+
+    // The state of every core, one after the other. The other cores are
+    // caught at whatever point they happen to be at, so a core going round
+    // a loop only matches once it is caught at the same point (which takes
+    // longer the longer the loop is, but it does happen).
+    private int[] captureStates(int[] dst) {
+        this.coreState = this.proc.captureState(this.coreState);
+        final int size = this.coreState.length;
+        if (dst == null) {
+            dst = new int[size * (1 + this.others.length)];
+        }
+
+        System.arraycopy(this.coreState, 0, dst, 0, size);
+        for (int i = 0; i < this.others.length; ++i) {
+            this.coreState = this.others[i].captureState(this.coreState);
+            System.arraycopy(this.coreState, 0, dst, size * (i + 1), size);
+        }
+        return dst;
+    }
+
+    public void printReport(PrintStream out, String reason, List<int[]> dumps) {
+        // One key=value per line (so it is easy to grep or to parse)
+        out.println("exit=" + reason);
+        out.println("cycles=" + this.proc.getCycleCount());
+        out.println("ip=" + String.format("0x%08x", this.proc.getIP()));
+        for (int i = 1; i < 16; ++i) {
+            out.println("r" + i + "=" + String.format("0x%08x", this.proc.readRegDword(i)));
+        }
+        for (int i = 0; i < 32; ++i) {
+            out.println("fp" + i + "=" + String.format("0x%016x", this.proc.readRegFp(i)));
+        }
+
+        for (final int[] dump : dumps) {
+            final StringBuilder sb = new StringBuilder();
+            sb.append("mem[").append(String.format("0x%08x", dump[0])).append(':').append(dump[1]).append("]=");
+            for (int i = 0; i < dump[1]; ++i) {
+                try {
+                    sb.append(String.format("%02x", this.mem.read(dump[0] + i)));
+                } catch (IndexOutOfBoundsException ex) {
+                    // Unmapped memory
+                    sb.append("??");
+                }
+            }
+            out.println(sb);
+        }
+    }
+}
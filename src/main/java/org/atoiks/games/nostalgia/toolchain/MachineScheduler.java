@@ -0,0 +1,210 @@
+package org.atoiks.games.nostalgia.toolchain;
+
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Runs a whole bunch of machines on a few threads (used by nosbatch). Each
+// machine runs a slice at a time and then goes back into the queue, so one
+// long running kernel does not hold up a thread until it is done.
+//
+// The next machine is always the one with the least run time so far, where
+// the run time is divided by its priority (so a machine with priority 2 gets
+// twice the time of one with priority 1). Machines that are waiting on a
+// device sit out for a bit instead of spinning.
+//
+// There is a limit on how many machines are in the scheduler at a time,
+// submit blocks until there is room (so the machines that are waiting to go
+// in do not all have to exist at once).
+final class MachineScheduler implements AutoCloseable {
+
+    public static interface Machine {
+
+        // Runs the machine for (about) quantas quantas. Returns true once it
+        // is done.
+        public boolean runSlice(int quantas) throws Exception;
+
+        // If the last slice ended early because the machine is waiting on a
+        // device
+        public boolean isBlocked();
+    }
+
+    public static final int DEFAULT_SLICE = 256;
+
+    // How long machines that are waiting on a device sit out
+    private static final long BLOCKED_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final class Entry {
+
+        final Machine machine;
+        final int priority;
+        final long order;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        long vruntime;
+        long wakeAt;
+
+        Entry(Machine machine, int priority, long order) {
+            this.machine = machine;
+            this.priority = priority;
+            this.order = order;
+        }
+    }
+
+    private final int slice;
+    private final Semaphore room;
+    private final Thread[] workers;
+
+    // All of these are guarded by this
+    private final PriorityQueue<Entry> ready = new PriorityQueue<>((a, b) -> {
+        final int cmp = Long.compare(a.vruntime, b.vruntime);
+        return cmp != 0 ? cmp : Long.compare(a.order, b.order);
+    });
+    private final PriorityQueue<Entry> blocked = new PriorityQueue<>((a, b) -> Long.compare(a.wakeAt, b.wakeAt));
+    private long minVruntime;
+    private long submitted;
+    private boolean closed;
+
+    public MachineScheduler(int threads, int slice, int maxMachines) {
+        if (threads < 1 || slice < 1 || maxMachines < 1) {
+            throw new IllegalArgumentException("Machine Scheduler: threads, slice and machines must all be positive");
+        }
+
+        this.slice = slice;
+        this.room = new Semaphore(maxMachines);
+        this.workers = new Thread[threads];
+        for (int i = 0; i < threads; ++i) {
+            final Thread t = new Thread(this::work, "nosbatch-" + i);
+            t.setDaemon(true);
+            t.start();
+            this.workers[i] = t;
+        }
+    }
+
+    // Blocks until there is room for the machine. The priority must be at
+    // least 1.
+    public CompletableFuture<Void> submit(Machine machine, int priority) throws InterruptedException {
+        if (priority < 1) {
+            throw new IllegalArgumentException("Machine Scheduler: illegal priority " + priority);
+        }
+
+        this.room.acquire();
+        synchronized (this) {
+            if (this.closed) {
+                this.room.release();
+                throw new IllegalStateException("Machine Scheduler: already closed");
+            }
+
+            // New machines start out level with the ones already running
+            // (otherwise they would hog the threads until they caught up)
+            final Entry entry = new Entry(machine, priority, this.submitted++);
+            entry.vruntime = this.minVruntime;
+            this.ready.add(entry);
+            this.notify();
+            return entry.done;
+        }
+    }
+
+    private synchronized Entry take() throws InterruptedException {
+        while (!this.closed) {
+            final long now = System.nanoTime();
+            while (!this.blocked.isEmpty() && this.blocked.peek().wakeAt - now <= 0) {
+                this.ready.add(this.blocked.poll());
+            }
+
+            final Entry entry = this.ready.poll();
+            if (entry != null) {
+                this.minVruntime = Math.max(this.minVruntime, entry.vruntime);
+                return entry;
+            }
+
+            if (this.blocked.isEmpty()) {
+                this.wait();
+            } else {
+                final long left = this.blocked.peek().wakeAt - now;
+                this.wait(left / 1000000, (int) (left % 1000000));
+            }
+        }
+        return null;
+    }
+
+    private synchronized void putBack(Entry entry, long nanos) {
+        if (this.closed) {
+            entry.done.completeExceptionally(new IllegalStateException("Machine Scheduler: closed before the machine finished"));
+            return;
+        }
+
+        entry.vruntime += Math.max(1, nanos / entry.priority);
+        if (entry.machine.isBlocked()) {
+            entry.wakeAt = System.nanoTime() + BLOCKED_NANOS;
+            this.blocked.add(entry);
+        } else {
+            this.ready.add(entry);
+        }
+        this.notify();
+    }
+
+    private void work() {
+        try {
+            Entry entry;
+            while ((entry = this.take()) != null) {
+                final long start = System.nanoTime();
+                final boolean finished;
+                try {
+                    finished = entry.machine.runSlice(this.slice);
+                } catch (Throwable ex) {
+                    // Even errors (a StackOverflowError, for example),
+                    // otherwise whoever waits on the machine would wait
+                    // forever
+                    this.room.release();
+                    entry.done.completeExceptionally(ex);
+                    continue;
+                }
+
+                if (finished) {
+                    this.room.release();
+                    entry.done.complete(null);
+                } else {
+                    this.putBack(entry, System.nanoTime() - start);
+                }
+            }
+        } catch (InterruptedException ex) {
+            // Only happens when closing
+        }
+    }
+
+    // Stops the threads (once they are done with their current slice) and
+    // fails the machines that never finished
+    @Override
+    public void close() {
+        final ArrayList<Entry> left = new ArrayList<>();
+        synchronized (this) {
+            this.closed = true;
+            left.addAll(this.ready);
+            left.addAll(this.blocked);
+            this.ready.clear();
+            this.blocked.clear();
+            this.notifyAll();
+        }
+
+        for (final Entry entry : left) {
+            entry.done.completeExceptionally(new IllegalStateException("Machine Scheduler: closed before the machine finished"));
+        }
+        boolean interrupted = false;
+        for (final Thread t : this.workers) {
+            while (true) {
+                try {
+                    t.join();
+                    break;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
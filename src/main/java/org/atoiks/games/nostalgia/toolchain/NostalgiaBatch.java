@@ -0,0 +1,426 @@
+package org.atoiks.games.nostalgia.toolchain;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.atoiks.games.nostalgia.*;
+
+// Runs a whole bunch of kernels headless (each one gets its own machine) in
+// a single JVM, spread across all cores. The machines take turns on the
+// threads (see MachineScheduler), so there can be a lot more of them than
+// there are threads.
+public final class NostalgiaBatch {
+
+    private static final long DEFAULT_TIMEOUT_MS = 10000;
+    private static final int DEFAULT_MAX_MACHINES = 1024;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        boolean errored = false;
+        boolean dspHelp = false;
+        boolean jit = false;
+
+        long cycleLimit = -1;
+        long timeoutMs = DEFAULT_TIMEOUT_MS;
+        int dmaRate = DmaController.DEFAULT_BYTES_PER_CYCLE;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int slice = MachineScheduler.DEFAULT_SLICE;
+        int maxMachines = DEFAULT_MAX_MACHINES;
+        int priority = 1;
+        String output = null;
+
+        final ArrayList<String> incDirs = new ArrayList<>();
+        final ArrayList<int[]> dumps = new ArrayList<>();
+        final ArrayList<String> inputs = new ArrayList<>();
+        final ArrayList<Integer> priorities = new ArrayList<>();
+
+        final int limit = args.length;
+        for (int i = 0; i < limit; ++i) {
+            final String el = args[i];
+
+            if (el.isEmpty()) {
+                continue;
+            }
+
+            try {
+                if (el.charAt(0) == '-') {
+                    switch (el) {
+                        case "-h":
+                        case "--help":
+                            dspHelp = true;
+                            continue;
+                        case "-I":
+                            incDirs.add(args[++i]);
+                            continue;
+                        case "-o":
+                            output = args[++i];
+                            continue;
+                        case "-j":
+                        case "--jobs":
+                            threads = Integer.decode(args[++i]);
+                            if (threads < 1) {
+                                System.out.println("Error: Option " + el + " needs at least one thread");
+                                errored = true;
+                            }
+                            continue;
+                        case "--slice":
+                            slice = Integer.decode(args[++i]);
+                            if (slice < 1) {
+                                System.out.println("Error: Option " + el + " needs at least one quanta");
+                                errored = true;
+                            }
+                            continue;
+                        case "--machines":
+                            maxMachines = Integer.decode(args[++i]);
+                            if (maxMachines < 1) {
+                                System.out.println("Error: Option " + el + " needs at least one machine");
+                                errored = true;
+                            }
+                            continue;
+                        case "--priority":
+                            priority = Integer.decode(args[++i]);
+                            if (priority < 1) {
+                                System.out.println("Error: Option " + el + " needs a priority of at least 1");
+                                errored = true;
+                            }
+                            continue;
+                        case "--jit":
+                            jit = true;
+                            continue;
+                        case "--dma-rate":
+                            dmaRate = Integer.decode(args[++i]);
+                            if (dmaRate < 1) {
+                                System.out.println("Error: Option " + el + " needs at least one byte per cycle");
+                                errored = true;
+                            }
+                            continue;
+                        case "--cycles":
+                            cycleLimit = Long.decode(args[++i]);
+                            continue;
+                        case "--timeout":
+                            timeoutMs = Long.decode(args[++i]);
+                            continue;
+                        case "--dump": {
+                            final String range = args[++i];
+                            final int split = range.indexOf(':');
+                            if (split < 0) {
+                                System.out.println("Error: Option " + el + " expects <addr>:<length>, got " + range);
+                                errored = true;
+                                continue;
+                            }
+                            dumps.add(new int[] {
+                                HeadlessRun.parseAddress(range.substring(0, split)),
+                                Integer.decode(range.substring(split + 1))
+                            });
+                            continue;
+                        }
+                        default:
+                            System.out.println("Error: Unsupported option: " + el);
+                            errored = true;
+                            continue;
+                    }
+                }
+
+                inputs.add(el);
+                priorities.add(priority);
+            } catch (IndexOutOfBoundsException ex) {
+                System.out.println("Error: Option " + el + " missing value after");
+                errored = true;
+                continue;
+            } catch (NumberFormatException ex) {
+                System.out.println("Error: Option " + el + " has an illegal number: " + ex.getMessage());
+                errored = true;
+                continue;
+            }
+        }
+
+        if (dspHelp) {
+            System.out.println(""
+                    + "Nostalgia Batch Runner\n"
+                    + "\n"
+                    + "Usage: nosbatch [options] (file|dir)...\n"
+                    + "\n"
+                    + "Options:\n"
+                    + "  -h | --help            Displays this help message\n"
+                    + "  -I <dir>               Add directory to search path when assembling\n"
+                    + "  -o <file>              Write the report to <file> [default: stdout]\n"
+                    + "  -j | --jobs <n>        Uses n threads to run the kernels [default: number of cores]\n"
+                    + "  --slice <n>            Quantas a kernel runs before the next one gets a turn\n"
+                    + "                         [default: " + MachineScheduler.DEFAULT_SLICE + "]\n"
+                    + "  --machines <n>         Keeps at most n machines around at a time [default: " + DEFAULT_MAX_MACHINES + "]\n"
+                    + "  --priority <n>         Kernels after this get n times the time of priority 1\n"
+                    + "                         ones [default: 1]\n"
+                    + "  --jit                  Compiles hot code into JVM bytecode\n"
+                    + "  --dma-rate <n>         Bytes the DMA controller moves per cycle [default: " + DmaController.DEFAULT_BYTES_PER_CYCLE + "]\n"
+                    + "  --cycles <n>           Stops each kernel after (about) n cycles\n"
+                    + "  --timeout <ms>         Stops each kernel after (about) ms milliseconds\n"
+                    + "                         [default: " + DEFAULT_TIMEOUT_MS + ", negative means never]\n"
+                    + "  --dump <addr>:<len>    Prints len bytes starting at addr for each kernel\n"
+                    + "\n"
+                    + "Note: .nos files are assembled first, anything else is loaded as is\n"
+                    + "Note: directories are searched (not recursively) for .nos files\n"
+                    + "Note: each kernel also stops on errors and once it hangs (like nosemu --headless)\n"
+                    + "Note: the timeout only counts the time each kernel actually runs");
+            return;
+        }
+
+        if (errored) {
+            return;
+        }
+
+        final ArrayList<Path> kernels = new ArrayList<>();
+        final ArrayList<Integer> kernelPriorities = new ArrayList<>();
+        for (int i = 0; i < inputs.size(); ++i) {
+            final Path path = Paths.get(inputs.get(i));
+            if (Files.isDirectory(path)) {
+                try (final Stream<Path> s = Files.list(path)) {
+                    kernels.addAll(s
+                            .filter(p -> p.getFileName().toString().endsWith(".nos"))
+                            .sorted()
+                            .collect(Collectors.toList()));
+                }
+            } else {
+                kernels.add(path);
+            }
+
+            while (kernelPriorities.size() < kernels.size()) {
+                kernelPriorities.add(priorities.get(i));
+            }
+        }
+
+        // Every machine needs its own copy (the bootloader's stack lives
+        // inside of it), but there is no reason to assemble it every time.
+        final byte[] loader;
+        try (final BufferedReader br = new BufferedReader(new InputStreamReader(App.class.getResourceAsStream("/bootloader.nos")))) {
+            final Assembler asm = new Assembler();
+            asm.loadSource(br);
+            loader = asm.assembleAll();
+        }
+
+        final ArrayList<Job> jobs = new ArrayList<>();
+        final ArrayList<Future<Void>> futures = new ArrayList<>();
+        final long start = System.nanoTime();
+        try (final MachineScheduler scheduler = new MachineScheduler(threads, slice, maxMachines)) {
+            // Blocks once there are too many machines around, so only the
+            // ones that are running (or about to) take up memory
+            for (int i = 0; i < kernels.size(); ++i) {
+                final Job job = new Job(kernels.get(i), loader, incDirs, jit, dmaRate, cycleLimit, timeoutMs, dumps);
+                jobs.add(job);
+                futures.add(scheduler.submit(job, kernelPriorities.get(i)));
+            }
+
+            try (final PrintStream out = output == null ? null : new PrintStream(new FileOutputStream(output))) {
+                report(out == null ? System.out : out, jobs, futures, start);
+            }
+        }
+    }
+
+    private static void report(PrintStream out, ArrayList<Job> jobs, ArrayList<Future<Void>> futures, long startNanos) throws InterruptedException {
+        long cycles = 0;
+        long instructions = 0;
+        int failed = 0;
+
+        // Same order as the inputs (even though they finish in whatever
+        // order)
+        for (int i = 0; i < futures.size(); ++i) {
+            final Job job = jobs.get(i);
+            try {
+                futures.get(i).get();
+            } catch (ExecutionException ex) {
+                // Only fails this one job, the others still get reported
+                job.crashed(ex.getCause());
+            }
+
+            job.printReport(out);
+            out.println();
+
+            cycles += job.cycles;
+            instructions += job.instructions;
+            if (job.failed()) {
+                ++failed;
+            }
+        }
+
+        final long wallNanos = System.nanoTime() - startNanos;
+        out.println("jobs=" + futures.size());
+        out.println("failed=" + failed);
+        out.println("cycles=" + cycles);
+        out.println("instructions=" + instructions);
+        out.println("time_ms=" + TimeUnit.NANOSECONDS.toMillis(wallNanos));
+        out.println("mips=" + mips(instructions, wallNanos));
+    }
+
+    private static String mips(long instructions, long nanos) {
+        // instructions / (nanos / 1e9) / 1e6
+        return nanos <= 0 ? "0" : String.format("%.3f", instructions * 1000.0 / nanos);
+    }
+
+    private static final class Job implements MachineScheduler.Machine {
+
+        private final Path kernel;
+        private final byte[] loader;
+        private final ArrayList<String> incDirs;
+        private final boolean jit;
+        private final int dmaRate;
+        private final long cycleLimit;
+        private final long timeoutMs;
+        private final ArrayList<int[]> dumps;
+
+        private ProcessUnit proc;
+        private HeadlessRun run;
+        private String reason;
+        private String message;
+        private long cycles;
+        private long instructions;
+        private long nanos;
+        private String report;
+
+        public Job(Path kernel, byte[] loader, ArrayList<String> incDirs, boolean jit, int dmaRate, long cycleLimit, long timeoutMs, ArrayList<int[]> dumps) {
+            this.kernel = kernel;
+            this.loader = loader;
+            this.incDirs = incDirs;
+            this.jit = jit;
+            this.dmaRate = dmaRate;
+            this.cycleLimit = cycleLimit;
+            this.timeoutMs = timeoutMs;
+            this.dumps = dumps;
+        }
+
+        @Override
+        public boolean runSlice(int quantas) {
+            if (this.run == null && !this.start()) {
+                this.finish();
+                return true;
+            }
+
+            this.reason = this.run.resume(quantas);
+            if (this.reason == null) {
+                return false;
+            }
+
+            this.message = this.run.getErrorMessage();
+            this.cycles = this.proc.getCycleCount();
+            this.instructions = this.proc.getInstructionCount();
+            this.nanos = this.run.getRunNanos();
+            this.finish();
+            return true;
+        }
+
+        // Keeps the report and lets go of the machine (there could be a lot
+        // of jobs that are done before the report is printed)
+        private void finish() {
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            try (final PrintStream out = new PrintStream(buffer)) {
+                this.writeReport(out);
+            }
+            this.report = buffer.toString();
+            this.run = null;
+            this.proc = null;
+        }
+
+        // Something runSlice did not see coming (see MachineScheduler)
+        public void crashed(Throwable cause) {
+            this.reason = "error";
+            this.message = String.valueOf(cause);
+            this.run = null;
+            this.proc = null;
+            this.finish();
+        }
+
+        @Override
+        public boolean isBlocked() {
+            return this.run.isBlocked();
+        }
+
+        // Sets up the machine on its first turn (so it is done on the
+        // threads running the machines)
+        private boolean start() {
+            final MemoryHandler image;
+            try {
+                image = this.loadKernel();
+            } catch (IOException | RuntimeException ex) {
+                this.reason = "load";
+                this.message = ex.getMessage();
+                return false;
+            }
+
+            final MemoryUnit mem = new MemoryUnit();
+            final ProcessUnit proc = new ProcessUnit(mem);
+            this.proc = proc;
+            if (this.jit) {
+                proc.enableJit();
+            }
+
+            mem.mapHandler(0, new GenericMemory(this.loader.clone()));
+            mem.mapHandler(0x4000, image);
+            mem.mapHandler(0x1020, new DmaController(mem, proc, this.dmaRate));
+            mem.mapHandler(0x1040, new TimerDevice(proc));
+
+            final InterruptController interrupts = new InterruptController(proc);
+            proc.setInterruptController(interrupts);
+            mem.mapHandler(0x1060, interrupts);
+            mem.mapHandler(0x1070, new CoreControl(new ProcessUnit[] { proc }));
+
+            final TrapController traps = new TrapController();
+            proc.setTrapController(traps);
+            mem.mapHandler(0x1080, traps);
+
+            this.run = new HeadlessRun(mem, proc);
+            this.run.start(this.cycleLimit, null,
+                    this.timeoutMs < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(this.timeoutMs));
+            return true;
+        }
+
+        private MemoryHandler loadKernel() throws IOException {
+            if (!this.kernel.getFileName().toString().endsWith(".nos")) {
+                // Every job gets its own copy (without reading it in)
+                return MappedMemory.open(this.kernel, MappedMemory.Mode.PRIVATE);
+            }
+
+            final Assembler asm = new Assembler();
+            for (final String inc : this.incDirs) {
+                asm.addSearchDir(inc);
+            }
+            asm.loadSource(this.kernel.toString());
+            return new GenericMemory(asm.assembleAll());
+        }
+
+        public boolean failed() {
+            switch (this.reason) {
+                case "load":
+                case "timeout":
+                case "illegal":
+                case "error":
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        public void printReport(PrintStream out) {
+            out.print(this.report);
+        }
+
+        private void writeReport(PrintStream out) {
+            out.println("job=" + this.kernel);
+            if (this.run == null) {
+                out.println("exit=" + this.reason);
+            } else {
+                this.run.printReport(out, this.reason, this.dumps);
+                out.println("instructions=" + this.instructions);
+                out.println("time_ms=" + TimeUnit.NANOSECONDS.toMillis(this.nanos));
+                out.println("mips=" + mips(this.instructions, this.nanos));
+            }
+            if (this.message != null) {
+                out.println("message=" + this.message.replace('\n', ' '));
+            }
+        }
+    }
+}
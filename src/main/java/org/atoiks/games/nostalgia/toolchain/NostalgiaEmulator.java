@@ -2,17 +2,38 @@ package org.atoiks.games.nostalgia.toolchain;
 
 import java.io.*;
 import java.nio.ByteBuffer;
-import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 import org.atoiks.games.nostalgia.*;
 
 public final class NostalgiaEmulator {
 
+    // Number of addresses written by --profile
+    private static final int HOT_SPOT_LIMIT = 100;
+
     public static void main(String[] args) throws IOException, UnsupportedEncodingException {
         boolean errored = false;
         boolean dspHelp = false;
-        boolean fastMode = false;
+        boolean jit = false;
+        boolean headless = false;
+
+        long clock = Pacer.SLOW_CLOCK;
+        int dmaRate = DmaController.DEFAULT_BYTES_PER_CYCLE;
+        int coreCount = 1;
+        long cycleLimit = -1;
+        Integer untilAddress = null;
+        final ArrayList<int[]> dumps = new ArrayList<>();
+        final ArrayList<String[]> mappedFiles = new ArrayList<>();
+        String diskFile = null;
+        String restoreFile = null;
+        String snapshotFile = null;
+        String profileFile = null;
+        String stacksFile = null;
+        String captureFile = null;
+        long captureEvery = 0;
+        final ArrayList<Long> captureAt = new ArrayList<>();
 
         String kernelFile = null;
 
@@ -32,11 +53,100 @@ public final class NostalgiaEmulator {
                             dspHelp = true;
                             continue;
                         case "--fast":
-                            fastMode = true;
+                            clock = Pacer.FAST_CLOCK;
                             continue;
                         case "--slow":
-                            fastMode = false;
+                            clock = Pacer.SLOW_CLOCK;
+                            continue;
+                        case "--clock":
+                            clock = Long.decode(args[++i]);
+                            if (clock <= 0) {
+                                System.out.println("Error: Option " + el + " needs a positive clock rate");
+                                errored = true;
+                            }
+                            continue;
+                        case "--unthrottled":
+                            clock = 0;
+                            continue;
+                        case "--jit":
+                            jit = true;
+                            continue;
+                        case "--dma-rate":
+                            dmaRate = Integer.decode(args[++i]);
+                            if (dmaRate < 1) {
+                                System.out.println("Error: Option " + el + " needs at least one byte per cycle");
+                                errored = true;
+                            }
+                            continue;
+                        case "--cores":
+                            coreCount = Integer.decode(args[++i]);
+                            if (coreCount < 1 || coreCount > 32) {
+                                System.out.println("Error: Option " + el + " needs between 1 and 32 cores");
+                                errored = true;
+                            }
+                            continue;
+                        case "--headless":
+                            headless = true;
+                            continue;
+                        case "--cycles":
+                            cycleLimit = Long.decode(args[++i]);
+                            continue;
+                        case "--disk":
+                            diskFile = args[++i];
+                            continue;
+                        case "--restore":
+                            restoreFile = args[++i];
+                            continue;
+                        case "--snapshot":
+                            snapshotFile = args[++i];
+                            continue;
+                        case "--profile":
+                            profileFile = args[++i];
                             continue;
+                        case "--flamegraph":
+                            stacksFile = args[++i];
+                            continue;
+                        case "--capture":
+                            captureFile = args[++i];
+                            continue;
+                        case "--capture-at":
+                            captureAt.add(Long.decode(args[++i]));
+                            continue;
+                        case "--capture-every":
+                            captureEvery = Long.decode(args[++i]);
+                            if (captureEvery <= 0) {
+                                System.out.println("Error: Option " + el + " needs a positive number of cycles");
+                                errored = true;
+                            }
+                            continue;
+                        case "--until":
+                            untilAddress = HeadlessRun.parseAddress(args[++i]);
+                            continue;
+                        case "--dump": {
+                            final String range = args[++i];
+                            final int split = range.indexOf(':');
+                            if (split < 0) {
+                                System.out.println("Error: Option " + el + " expects <addr>:<length>, got " + range);
+                                errored = true;
+                                continue;
+                            }
+                            dumps.add(new int[] {
+                                HeadlessRun.parseAddress(range.substring(0, split)),
+                                Integer.decode(range.substring(split + 1))
+                            });
+                            continue;
+                        }
+                        case "--map": {
+                            final String mapping = args[++i];
+                            final int split = mapping.indexOf(':');
+                            if (split < 0) {
+                                System.out.println("Error: Option " + el + " expects <addr>:<file>, got " + mapping);
+                                errored = true;
+                                continue;
+                            }
+                            mappedFiles.add(new String[] { mapping.substring(0, split), mapping.substring(split + 1) });
+                            continue;
+                        }
                         default:
                             System.out.println("Error: Unsupported option: " + el);
                             errored = true;
@@ -49,6 +159,10 @@ public final class NostalgiaEmulator {
                 System.out.println("Error: Option " + el + " missing value after");
                 errored = true;
                 continue;
+            } catch (NumberFormatException ex) {
+                System.out.println("Error: Option " + el + " has an illegal number: " + ex.getMessage());
+                errored = true;
+                continue;
             }
         }
 
@@ -62,8 +176,43 @@ public final class NostalgiaEmulator {
                     + "  -h | --help            Displays this help message\n"
                     + "  --fast                 Runs at (relatively) fast mode\n"
                     + "  --slow                 Runs at (relatively) slow mode [default]\n"
+                    + "  --clock <hz>           Runs at hz cycles per second\n"
+                    + "  --unthrottled          Runs as fast as possible\n"
+                    + "  --jit                  Compiles hot code into JVM bytecode\n"
+                    + "  --dma-rate <n>         Bytes the DMA controller moves per cycle [default: " + DmaController.DEFAULT_BYTES_PER_CYCLE + "]\n"
+                    + "  --cores <n>            Runs n cores sharing the memory [default: 1]\n"
+                    + "  --headless             Runs without a window (as fast as possible)\n"
+                    + "  --cycles <n>           [headless] Stops after (about) n cycles\n"
+                    + "  --until <addr>         [headless] Stops right before executing addr\n"
+                    + "  --dump <addr>:<len>    [headless] Prints len bytes starting at addr when done\n"
+                    + "  --map <addr>:<file>    Maps file (read-write) at addr\n"
+                    + "  --disk <file>          Attaches file as the disk at 0x1030\n"
+                    + "  --snapshot <file>      [headless] Saves the whole machine to file when done\n"
+                    + "  --restore <file>       Resumes the machine saved in file (by --snapshot)\n"
+                    + "  --profile <file>       Writes the hottest addresses to file when done\n"
+                    + "  --flamegraph <file>    Writes the cycles spent per call stack to file when done\n"
+                    + "  --capture <file>       [headless] Captures the screen to file (.png, .rgb or .txt)\n"
+                    + "  --capture-at <n>       [headless] Captures the screen once n cycles have passed\n"
+                    + "  --capture-every <n>    [headless] Captures the screen every n cycles\n"
                     + "\n"
-                    + "Note: the file will be loaded at 0x4000");
+                    + "Note: the file will be loaded at 0x4000\n"
+                    + "Note: headless runs also stop on faults the kernel does not handle and\n"
+                    + "      once the kernel hangs (loops without changing anything)\n"
+                    + "Note: --fast and --slow are " + Pacer.FAST_CLOCK + " and " + Pacer.SLOW_CLOCK + " cycles per second\n"
+                    + "Note: profiling turns off --jit (every instruction has to be counted)\n"
+                    + "Note: only the first core runs the bootloader, the others wait until the\n"
+                    + "      kernel starts them (through 0x1070). Profiling only covers the\n"
+                    + "      first core\n"
+                    + "Note: with --headless, the other cores run as fast as possible on their\n"
+                    + "      own threads and everything else (the report, --cycles, --until and\n"
+                    + "      --snapshot) is about the first core\n"
+                    + "Note: --restore needs the same kernel file (or lack of) and --map files\n"
+                    + "      as the saved run\n"
+                    + "Note: the kernel file is mapped copy-on-write (it never gets changed),\n"
+                    + "      writes to --map files go straight to the file\n"
+                    + "Note: --capture also captures once the run stops and whenever the kernel\n"
+                    + "      writes to 0x1010. If file contains %d, it is replaced by the cycle\n"
+                    + "      count and every capture gets its own file");
             return;
         }
 
@@ -71,33 +220,56 @@ public final class NostalgiaEmulator {
             return;
         }
 
-        final Screen screen = new Screen();
-        screen.setVisible(true);
+        if (captureFile != null && !headless) {
+            System.out.println("Error: Option --capture needs --headless");
+            return;
+        }
+
+        FrameCapture capture = null;
+        if (captureFile != null) {
+            try {
+                capture = new FrameCapture(captureFile);
+            } catch (IllegalArgumentException ex) {
+                System.out.println(ex.getMessage());
+                return;
+            }
+        }
+
+        if (headless) {
+            // Just in case something touches AWT
+            System.setProperty("java.awt.headless", "true");
+        }
 
         final MemoryUnit mem = new MemoryUnit();
-        final ProcessUnit proc = new ProcessUnit(mem);
+        final ProcessUnit[] cores = new ProcessUnit[coreCount];
+        for (int i = 0; i < coreCount; ++i) {
+            cores[i] = new ProcessUnit(mem, i);
+            if (jit) {
+                cores[i].enableJit();
+            }
+        }
+        final ProcessUnit proc = cores[0];
+        final CoreControl control = new CoreControl(cores);
 
         final ByteBuffer loader = assembleProgram(new InputStreamReader(App.class.getResourceAsStream("/bootloader.nos")));
 
-        ByteBuffer kernel = null;
+        MemoryHandler kernel = null;
         String errMsg =
                 "Hmm... Looks like you haven't loaded a kernel yet!\n" +
                 "(You should do that) \1"; // \1 is the smiley face
 
         if (kernelFile != null) {
             try {
-                final byte[] bytes = Files.readAllBytes(Paths.get(kernelFile));
-
                 // Note: We don't disassemble this one (there is a disassembler
                 // tool bundled now anyway!)
-                kernel = ByteBuffer.wrap(bytes);
+                kernel = MappedMemory.open(Paths.get(kernelFile), MappedMemory.Mode.PRIVATE);
             } catch (IOException | RuntimeException ex) {
                 errMsg = ex.getMessage();
             }
         }
 
         if (kernel == null) {
-            kernel = assembleProgram(new InputStreamReader(App.class.getResourceAsStream("/dummy_kernel.nos")));
+            kernel = new GenericMemory(assembleProgram(new InputStreamReader(App.class.getResourceAsStream("/dummy_kernel.nos"))));
 
             // flash the error message into 0x4200
             final byte[] msgBytes = new StringBuilder()
@@ -110,23 +282,196 @@ public final class NostalgiaEmulator {
         }
 
         mem.mapHandler(0, new GenericMemory(loader));
-        mem.mapHandler(0x4000, new GenericMemory(kernel.duplicate()));
+        mem.mapHandler(0x4000, kernel);
+        mem.mapHandler(0x1020, new DmaController(mem, cores, dmaRate));
+        mem.mapHandler(0x1040, new TimerDevice(cores));
+
+        final InterruptBank interrupts = new InterruptBank(cores);
+        mem.mapHandler(0x1060, interrupts);
+        mem.mapHandler(0x1070, control);
+
+        final TrapController traps = new TrapController();
+        proc.setTrapController(traps);
+        mem.mapHandler(0x1080, traps);
+
+        final ArrayList<MappedMemory> mapped = new ArrayList<>();
+        for (final String[] mapping : mappedFiles) {
+            try {
+                final MappedMemory file = MappedMemory.open(Paths.get(mapping[1]), MappedMemory.Mode.READ_WRITE);
+                mem.mapHandler(HeadlessRun.parseAddress(mapping[0]), file);
+                mapped.add(file);
+            } catch (IOException | RuntimeException ex) {
+                System.out.println("Error: Cannot map " + mapping[1] + ": " + ex.getMessage());
+                return;
+            }
+        }
+
+        BlockDevice disk = null;
+        if (diskFile != null) {
+            try {
+                disk = new BlockDevice(mem, Paths.get(diskFile));
+                mem.mapHandler(0x1030, disk);
+            } catch (IOException ex) {
+                System.out.println("Error: Cannot open disk " + diskFile + ": " + ex.getMessage());
+                return;
+            }
+        }
+
+        if (headless) {
+            final HeadlessRun run = new HeadlessRun(mem, proc);
+            if (disk != null) {
+                run.addBusyCheck(disk::isBusy);
+            }
+            run.setOtherCores(control, Arrays.copyOfRange(cores, 1, coreCount));
+            if (restoreFile != null && !restore(restoreFile, proc, mem)) {
+                return;
+            }
+            if (profileFile != null || stacksFile != null) {
+                proc.enableProfiler();
+            }
+
+            if (capture != null) {
+                final long[] at = captureAt.stream().mapToLong(Long::longValue).toArray();
+                Arrays.sort(at);
+                run.setCapture(capture, at, captureEvery);
+            }
+
+            final Thread[] others = startOtherCores(cores, control, 0, System.err);
+            final String reason = run.run(cycleLimit, untilAddress, -1);
+
+            // Before the report (so the memory stays put)
+            stopCores(others);
+            if (run.getErrorMessage() != null) {
+                System.err.println(run.getErrorMessage());
+            }
+            if (capture != null) {
+                try {
+                    try {
+                        run.captureFrame();
+                    } finally {
+                        capture.close();
+                    }
+                } catch (IOException | RuntimeException ex) {
+                    System.err.println(ex.getMessage());
+                }
+            }
+            run.printReport(System.out, reason, dumps);
+            writeProfile(proc.getProfiler(), profileFile, stacksFile);
+            mapped.forEach(MappedMemory::force);
+
+            if (snapshotFile != null) {
+                try {
+                    Snapshot.save(Paths.get(snapshotFile), proc, mem);
+                } catch (IOException ex) {
+                    System.err.println(ex.getMessage());
+                }
+            }
+
+            // After the snapshot (which keeps reads that are still going)
+            if (disk != null) {
+                disk.close();
+            }
+            return;
+        }
+
+        final Screen screen = new Screen();
+        screen.setVisible(true);
         screen.setupMemory(mem);
+        screen.setInterruptControllers(interrupts.getControllers());
+        if (restoreFile != null && !restore(restoreFile, proc, mem)) {
+            screen.dispose();
+            return;
+        }
+        if (profileFile != null || stacksFile != null) {
+            // The window kills the whole thing when it is closed
+            final Profiler profiler = proc.enableProfiler();
+            final String hotFile = profileFile;
+            final String flameFile = stacksFile;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> writeProfile(profiler, hotFile, flameFile)));
+        }
+
+        // (The window kills the other cores when it is closed)
+        startOtherCores(cores, control, clock, System.out);
+        runCore(proc, control, clock, System.out);
+    }
 
+    // Every core other than the first one gets its own thread
+    private static Thread[] startOtherCores(ProcessUnit[] cores, CoreControl control, long clock, PrintStream log) {
+        final Thread[] threads = new Thread[cores.length - 1];
+        if (threads.length == 0) {
+            return threads;
+        }
+
+        cores[0].setOwner(Thread.currentThread());
+        for (int i = 1; i < cores.length; ++i) {
+            final ProcessUnit core = cores[i];
+            final Thread thread = new Thread(() -> runCore(core, control, clock, log), "Core " + i);
+            thread.setDaemon(true);
+            core.setOwner(thread);
+            thread.start();
+            threads[i - 1] = thread;
+        }
+        return threads;
+    }
+
+    private static void stopCores(Thread[] threads) {
+        // Interrupting the thread stops the Pacer (see runCore)
+        for (final Thread thread : threads) {
+            thread.interrupt();
+        }
         try {
-            while (true) {
-                proc.executeNextQuanta();
-                if (fastMode) {
-                    proc.executeNextQuanta();
-                    proc.executeNextQuanta();
-                    proc.executeNextQuanta();
-                }
+            for (final Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void runCore(ProcessUnit core, CoreControl control, long clock, PrintStream log) {
+        try {
+            control.awaitStart(core.getCoreId());
+            new Pacer(core, clock).run();
 
-                Thread.sleep(1);
+            // Only returns once the core is stopped by a fault
+            log.println(core.getFaultMessage());
+            log.println(core);
+        } catch (InterruptedException ex) {
+            // Stopped (see stopCores)
+        } catch (RuntimeException ex) {
+            log.println(ex.getMessage());
+            log.println(core);
+        }
+    }
+
+    private static void writeProfile(Profiler profiler, String profileFile, String stacksFile) {
+        if (profiler == null) {
+            return;
+        }
+
+        if (profileFile != null) {
+            try (final PrintStream out = new PrintStream(new FileOutputStream(profileFile))) {
+                profiler.writeHotSpots(out, HOT_SPOT_LIMIT);
+            } catch (IOException ex) {
+                System.err.println(ex.getMessage());
             }
-        } catch (RuntimeException | InterruptedException ex) {
+        }
+        if (stacksFile != null) {
+            try (final PrintStream out = new PrintStream(new FileOutputStream(stacksFile))) {
+                profiler.writeCollapsed(out);
+            } catch (IOException ex) {
+                System.err.println(ex.getMessage());
+            }
+        }
+    }
+
+    private static boolean restore(String file, ProcessUnit proc, MemoryUnit mem) {
+        try {
+            Snapshot.restore(Paths.get(file), proc, mem);
+            return true;
+        } catch (IOException | RuntimeException ex) {
             System.out.println(ex.getMessage());
-            System.out.println(proc);
+            return false;
         }
     }
 
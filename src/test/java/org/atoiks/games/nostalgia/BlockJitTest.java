@@ -0,0 +1,212 @@
+package org.atoiks.games.nostalgia;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Compiled blocks must not change anything the guest (or the host) can see:
+// every kernel here is run twice, once with the JIT and once without, and the
+// two machines have to agree after every single quanta.
+public class BlockJitTest {
+
+    private static final int RAM_SIZE = 0x1000;
+    private static final int TRAPS = 0x1080;
+    private static final int QUANTAS = 4000;
+
+    // Low enough that the loops below get compiled after a few iterations
+    private static final int THRESHOLD = 2;
+
+    // Counts the faults and carries on right after the faulting instruction
+    private static final String HANDLER = String.join("\n",
+            "HANDLER:",
+            "    ADD.I   %R13, 1",
+            "    LD.D    %R14D, 0x1084, %R0",
+            "    LD.D    %R10D, 0x1088, %R0",
+            "    ST.D    %R0D, 0x1084, %R0",
+            "    JABS.Z  %R0, 0, %R10D",
+            "");
+
+    private static final class Machine {
+
+        final byte[] ram = new byte[RAM_SIZE];
+        final ProcessUnit proc;
+
+        Machine(byte[] code, boolean jit) {
+            System.arraycopy(code, 0, this.ram, 0, code.length);
+
+            final MemoryUnit mem = new MemoryUnit();
+            mem.mapHandler(0, new GenericMemory(this.ram));
+
+            final TrapController traps = new TrapController();
+            mem.mapHandler(TRAPS, traps);
+
+            this.proc = new ProcessUnit(mem);
+            this.proc.setTrapController(traps);
+            if (jit) {
+                this.proc.enableJit(THRESHOLD);
+            }
+        }
+
+        boolean hasCompiledBlocks(int codeSize) {
+            for (int address = 0; address < codeSize; address += 2) {
+                if (this.proc.loadCachedInstr(address).block != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static byte[] assemble(String... lines) throws Exception {
+        final Assembler asm = new Assembler();
+        asm.loadSource(new BufferedReader(new StringReader(String.join("\n", lines) + "\n" + HANDLER)));
+        return asm.assembleAll();
+    }
+
+    private static void checkSameAsInterpreter(byte[] code) {
+        final Machine interp = new Machine(code, false);
+        final Machine jit = new Machine(code, true);
+
+        for (int i = 0; i < QUANTAS; ++i) {
+            interp.proc.executeNextQuanta();
+            jit.proc.executeNextQuanta();
+
+            final String where = "after quanta " + i;
+            assertArrayEquals(where, interp.proc.captureState(null), jit.proc.captureState(null));
+            assertEquals(where, interp.proc.getCycleCount(), jit.proc.getCycleCount());
+            assertEquals(where, interp.proc.getInstructionCount(), jit.proc.getInstructionCount());
+            assertEquals(where, interp.proc.getFault(), jit.proc.getFault());
+            assertArrayEquals(where, interp.ram, jit.ram);
+        }
+
+        // Otherwise this would be comparing the interpreter with itself
+        assertTrue("nothing was compiled", jit.hasCompiledBlocks(code.length));
+    }
+
+    @Test
+    public void loadsAndStores() throws Exception {
+        checkSameAsInterpreter(assemble(
+                "    MOV.I   %R4, 0x800",
+                "    MOV.I   %R6, 200",
+                "LOOP:",
+                "    LD.D    %R1D, 0, %R4",
+                "    ADD.I   %R1, 3",
+                "    ST.D    %R1D, 0, %R4",
+                "    LD.W    %R2, 4, %R4",
+                "    ADD.R   %R2, %R2, %R1",
+                "    ST.W    %R2, 6, %R4",
+                "    LD.B    %R3, 1, %R4",
+                "    ST.B    %R3, 7, %R4",
+                "    ST.B    %R2, 3, %R4",
+                "    ADD.I   %R4, 2",
+                "    SUB.I   %R6, 1",
+                "    JABS.NZ %R6, LOOP, %R0",
+                "DONE:",
+                "    JABS.Z  %R0, DONE, %R0"));
+    }
+
+    @Test
+    public void branchesAndCalls() throws Exception {
+        checkSameAsInterpreter(assemble(
+                "    MOV.I   %R8, 0xF00",
+                "    MOV.I   %R6, 200",
+                "LOOP:",
+                "    MOV.I   %R1, 0",
+                "    ADD.R   %R1, %R1, %R6",
+                "    AND.R   %R2, %R1, %R5",
+                "    JREL.Z  %R2, +2",
+                "    ADD.I   %R3, 1",
+                "    CALL.Z  %R0, FUNC, %R0",
+                "    SUB.I   %R1, 100",
+                "    JABS.GE %R1, SKIP, %R0",
+                "    ADD.I   %R7, 1",
+                "SKIP:",
+                "    SUB.I   %R6, 1",
+                "    JABS.NZ %R6, LOOP, %R0",
+                "DONE:",
+                "    JABS.Z  %R0, DONE, %R0",
+                "FUNC:",
+                "    PUSH.W  %R1, %R2",
+                "    ADD.I   %R5, 3",
+                "    POP.W   %R1, %R2",
+                "    RET     0"));
+    }
+
+    @Test
+    public void prefixesInsideBlocks() throws Exception {
+        // IEX (from the big immediates) and REX (from the dword registers)
+        // folded into instructions, and prefix chains too long to fold
+        // (which must not be split across quantas)
+        checkSameAsInterpreter(assemble(
+                "    MOV.I   %R6, 200",
+                "LOOP:",
+                "    MOV.I   %R1D, 0x12345",
+                "    ADD.R   %R9D, %R9D, %R1D",
+                "    MOV.I   %R2, 0x7FF",
+                "    .EMIT   0x80, 0x00, 0xE0, 0x01, 0x80, 0x00, 0xE0, 0x02",
+                "    MOV.I   %R3, 5",
+                "    .EMIT   0xE0, 0x03, 0xE0, 0x04, 0xE0, 0x05, 0xE0, 0x06",
+                "    ADD.I   %R4, 7",
+                "    .EMIT   0x80, 0x00, 0x80, 0x00, 0x80, 0x00",
+                "    MUL     %R11, %R12, %R3, %R2",
+                "    SUB.I   %R6, 1",
+                "    JABS.NZ %R6, LOOP, %R0",
+                "DONE:",
+                "    JABS.Z  %R0, DONE, %R0"));
+    }
+
+    @Test
+    public void selfModifyingCode() throws Exception {
+        // PATCH is overwritten from inside its own block, alternating
+        // between the two versions
+        checkSameAsInterpreter(assemble(
+                "    MOV.I   %R6, 200",
+                "    MOV.I   %R9, ALT1",
+                "    MOV.I   %R10, PATCH",
+                "    MOV.I   %R11, ALT1",
+                "    MOV.I   %R12, ALT2",
+                "    XOR.R   %R11, %R11, %R12",
+                "LOOP:",
+                "    LD.W    %R2, 0, %R9",
+                "    ST.W    %R2, 0, %R10",
+                "PATCH:",
+                "    ADD.I   %R3, 1",
+                "    XOR.R   %R9, %R9, %R11",
+                "    SUB.I   %R6, 1",
+                "    JABS.NZ %R6, LOOP, %R0",
+                "DONE:",
+                "    JABS.Z  %R0, DONE, %R0",
+                "ALT1:",
+                "    ADD.I   %R3, 5",
+                "ALT2:",
+                "    ADD.I   %R3, 1"));
+    }
+
+    @Test
+    public void faultsInsideBlocks() throws Exception {
+        // A bad load, a division by zero and a reserved opcode, all in the
+        // middle of a block (the handler resumes right after each)
+        checkSameAsInterpreter(assemble(
+                "    MOV.I   %R1D, HANDLER",
+                "    ST.D    %R1D, 0x1080, %R0",
+                "    MOV.I   %R4, 0x3000",
+                "    MOV.I   %R6, 200",
+                "LOOP:",
+                "    ADD.I   %R5, 1",
+                "    LD.D    %R3D, 0, %R4",
+                "    ADD.I   %R5, 2",
+                "    IDIV    %R7, %R2, %R5, %R0",
+                "    ADD.I   %R5, 3",
+                "    .EMIT   0x7F, 0x00",
+                "    ADD.I   %R5, 4",
+                "    SUB.I   %R6, 1",
+                "    JABS.NZ %R6, LOOP, %R0",
+                "DONE:",
+                "    JABS.Z  %R0, DONE, %R0"));
+    }
+}
@@ -0,0 +1,57 @@
+package org.atoiks.games.nostalgia;
+
+import java.util.function.IntSupplier;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+// Every core sees its own controller at the same address: a core can only
+// ever enable, see and clear its own lines.
+public class InterruptBankTest {
+
+    private static final int PENDING = 3;
+    private static final int ENABLED = 7;
+
+    // Runs the access on the thread owning that core
+    private static byte onCore(ProcessUnit core, IntSupplier access) throws Exception {
+        final int[] result = new int[1];
+        final Thread thread = new Thread(() -> result[0] = access.getAsInt());
+        core.setOwner(thread);
+        thread.start();
+        thread.join();
+        return (byte) result[0];
+    }
+
+    @Test
+    public void everyCoreHasItsOwnLines() throws Exception {
+        final MemoryUnit mem = new MemoryUnit();
+        final ProcessUnit[] cores = { new ProcessUnit(mem, 0), new ProcessUnit(mem, 1) };
+        final InterruptBank bank = new InterruptBank(cores);
+
+        final InterruptController[] controllers = bank.getControllers();
+        assertSame(controllers[1], cores[1].getInterruptController());
+
+        // Only core 1 enables (and gets) the DMA line
+        onCore(cores[1], () -> {
+            bank.writeOffset(ENABLED, (byte) (1 << InterruptController.IRQ_DMA));
+            return 0;
+        });
+        controllers[1].raise(InterruptController.IRQ_DMA);
+
+        assertEquals(0, bank.readOffset(ENABLED));
+        assertEquals(0, bank.readOffset(PENDING));
+        assertEquals(1 << InterruptController.IRQ_DMA, onCore(cores[1], () -> bank.readOffset(ENABLED)));
+        assertEquals(1 << InterruptController.IRQ_DMA, onCore(cores[1], () -> bank.readOffset(PENDING)));
+
+        // Clearing it on core 0 does nothing to core 1
+        bank.writeOffset(PENDING, (byte) 0xFF);
+        assertEquals(1 << InterruptController.IRQ_DMA, onCore(cores[1], () -> bank.readOffset(PENDING)));
+        onCore(cores[1], () -> {
+            bank.writeOffset(PENDING, (byte) 0xFF);
+            return 0;
+        });
+        assertEquals(0, onCore(cores[1], () -> bank.readOffset(PENDING)));
+    }
+}
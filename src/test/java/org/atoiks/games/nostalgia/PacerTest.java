@@ -0,0 +1,158 @@
+package org.atoiks.games.nostalgia;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// The pacer against a fake host clock: the guest has to get (very close to)
+// clock cycles for every second that passes on the host.
+public class PacerTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    // How far past the target the last quanta can go
+    private static final long SLACK = 64;
+
+    // Time only moves when the pacer waits. Once it passes the end, the
+    // pacer is stopped (run only returns on its own if the guest faults).
+    private static class FakeClock implements Pacer.HostClock {
+
+        final long end;
+        long now;
+        long lastWait;
+
+        FakeClock(long end) {
+            this.end = end;
+        }
+
+        @Override
+        public long nanoTime() {
+            return this.now;
+        }
+
+        @Override
+        public void await(ProcessUnit proc, long nanos) throws InterruptedException {
+            this.lastWait = this.now;
+            this.now += this.waited(nanos);
+            if (this.now > this.end) {
+                throw new InterruptedException();
+            }
+        }
+
+        long waited(long nanos) {
+            return nanos;
+        }
+    }
+
+    private static ProcessUnit load(String... lines) throws Exception {
+        final Assembler asm = new Assembler();
+        asm.loadSource(new BufferedReader(new StringReader(String.join("\n", lines) + "\n")));
+        final byte[] code = asm.assembleAll();
+
+        final byte[] ram = new byte[0x1000];
+        System.arraycopy(code, 0, ram, 0, code.length);
+
+        final MemoryUnit mem = new MemoryUnit();
+        mem.mapHandler(0, new GenericMemory(ram));
+
+        final ProcessUnit proc = new ProcessUnit(mem);
+        proc.setInterruptController(new InterruptController(proc));
+        return proc;
+    }
+
+    private static ProcessUnit loop() throws Exception {
+        return load(
+                "LOOP:",
+                "    ADD.I   %R1, 1",
+                "    JABS.Z  %R0, LOOP, %R0");
+    }
+
+    private static void runUntilStopped(ProcessUnit proc, long clock, FakeClock host) {
+        try {
+            new Pacer(proc, clock, host).run();
+            fail("the pacer stopped on its own");
+        } catch (InterruptedException ex) {
+            // The end of the fake time
+        }
+    }
+
+    private static void assertCycles(long expected, long actual) {
+        assertTrue("expected " + expected + " cycles, got " + actual,
+                expected <= actual && actual <= expected + SLACK);
+    }
+
+    @Test
+    public void keepsToTheClock() throws Exception {
+        final ProcessUnit proc = loop();
+        final FakeClock host = new FakeClock(10 * SECOND);
+        runUntilStopped(proc, Pacer.SLOW_CLOCK, host);
+
+        assertCycles(10 * Pacer.SLOW_CLOCK, proc.getCycleCount());
+    }
+
+    @Test
+    public void lateWakeUpsDoNotAddUp() throws Exception {
+        // Every wait oversleeps by 3ms
+        final ProcessUnit proc = loop();
+        final FakeClock host = new FakeClock(10 * SECOND) {
+            @Override
+            long waited(long nanos) {
+                return nanos + TimeUnit.MILLISECONDS.toNanos(3);
+            }
+        };
+        runUntilStopped(proc, Pacer.FAST_CLOCK, host);
+
+        // Worked out from the start, so it is right on time as of the last
+        // slice
+        assertCycles(host.lastWait * Pacer.FAST_CLOCK / SECOND, proc.getCycleCount());
+    }
+
+    @Test
+    public void dropsTheTimeIfTooFarBehind() throws Exception {
+        // The host goes to sleep for a minute half way through
+        final ProcessUnit proc = loop();
+        final FakeClock host = new FakeClock(62 * SECOND) {
+            @Override
+            long waited(long nanos) {
+                return this.now == SECOND ? nanos + 60 * SECOND : nanos;
+            }
+        };
+        runUntilStopped(proc, Pacer.SLOW_CLOCK, host);
+
+        // Instead of running the whole minute in one go, it carries on from
+        // where it was
+        final long cycles = proc.getCycleCount();
+        assertTrue("ran " + cycles + " cycles", cycles < 5 * Pacer.SLOW_CLOCK);
+        assertTrue("ran " + cycles + " cycles", cycles >= 2 * Pacer.SLOW_CLOCK - SLACK);
+    }
+
+    @Test
+    public void countsTheCyclesWhileHalted() throws Exception {
+        final ProcessUnit proc = load(
+                "    MOV.I   %R1, 1",
+                "    HALT");
+        final FakeClock host = new FakeClock(5 * SECOND);
+        runUntilStopped(proc, Pacer.SLOW_CLOCK, host);
+
+        assertTrue(proc.isIdle());
+        assertEquals(5 * Pacer.SLOW_CLOCK, proc.getCycleCount());
+    }
+
+    @Test
+    public void stopsOnAFault() throws Exception {
+        // Both when paced and when running as fast as possible
+        for (final long clock : new long[] { Pacer.SLOW_CLOCK, 0 }) {
+            final ProcessUnit proc = load(
+                    "    MOV.I   %R1, 1",
+                    "    LD.D    %R2D, 0x3000, %R0");
+            new Pacer(proc, clock, new FakeClock(SECOND)).run();
+            assertEquals(ProcessUnit.FAULT_BAD_ADDRESS, proc.getFault());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.atoiks.games.nostalgia;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+// Once the code is decoded (and compiled, with the JIT), running it should
+// not allocate anything: no boxing, no ByteBuffers, nothing per access.
+public class ProcessUnitAllocationTest {
+
+    private static final int WARMUP_QUANTAS = 200000;
+    private static final int QUANTAS = 100000;
+
+    // The JVM sometimes allocates a little on its own (when it recompiles
+    // something, for example), so the best of a few rounds is taken. Even a
+    // single allocation per access would be way over this.
+    private static final int ROUNDS = 5;
+    private static final long MAX_BYTES = 256;
+
+    // Byte, word and dword loads and stores, all in a loop
+    private static final String KERNEL = String.join("\n",
+            "    MOV.I   %R4, 0x1000",
+            "LOOP:",
+            "    LD.D    %R1D, 0, %R4",
+            "    ADD.I   %R1, 1",
+            "    ST.D    %R1D, 0, %R4",
+            "    LD.W    %R2, 4, %R4",
+            "    ST.W    %R2, 6, %R4",
+            "    LD.B    %R3, 1, %R4",
+            "    ST.B    %R3, 7, %R4",
+            "    JABS.Z  %R0, LOOP, %R0",
+            "");
+
+    private static ProcessUnit boot(boolean jit) throws Exception {
+        final Assembler asm = new Assembler();
+        asm.loadSource(new BufferedReader(new StringReader(KERNEL)));
+        final byte[] code = asm.assembleAll();
+
+        final byte[] ram = new byte[0x2000];
+        System.arraycopy(code, 0, ram, 0, code.length);
+
+        final MemoryUnit mem = new MemoryUnit();
+        mem.mapHandler(0, new GenericMemory(ram));
+
+        final ProcessUnit proc = new ProcessUnit(mem);
+        if (jit) {
+            proc.enableJit();
+        }
+        return proc;
+    }
+
+    private static long allocatedBytes(com.sun.management.ThreadMXBean bean) {
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void checkSteadyState(boolean jit) throws Exception {
+        final java.lang.management.ThreadMXBean platform = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(platform instanceof com.sun.management.ThreadMXBean);
+
+        final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) platform;
+        Assume.assumeTrue(bean.isThreadAllocatedMemorySupported());
+        bean.setThreadAllocatedMemoryEnabled(true);
+
+        final ProcessUnit proc = boot(jit);
+        for (int i = 0; i < WARMUP_QUANTAS; ++i) {
+            proc.executeNextQuanta();
+        }
+
+        // Once to get the counter itself warmed up
+        allocatedBytes(bean);
+
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; ++round) {
+            final long before = allocatedBytes(bean);
+            for (int i = 0; i < QUANTAS; ++i) {
+                proc.executeNextQuanta();
+            }
+            best = Math.min(best, allocatedBytes(bean) - before);
+        }
+
+        assertTrue("allocated " + best + " bytes in " + QUANTAS + " quantas", best <= MAX_BYTES);
+    }
+
+    @Test
+    public void interpreterDoesNotAllocate() throws Exception {
+        checkSteadyState(false);
+    }
+
+    @Test
+    public void jitDoesNotAllocate() throws Exception {
+        checkSteadyState(true);
+    }
+}
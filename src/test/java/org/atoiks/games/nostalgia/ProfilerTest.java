@@ -0,0 +1,130 @@
+package org.atoiks.games.nostalgia;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Every cycle the processor spends has to be charged somewhere: the hot
+// spots and the call stacks must both add up to the cycle count.
+public class ProfilerTest {
+
+    private static final int TRAPS = 0x1080;
+    private static final int QUANTAS = 3000;
+
+    private static ProcessUnit load(boolean jit, String... lines) throws Exception {
+        final Assembler asm = new Assembler();
+        asm.loadSource(new BufferedReader(new StringReader(String.join("\n", lines) + "\n")));
+        final byte[] code = asm.assembleAll();
+
+        final byte[] ram = new byte[0x1000];
+        System.arraycopy(code, 0, ram, 0, code.length);
+
+        final MemoryUnit mem = new MemoryUnit();
+        mem.mapHandler(0, new GenericMemory(ram));
+
+        final TrapController traps = new TrapController();
+        mem.mapHandler(TRAPS, traps);
+
+        final ProcessUnit proc = new ProcessUnit(mem);
+        proc.setTrapController(traps);
+        if (jit) {
+            // Must not take anything away from the profiler
+            proc.enableJit(2);
+        }
+        return proc;
+    }
+
+    private static long sumColumn(String output, int column) {
+        long sum = 0;
+        for (final String line : output.split("\n")) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            sum += Long.parseLong(line.trim().split("\\s+")[column]);
+        }
+        return sum;
+    }
+
+    private static void checkAddsUp(ProcessUnit proc) throws Exception {
+        final Profiler profiler = proc.enableProfiler();
+        for (int i = 0; i < QUANTAS; ++i) {
+            proc.executeNextQuanta();
+            assertEquals("after quanta " + i, proc.getCycleCount(), profiler.getTotalCycles());
+        }
+
+        final ByteArrayOutputStream hotSpots = new ByteArrayOutputStream();
+        profiler.writeHotSpots(new PrintStream(hotSpots, true, "UTF-8"), Integer.MAX_VALUE);
+        assertEquals(profiler.getTotalCycles(), sumColumn(hotSpots.toString("UTF-8"), 2));
+
+        final ByteArrayOutputStream stacks = new ByteArrayOutputStream();
+        profiler.writeCollapsed(new PrintStream(stacks, true, "UTF-8"));
+        assertEquals(profiler.getTotalCycles(), sumColumn(stacks.toString("UTF-8"), 1));
+    }
+
+    @Test
+    public void callsAndPrefixes() throws Exception {
+        for (final boolean jit : new boolean[] { false, true }) {
+            checkAddsUp(load(jit,
+                    "    MOV.I   %R8, 0xF00",
+                    "LOOP:",
+                    "    MOV.I   %R1D, 0x12345",
+                    "    CALL.Z  %R0, OUTER, %R0",
+                    "    .EMIT   0xE0, 0x03, 0xE0, 0x04, 0xE0, 0x05",
+                    "    ADD.I   %R2, 1",
+                    "    JABS.Z  %R0, LOOP, %R0",
+                    "OUTER:",
+                    "    ADD.I   %R3, 1",
+                    "    CALL.Z  %R0, INNER, %R0",
+                    "    CALL.NZ %R0, INNER, %R0",
+                    "    RET     0",
+                    "INNER:",
+                    "    MUL     %R4, %R5, %R3, %R1",
+                    "    RET     0"));
+        }
+    }
+
+    @Test
+    public void faults() throws Exception {
+        // Including the cycles of the faulting instructions
+        checkAddsUp(load(false,
+                "    MOV.I   %R1D, HANDLER",
+                "    ST.D    %R1D, 0x1080, %R0",
+                "LOOP:",
+                "    LD.D    %R3D, 0x3000, %R0",
+                "    IDIV    %R7, %R2, %R5, %R0",
+                "    .EMIT   0x7F, 0x00",
+                "    JABS.Z  %R0, LOOP, %R0",
+                "HANDLER:",
+                "    ADD.I   %R13, 1",
+                "    LD.D    %R10D, 0x1088, %R0",
+                "    ST.D    %R0D, 0x1084, %R0",
+                "    JABS.Z  %R0, 0, %R10D"));
+    }
+
+    @Test
+    public void countsEveryInstruction() throws Exception {
+        final ProcessUnit proc = load(false,
+                "LOOP:",
+                "    ADD.I   %R1, 1",
+                "    JABS.Z  %R0, LOOP, %R0");
+        final Profiler profiler = proc.enableProfiler();
+        for (int i = 0; i < QUANTAS; ++i) {
+            proc.executeNextQuanta();
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        profiler.writeHotSpots(new PrintStream(out, true, "UTF-8"), Integer.MAX_VALUE);
+        final String report = out.toString("UTF-8");
+        assertTrue(report, report.startsWith("# instructions=" + proc.getInstructionCount() + " "));
+
+        // One line for each of the two instructions
+        assertEquals(proc.getInstructionCount(), sumColumn(report, 1));
+        assertEquals(2, report.split("\n").length - 2);
+    }
+}
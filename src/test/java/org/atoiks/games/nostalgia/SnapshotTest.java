@@ -0,0 +1,168 @@
+package org.atoiks.games.nostalgia;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+// A machine restored from a snapshot has to carry on exactly like the one
+// that was saved.
+public class SnapshotTest {
+
+    private static final int RAM_SIZE = 0x1000;
+    private static final int TRAPS = 0x1080;
+    private static final int BEFORE = 300;
+    private static final int AFTER = 2000;
+
+    // Writes all over its memory, uses the stack and keeps faulting
+    // (the handler carries on right after the faulting instruction)
+    private static final String KERNEL = String.join("\n",
+            "    MOV.I   %R1D, HANDLER",
+            "    ST.D    %R1D, 0x1080, %R0",
+            "    MOV.I   %R4, 0x800",
+            "    MOV.I   %R8, 0xF00",
+            "    MOV.I   %R11, 0x3FF",
+            "    MOV.I   %R12, 0x800",
+            "LOOP:",
+            "    LD.D    %R1D, 0, %R4",
+            "    ADD.I   %R1D, 0x1234",
+            "    ST.D    %R1D, 4, %R4",
+            "    ADD.I   %R4, 2",
+            "    AND.R   %R4, %R4, %R11",
+            "    OR.R    %R4, %R4, %R12",
+            "    PUSH.W  %R4, %R4",
+            "    POP.W   %R5, %R5",
+            "    IDIV    %R6, %R7, %R5, %R0",
+            "    JABS.Z  %R0, LOOP, %R0",
+            "HANDLER:",
+            "    ADD.I   %R13, 1",
+            "    LD.D    %R10D, 0x1088, %R0",
+            "    ST.D    %R0D, 0x1084, %R0",
+            "    JABS.Z  %R0, 0, %R10D",
+            "");
+
+    private static final class Machine {
+
+        final byte[] ram = new byte[RAM_SIZE];
+        final MemoryUnit mem = new MemoryUnit();
+        final ProcessUnit proc;
+
+        Machine(byte[] code, boolean jit) {
+            System.arraycopy(code, 0, this.ram, 0, code.length);
+            this.mem.mapHandler(0, new GenericMemory(this.ram));
+
+            final TrapController traps = new TrapController();
+            this.mem.mapHandler(TRAPS, traps);
+
+            this.proc = new ProcessUnit(this.mem);
+            this.proc.setTrapController(traps);
+            if (jit) {
+                this.proc.enableJit(2);
+            }
+        }
+    }
+
+    private static byte[] assemble(String src) throws Exception {
+        final Assembler asm = new Assembler();
+        asm.loadSource(new BufferedReader(new StringReader(src)));
+        return asm.assembleAll();
+    }
+
+    private static void checkContinuesTheSame(boolean jit) throws Exception {
+        final Machine saved = new Machine(assemble(KERNEL), jit);
+        for (int i = 0; i < BEFORE; ++i) {
+            saved.proc.executeNextQuanta();
+        }
+
+        final Path file = Files.createTempFile("nostalgia", ".snap");
+        try {
+            Snapshot.save(file, saved.proc, saved.mem);
+
+            // Same layout, but nothing loaded (everything has to come from
+            // the snapshot)
+            final Machine restored = new Machine(new byte[0], jit);
+            Snapshot.restore(file, restored.proc, restored.mem);
+
+            assertArrayEquals(saved.proc.captureState(null), restored.proc.captureState(null));
+            assertArrayEquals(saved.ram, restored.ram);
+
+            for (int i = 0; i < AFTER; ++i) {
+                saved.proc.executeNextQuanta();
+                restored.proc.executeNextQuanta();
+
+                final String where = "after quanta " + i;
+                assertArrayEquals(where, saved.proc.captureState(null), restored.proc.captureState(null));
+                assertEquals(where, saved.proc.getCycleCount(), restored.proc.getCycleCount());
+                assertEquals(where, saved.proc.getInstructionCount(), restored.proc.getInstructionCount());
+                assertEquals(where, saved.proc.getFault(), restored.proc.getFault());
+                assertArrayEquals(where, saved.ram, restored.ram);
+            }
+
+            // Otherwise the handler was never tested
+            assertEquals(saved.proc.readRegDword(13), restored.proc.readRegDword(13));
+            if (saved.proc.readRegDword(13) == 0) {
+                fail("the kernel never faulted");
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void continuesTheSame() throws Exception {
+        checkContinuesTheSame(false);
+    }
+
+    @Test
+    public void continuesTheSameWithTheJit() throws Exception {
+        checkContinuesTheSame(true);
+    }
+
+    @Test
+    public void keepsUnhandledFaults() throws Exception {
+        // Must not come back as a processor that is just halted
+        final Machine saved = new Machine(assemble("    LD.D    %R1D, 0x3000, %R0\n"), false);
+        saved.proc.executeNextQuanta();
+        assertEquals(ProcessUnit.FAULT_BAD_ADDRESS, saved.proc.getFault());
+
+        final Path file = Files.createTempFile("nostalgia", ".snap");
+        try {
+            Snapshot.save(file, saved.proc, saved.mem);
+
+            final Machine restored = new Machine(new byte[0], false);
+            Snapshot.restore(file, restored.proc, restored.mem);
+            assertEquals(ProcessUnit.FAULT_BAD_ADDRESS, restored.proc.getFault());
+            assertEquals(saved.proc.getFaultMessage(), restored.proc.getFaultMessage());
+
+            restored.proc.executeNextQuanta();
+            assertEquals(saved.proc.getIP(), restored.proc.getIP());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws Exception {
+        final Path file = Files.createTempFile("nostalgia", ".snap");
+        try {
+            Files.write(file, new byte[ProcessUnit.SNAPSHOT_SIZE + 64]);
+
+            final Machine m = new Machine(new byte[0], false);
+            try {
+                Snapshot.restore(file, m.proc, m.mem);
+                fail("restored something that is not a snapshot");
+            } catch (IOException ex) {
+                // Expected
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package org.atoiks.games.nostalgia.toolchain;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.atoiks.games.nostalgia.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Every way a headless run can stop (see HeadlessRun.run)
+public class HeadlessRunTest {
+
+    private static final int KERNEL = 0x4000;
+    private static final int KERNEL_SIZE = 0x1000;
+    private static final int TRAPS = 0x1080;
+
+    private static final class Machine {
+
+        final MemoryUnit mem = new MemoryUnit();
+        final ProcessUnit proc;
+        final HeadlessRun run;
+
+        Machine(String... lines) throws Exception {
+            final Assembler asm = new Assembler();
+            asm.loadSource(new BufferedReader(new StringReader("    .ORG 0x4000\n" + String.join("\n", lines) + "\n")));
+            final byte[] code = asm.assembleAll();
+
+            final byte[] ram = new byte[KERNEL_SIZE];
+            System.arraycopy(code, 0, ram, 0, code.length);
+            this.mem.mapHandler(KERNEL, new GenericMemory(ram));
+
+            this.proc = new ProcessUnit(this.mem);
+            this.proc.setIP(KERNEL);
+            this.run = new HeadlessRun(this.mem, this.proc);
+        }
+
+        Machine withInterrupts() {
+            this.proc.setInterruptController(new InterruptController(this.proc));
+            return this;
+        }
+
+        Machine withTraps() {
+            final TrapController traps = new TrapController();
+            this.mem.mapHandler(TRAPS, traps);
+            this.proc.setTrapController(traps);
+            return this;
+        }
+    }
+
+    // Keeps writing to memory, so it never looks stuck
+    private static final String[] BUSY = {
+            "    MOV.I   %R2, 0x4800",
+            "LOOP:",
+            "    ADD.I   %R1, 1",
+            "    ST.W    %R1, 0, %R2",
+            "    JABS.Z  %R0, LOOP, %R0",
+    };
+
+    @Test
+    public void stopsAtTheCycleLimit() throws Exception {
+        final Machine m = new Machine(BUSY);
+        assertEquals("budget", m.run.run(5000, null, -1));
+        assertTrue(m.proc.getCycleCount() >= 5000);
+    }
+
+    @Test
+    public void stopsAtTheAddress() throws Exception {
+        final Machine m = new Machine(
+                "    MOV.I   %R1, 1",
+                "    MOV.I   %R2, 2",
+                "    MOV.I   %R3, 3",
+                "DONE:",
+                "    JABS.Z  %R0, DONE, %R0");
+        assertEquals("address", m.run.run(-1, KERNEL + 4, -1));
+        assertEquals(KERNEL + 4, m.proc.getIP());
+        assertEquals(2, m.proc.readRegDword(2));
+        assertEquals(0, m.proc.readRegDword(3));
+    }
+
+    @Test
+    public void haltsOnAJumpToItself() throws Exception {
+        final Machine m = new Machine(
+                "DONE:",
+                "    JABS.Z  %R0, DONE, %R0");
+        assertEquals("halt", m.run.run(-1, null, -1));
+    }
+
+    @Test
+    public void haltsOnALongerLoop() throws Exception {
+        // The registers keep changing, but only ever go through the same
+        // 4096 states (and nothing is written to memory)
+        final Machine m = new Machine(
+                "    MOV.I   %R3, 0xFFF",
+                "LOOP:",
+                "    ADD.I   %R1, 1",
+                "    AND.R   %R1, %R1, %R3",
+                "    ADD.R   %R2, %R2, %R1",
+                "    JABS.Z  %R0, LOOP, %R0");
+        assertEquals("halt", m.run.run(-1, null, TimeUnit.SECONDS.toNanos(30)));
+    }
+
+    @Test
+    public void haltsOnHaltWithNothingToWakeUp() throws Exception {
+        final Machine m = new Machine(
+                "    MOV.I   %R1, 1",
+                "    HALT",
+                "    MOV.I   %R1, 2").withInterrupts();
+        assertEquals("halt", m.run.run(-1, null, -1));
+        assertTrue(m.proc.isIdle());
+        assertEquals(1, m.proc.readRegDword(1));
+    }
+
+    @Test
+    public void timesOut() throws Exception {
+        final long timeout = TimeUnit.MILLISECONDS.toNanos(20);
+        final Machine m = new Machine(BUSY);
+        assertEquals("timeout", m.run.run(-1, null, timeout));
+        assertTrue(m.run.getRunNanos() >= timeout);
+    }
+
+    @Test
+    public void unhandledFaultsAreErrors() throws Exception {
+        final Machine m = new Machine(
+                "    MOV.I   %R4, 0x3000",
+                "    LD.D    %R1D, 0, %R4").withTraps();
+        assertEquals("error", m.run.run(-1, null, -1));
+        assertTrue(m.run.getErrorMessage(), m.run.getErrorMessage().contains("3000"));
+
+        final Machine n = new Machine(
+                "    IDIV    %R1, %R2, %R3, %R0");
+        assertEquals("error", n.run.run(-1, null, -1));
+    }
+
+    @Test
+    public void illegalOpcodes() throws Exception {
+        // (A reserved one)
+        final Machine m = new Machine(
+                "    .EMIT   0x7F, 0x00");
+        assertEquals("illegal", m.run.run(-1, null, -1));
+        assertEquals(ProcessUnit.FAULT_ILLEGAL_OP, m.proc.getFault());
+    }
+
+    @Test
+    public void failingDevicesAreErrors() throws Exception {
+        final Machine m = new Machine(
+                "    MOV.I   %R1, 1",
+                "    ST.B    %R1, 0x1100, %R0");
+        m.mem.mapHandler(0x1100, new MemoryHandler() {
+            @Override
+            public int getCapacity() {
+                return 1;
+            }
+
+            @Override
+            public byte readOffset(int offset) {
+                return 0;
+            }
+
+            @Override
+            public void writeOffset(int offset, byte b) {
+                throw new IllegalStateException("Broken device");
+            }
+        });
+        assertEquals("error", m.run.run(-1, null, -1));
+        assertEquals("Broken device", m.run.getErrorMessage());
+    }
+}
@@ -0,0 +1,240 @@
+package org.atoiks.games.nostalgia.toolchain;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// The machines here do not run anything, they just keep a thread busy (or
+// not) for a while, which is all the scheduler ever sees of them.
+public class MachineSchedulerTest {
+
+    private static final long SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int TOTAL_SLICES = 400;
+
+    // Keeps a thread busy for a while each slice (like a real machine would),
+    // until all of them together ran enough slices
+    private static final class Spinner implements MachineScheduler.Machine {
+
+        final AtomicInteger total;
+        int slices;
+
+        Spinner(AtomicInteger total) {
+            this.total = total;
+        }
+
+        @Override
+        public boolean runSlice(int quantas) {
+            final long end = System.nanoTime() + SLICE_NANOS;
+            while (System.nanoTime() - end < 0) {
+                // Busy
+            }
+
+            ++this.slices;
+            return this.total.incrementAndGet() >= TOTAL_SLICES;
+        }
+
+        @Override
+        public boolean isBlocked() {
+            return false;
+        }
+    }
+
+    private static void await(CompletableFuture<Void> done) throws Exception {
+        done.get(30, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void sharesTheThreadFairly() throws Exception {
+        final AtomicInteger total = new AtomicInteger();
+        final Spinner a = new Spinner(total);
+        final Spinner b = new Spinner(total);
+
+        try (final MachineScheduler sched = new MachineScheduler(1, 1, 2)) {
+            final CompletableFuture<Void> doneA = sched.submit(a, 1);
+            final CompletableFuture<Void> doneB = sched.submit(b, 1);
+            await(doneA);
+            await(doneB);
+        }
+
+        final double ratio = (double) a.slices / b.slices;
+        assertTrue(a.slices + " vs " + b.slices + " slices", 0.75 < ratio && ratio < 1.33);
+    }
+
+    @Test
+    public void givesMoreTimeToHigherPriorities() throws Exception {
+        final AtomicInteger total = new AtomicInteger();
+        final Spinner high = new Spinner(total);
+        final Spinner low = new Spinner(total);
+
+        try (final MachineScheduler sched = new MachineScheduler(1, 1, 2)) {
+            final CompletableFuture<Void> doneLow = sched.submit(low, 1);
+            final CompletableFuture<Void> doneHigh = sched.submit(high, 2);
+            await(doneLow);
+            await(doneHigh);
+        }
+
+        // Twice the time
+        final double ratio = (double) high.slices / low.slices;
+        assertTrue(high.slices + " vs " + low.slices + " slices", 1.5 < ratio && ratio < 2.7);
+    }
+
+    @Test
+    public void latecomersDoNotHogTheThread() throws Exception {
+        final AtomicInteger total = new AtomicInteger();
+        final Spinner early = new Spinner(total);
+        final Spinner late = new Spinner(total);
+
+        try (final MachineScheduler sched = new MachineScheduler(1, 1, 2)) {
+            final CompletableFuture<Void> doneEarly = sched.submit(early, 1);
+            while (total.get() < TOTAL_SLICES / 2) {
+                Thread.sleep(1);
+            }
+
+            final int before = early.slices;
+            final CompletableFuture<Void> doneLate = sched.submit(late, 1);
+            await(doneEarly);
+            await(doneLate);
+
+            // From then on, both get (about) the same
+            final int after = early.slices - before;
+            assertTrue(after + " vs " + late.slices + " slices", after > late.slices / 2);
+        }
+    }
+
+    @Test
+    public void submitWaitsForRoom() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final MachineScheduler.Machine waiting = new MachineScheduler.Machine() {
+            @Override
+            public boolean runSlice(int quantas) throws Exception {
+                return release.await(1, TimeUnit.MILLISECONDS);
+            }
+
+            @Override
+            public boolean isBlocked() {
+                return false;
+            }
+        };
+
+        try (final MachineScheduler sched = new MachineScheduler(2, 1, 1)) {
+            final CompletableFuture<Void> first = sched.submit(waiting, 1);
+
+            final CompletableFuture<CompletableFuture<Void>> submitted = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return sched.submit(new Spinner(new AtomicInteger(TOTAL_SLICES)), 1);
+                } catch (InterruptedException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            });
+
+            // Not while the first one is still in there
+            try {
+                submitted.get(100, TimeUnit.MILLISECONDS);
+                fail("submit did not wait");
+            } catch (TimeoutException ex) {
+                // Expected
+            }
+
+            release.countDown();
+            await(first);
+            await(submitted.get(30, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void blockedMachinesSitOut() throws Exception {
+        // Waits on a device for 50ms (without using up any time itself)
+        final long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50);
+        final AtomicInteger polls = new AtomicInteger();
+        final MachineScheduler.Machine polling = new MachineScheduler.Machine() {
+            @Override
+            public boolean runSlice(int quantas) {
+                polls.incrementAndGet();
+                return System.nanoTime() - end >= 0;
+            }
+
+            @Override
+            public boolean isBlocked() {
+                return true;
+            }
+        };
+
+        try (final MachineScheduler sched = new MachineScheduler(1, 1, 1)) {
+            await(sched.submit(polling, 1));
+        }
+
+        // Instead of being polled over and over
+        assertTrue(polls.get() + " polls", polls.get() <= 50 + 1);
+    }
+
+    @Test
+    public void errorsFailOnlyThatMachine() throws Exception {
+        final StackOverflowError error = new StackOverflowError();
+        final MachineScheduler.Machine broken = new MachineScheduler.Machine() {
+            @Override
+            public boolean runSlice(int quantas) {
+                throw error;
+            }
+
+            @Override
+            public boolean isBlocked() {
+                return false;
+            }
+        };
+
+        // One thread and room for one machine: both have to survive the
+        // error for the next machine to run at all
+        try (final MachineScheduler sched = new MachineScheduler(1, 1, 1)) {
+            try {
+                await(sched.submit(broken, 1));
+                fail("the error was lost");
+            } catch (ExecutionException ex) {
+                assertSame(error, ex.getCause());
+            }
+
+            final Spinner next = new Spinner(new AtomicInteger());
+            await(sched.submit(next, 1));
+            assertEquals(TOTAL_SLICES, next.slices);
+        }
+    }
+
+    @Test
+    public void closeFailsUnfinishedMachines() throws Exception {
+        final MachineScheduler.Machine forever = new MachineScheduler.Machine() {
+            @Override
+            public boolean runSlice(int quantas) {
+                return false;
+            }
+
+            @Override
+            public boolean isBlocked() {
+                return false;
+            }
+        };
+
+        final CompletableFuture<Void> done;
+        try (final MachineScheduler sched = new MachineScheduler(1, 1, 1)) {
+            done = sched.submit(forever, 1);
+        }
+
+        assertTrue(done.isDone());
+        try {
+            done.get();
+            fail("an unfinished machine completed");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+        assertFalse(done.isCancelled());
+    }
+}